@@ -0,0 +1,31 @@
+# ProGuard rules for the trimmed all-in-one jar. Only unused classes
+#  and members are removed, nothing is renamed or optimised.
+-dontobfuscate
+-dontoptimize
+# Re-target to Java 8, as class data sharing can't archive older class
+#  files, which some of the dependencies are
+-target 8
+
+# PDFBox refers to plenty of optional libraries we don't ship
+-dontwarn **
+-dontnote **
+
+# All of ours, including the JMX interfaces and the client
+-keep class com.quanticate.opensource.pdftkbox.** { *; }
+-keepattributes *Annotation*,Signature,InnerClasses,EnclosingMethod
+
+# Commons Logging finds its implementation by name
+-keep class org.apache.commons.logging.** { *; }
+
+# Created by reflection within PDFBox
+-keepclassmembers class * extends org.apache.pdfbox.pdmodel.encryption.SecurityHandler {
+    <init>(...);
+}
+-keepclassmembers class * implements org.apache.pdfbox.pdmodel.common.COSObjectable {
+    public <init>(org.apache.pdfbox.cos.COSDictionary);
+    public <init>(org.apache.pdfbox.cos.COSBase);
+}
+-keepclassmembers enum * {
+    public static **[] values();
+    public static ** valueOf(java.lang.String);
+}
@@ -0,0 +1,135 @@
+/* ====================================================================
+  Copyright 2017 Quanticate Ltd
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+==================================================================== */
+package com.quanticate.opensource.pdftkbox;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.outline.PDDocumentOutline;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks for each stage of exporting and importing bookmarks,
+ *  on synthetic PDFs of various sizes and outline shapes.
+ * Run with "gradle jmh", which also reports allocation rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BookmarksBenchmark {
+   @Param({"100", "2000"})
+   public int pages;
+   @Param({"1", "3"})
+   public int depth;
+   @Param({"20"})
+   public int width;
+
+   private File pdf;
+   private String text;
+   private List<PDFBookmark> parsed;
+   private Bookmarks bookmarks;
+   private PDDocument document;
+
+   @Setup(Level.Trial)
+   public void setup() throws IOException {
+      pdf = new SyntheticPdf(pages, depth, width).createFile();
+      text = SyntheticPdf.exportText(pdf);
+      parsed = new BookmarkParser().parse(new StringReader(text));
+
+      bookmarks = new Bookmarks(pdf);
+      document = PDDocument.load(pdf);
+   }
+   @TearDown(Level.Trial)
+   public void tearDown() throws IOException {
+      bookmarks.close();
+      document.close();
+      pdf.delete();
+   }
+
+   @Benchmark
+   public void load(Blackhole bh) throws IOException {
+      try (PDDocument loaded = PDDocument.load(pdf)) {
+         bh.consume(loaded.getNumberOfPages());
+      }
+   }
+
+   @Benchmark
+   public void exportBookmarks() throws IOException {
+      PrintWriter output = new PrintWriter(new NullWriter());
+      bookmarks.exportBookmarks(output);
+      output.flush();
+   }
+
+   @Benchmark
+   public void parseBookmarks(final Blackhole bh) throws IOException {
+      new BookmarkParser().parse(new StringReader(text), new BookmarkParser.BookmarkHandler() {
+         @Override
+         public void handleBookmark(PDFBookmark bookmark, int lineNumber) {
+            bh.consume(bookmark);
+         }
+      });
+   }
+
+   @Benchmark
+   public PDDocumentOutline importAllBookmarks() throws IOException {
+      PDDocumentOutline outline = new PDDocumentOutline();
+      bookmarks.importAllBookmarks(parsed, outline);
+      return outline;
+   }
+
+   @Benchmark
+   public void save() throws IOException {
+      document.save(new NullOutputStream());
+   }
+
+   protected static class NullWriter extends Writer {
+      @Override
+      public void write(char[] cbuf, int off, int len) {}
+      @Override
+      public void flush() {}
+      @Override
+      public void close() {}
+   }
+   protected static class NullOutputStream extends OutputStream {
+      @Override
+      public void write(int b) {}
+      @Override
+      public void write(byte[] b, int off, int len) {}
+   }
+}
@@ -0,0 +1,88 @@
+/* ====================================================================
+  Copyright 2017 Quanticate Ltd
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+==================================================================== */
+package com.quanticate.opensource.pdftkbox;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.destination.PDPageDestination;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.outline.PDOutlineItem;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares finding the page of every bookmark by walking the page
+ *  tree each time, against one shared {@link PageIndex}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PageIndexBenchmark {
+   @Param({"500", "5000"})
+   public int pages;
+   @Param({"8000"})
+   public int bookmarks;
+
+   private PDDocument document;
+   private List<PDPageDestination> destinations;
+
+   @Setup(Level.Trial)
+   public void setup() throws IOException {
+      document = new SyntheticPdf(pages, 1, bookmarks).create();
+
+      destinations = new ArrayList<>(bookmarks);
+      for (PDOutlineItem item : document.getDocumentCatalog().getDocumentOutline().children()) {
+         destinations.add((PDPageDestination)item.getDestination());
+      }
+   }
+   @TearDown(Level.Trial)
+   public void tearDown() throws IOException {
+      document.close();
+   }
+
+   @Benchmark
+   public void retrievePageNumber(Blackhole bh) {
+      for (PDPageDestination dest : destinations) {
+         bh.consume(dest.retrievePageNumber());
+      }
+   }
+
+   @Benchmark
+   public void pageIndex(Blackhole bh) {
+      PageIndex index = new PageIndex(document);
+      for (PDPageDestination dest : destinations) {
+         bh.consume(index.getPageIndex(dest));
+      }
+   }
+}
@@ -0,0 +1,100 @@
+/* ====================================================================
+  Copyright 2017 Quanticate Ltd
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+==================================================================== */
+package com.quanticate.opensource.pdftkbox;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares saving a PDF with a new outline in full, as PDFBox does,
+ *  against saving it compacted into object streams. Time is what
+ *  JMH measures, the size of the saved file is printed at the end
+ *  of each trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SaveBenchmark {
+   @Param({"100", "2000"})
+   public int pages;
+   @Param({"1", "3"})
+   public int depth;
+   @Param({"20"})
+   public int width;
+   @Param({"Full", "Compact"})
+   public Bookmarks.SaveMode mode;
+
+   private File pdf;
+   private PDDocument document;
+   private long size;
+
+   @Setup(Level.Trial)
+   public void setup() throws IOException {
+      pdf = new SyntheticPdf(pages, depth, width).createFile();
+      document = PDDocument.load(pdf);
+   }
+   @TearDown(Level.Trial)
+   public void tearDown() throws IOException {
+      System.out.println();
+      System.out.println("Saved " + mode + " size: " + size + " bytes, from " + pdf.length());
+      document.close();
+      pdf.delete();
+   }
+
+   @Benchmark
+   public long save() throws IOException {
+      SizeOutputStream output = new SizeOutputStream();
+      if (mode == Bookmarks.SaveMode.Compact) {
+         new CompactWriter(document).write(output);
+      } else {
+         document.save(output);
+      }
+      size = output.size;
+      return size;
+   }
+
+   protected static class SizeOutputStream extends OutputStream {
+      private long size;
+      @Override
+      public void write(int b) {
+         size++;
+      }
+      @Override
+      public void write(byte[] b, int off, int len) {
+         size += len;
+      }
+   }
+}
@@ -0,0 +1,113 @@
+/* ====================================================================
+  Copyright 2017 Quanticate Ltd
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+==================================================================== */
+package com.quanticate.opensource.pdftkbox;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time for a new JVM to export the bookmarks of a small PDF, from
+ *  start to exit, for the all-in-one jar, the trimmed jar, the trimmed
+ *  jar with its class data sharing archive, and the launcher script
+ *  (which also limits short runs to the quick-starting compiler).
+ *  Needs "gradle shadowJar cdsArchive" to have been run first.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StartupBenchmark {
+   private static final String MAIN = "com.quanticate.opensource.pdftkbox.PDFtkBox";
+
+   @Param({"shadow", "trimmed", "cds", "launcher"})
+   public String variant;
+
+   private List<String> command;
+   private File output;
+
+   @Setup(Level.Trial)
+   public void setup() throws IOException {
+      File libs = new File(System.getProperty("pdftkbox.libs", "build/libs"));
+      File dist = new File(System.getProperty("pdftkbox.dist", "build/dist"));
+      File sample = new File(System.getProperty("pdftkbox.sample", "src/test/resources/TwoPages.pdf"));
+      String java = new File(System.getProperty("java.home"), "bin/java").getPath();
+      File trimmed = new File(dist, "PDFtkBox.jar").getAbsoluteFile();
+
+      command = new ArrayList<>();
+      if ("shadow".equals(variant)) {
+         command.add(java);
+         command.add("-cp");
+         command.add(require(new File(libs, "PDFtkBox.jar")).getPath());
+         command.add(MAIN);
+      } else if ("trimmed".equals(variant)) {
+         command.add(java);
+         command.add("-cp");
+         command.add(require(trimmed).getPath());
+         command.add(MAIN);
+      } else if ("cds".equals(variant)) {
+         command.add(java);
+         command.add("-XX:SharedArchiveFile=" + require(new File(dist, "PDFtkBox.jsa")).getAbsolutePath());
+         command.add("-Xshare:on");
+         command.add("-cp");
+         command.add(require(trimmed).getPath());
+         command.add(MAIN);
+      } else {
+         command.add(require(new File(dist, "pdftkbox")).getAbsolutePath());
+      }
+      command.add("-export");
+      command.add(require(sample).getAbsolutePath());
+
+      output = File.createTempFile("startup", ".txt");
+      output.deleteOnExit();
+   }
+   private static File require(File file) throws IOException {
+      if (! file.exists()) {
+         throw new IOException("Missing " + file + ", run gradle shadowJar cdsArchive first");
+      }
+      return file;
+   }
+
+   @Benchmark
+   public int startAndExport() throws IOException, InterruptedException {
+      Process process = new ProcessBuilder(command)
+            .redirectOutput(output)
+            .redirectError(ProcessBuilder.Redirect.INHERIT)
+            .start();
+      int exit = process.waitFor();
+      if (exit != 0) {
+         throw new IllegalStateException("Exit code " + exit + " from " + command);
+      }
+      return exit;
+   }
+}
@@ -0,0 +1,108 @@
+/* ====================================================================
+  Copyright 2017 Quanticate Ltd
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+==================================================================== */
+package com.quanticate.opensource.pdftkbox;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.destination.PDPageFitWidthDestination;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.outline.PDDocumentOutline;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.outline.PDOutlineItem;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.outline.PDOutlineNode;
+
+/**
+ * Generates PDFs of blank pages with an outline of the requested
+ *  shape, for benchmarking. Every outline node gets "width" children,
+ *  down to "depth" levels, so there are width + width^2 + ... + 
+ *  width^depth bookmarks in all, spread evenly across the pages.
+ */
+public class SyntheticPdf {
+   private final int pages;
+   private final int depth;
+   private final int width;
+   private int nextPage;
+   private int bookmarks;
+
+   public SyntheticPdf(int pages, int depth, int width) {
+      this.pages = pages;
+      this.depth = depth;
+      this.width = width;
+   }
+
+   /**
+    * Builds the document in memory
+    */
+   public PDDocument create() {
+      PDDocument document = new PDDocument();
+      for (int i=0; i<pages; i++) {
+         document.addPage(new PDPage());
+      }
+
+      PDDocumentOutline outline = new PDDocumentOutline();
+      document.getDocumentCatalog().setDocumentOutline(outline);
+      nextPage = 0;
+      bookmarks = 0;
+      addChildren(document, outline, 1);
+
+      return document;
+   }
+   private void addChildren(PDDocument document, PDOutlineNode parent, int level) {
+      for (int i=0; i<width; i++) {
+         PDPageFitWidthDestination dest = new PDPageFitWidthDestination();
+         dest.setPage(document.getPage(nextPage));
+         dest.setTop(700);
+         nextPage = (nextPage+1) % pages;
+
+         PDOutlineItem item = new PDOutlineItem();
+         item.setTitle("Bookmark " + level + "." + i + " of " + (++bookmarks));
+         item.setDestination(dest);
+         parent.addLast(item);
+
+         if (level < depth) {
+            addChildren(document, item, level+1);
+         }
+      }
+   }
+
+   /**
+    * Builds the document and saves it to a new temp file
+    */
+   public File createFile() throws IOException {
+      File file = File.createTempFile("synthetic-" + pages + "-" + depth + "-" + width, ".pdf");
+      file.deleteOnExit();
+      try (PDDocument document = create()) {
+         document.save(file);
+      }
+      return file;
+   }
+
+   /**
+    * Returns the bookmarks text for the generated PDF
+    */
+   public static String exportText(File pdf) throws IOException {
+      StringWriter text = new StringWriter();
+      try (Bookmarks bookmarks = new Bookmarks(pdf)) {
+         PrintWriter output = new PrintWriter(text);
+         bookmarks.exportBookmarks(output);
+         output.flush();
+      }
+      return text.toString();
+   }
+}
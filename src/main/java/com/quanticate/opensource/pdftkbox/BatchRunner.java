@@ -0,0 +1,218 @@
+/* ====================================================================
+  Copyright 2017 Quanticate Ltd
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+==================================================================== */
+package com.quanticate.opensource.pdftkbox;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs many export / import jobs in one JVM, on a fixed size pool
+ *  of workers, with a limit on how many PDFs may be open at once.
+ *
+ * The manifest has one job per line, with tab separated fields:
+ * <pre>
+ * export   input.pdf   bookmarks.txt
+ * import   input.pdf   bookmarks.txt   output.pdf
+ * </pre>
+ * Blank lines and lines starting with # are ignored.
+ */
+public class BatchRunner {
+   public static final String OP_EXPORT = "export";
+   public static final String OP_IMPORT = "import";
+
+   private final int threads;
+   private final Semaphore openDocuments;
+   private JobSettings settings = new JobSettings();
+
+   public BatchRunner(int threads, int maxOpenDocuments) {
+      if (threads < 1)
+         throw new IllegalArgumentException("Need at least one thread, not " + threads);
+      if (maxOpenDocuments < 1)
+         throw new IllegalArgumentException("Need to allow at least one open document, not " + maxOpenDocuments);
+
+      this.threads = threads;
+      this.openDocuments = new Semaphore(maxOpenDocuments);
+   }
+
+   /**
+    * How the jobs should open and save their documents
+    */
+   public void setSettings(JobSettings settings) {
+      this.settings = settings;
+   }
+
+   /**
+    * A single job from the manifest
+    */
+   public static class Job {
+      private final int line;
+      private final String operation;
+      private final String pdf;
+      private final String bookmarks;
+      private final String output;
+      private final String problem;
+
+      public Job(int line, String operation, String pdf, String bookmarks, String output) {
+         this(line, operation, pdf, bookmarks, output, null);
+      }
+      private Job(int line, String operation, String pdf, String bookmarks, String output, String problem) {
+         this.line = line;
+         this.operation = operation;
+         this.pdf = pdf;
+         this.bookmarks = bookmarks;
+         this.output = output;
+         this.problem = problem;
+      }
+
+      public int getLine() {
+         return line;
+      }
+      public String getOperation() {
+         return operation;
+      }
+      public String getPdf() {
+         return pdf;
+      }
+      public String getBookmarks() {
+         return bookmarks;
+      }
+      public String getOutput() {
+         return output;
+      }
+
+      public String toString() {
+         return operation + " " + pdf;
+      }
+   }
+
+   /**
+    * Reads the jobs from a manifest. Invalid lines are returned as
+    *  jobs which will fail, so they get reported with the rest.
+    */
+   public List<Job> readManifest(BufferedReader manifest) throws IOException {
+      List<Job> jobs = new ArrayList<>();
+
+      int lineNumber = 0;
+      String line;
+      while ((line = manifest.readLine()) != null) {
+         lineNumber++;
+         if (line.trim().isEmpty() || line.startsWith("#")) continue;
+
+         String[] parts = line.split("\t");
+         String op = parts[0].trim().toLowerCase(Locale.ROOT);
+         if (OP_EXPORT.equals(op) && parts.length == 3) {
+            jobs.add(new Job(lineNumber, op, parts[1], parts[2], null));
+         } else if (OP_IMPORT.equals(op) && parts.length == 4) {
+            jobs.add(new Job(lineNumber, op, parts[1], parts[2], parts[3]));
+         } else {
+            String pdf = (parts.length > 1) ? parts[1] : null;
+            jobs.add(new Job(lineNumber, op, pdf, null, null,
+                     "Invalid manifest line, expected export/import and " +
+                     "tab separated files, found: " + line));
+         }
+      }
+
+      return jobs;
+   }
+
+   /**
+    * Runs all the jobs, reporting the outcome of each to the given
+    *  stream as they finish. A failing job doesn't stop the others.
+    * @return The number of jobs which failed
+    */
+   public int run(List<Job> jobs, final PrintStream report) {
+      ExecutorService pool = Executors.newFixedThreadPool(threads);
+      List<Future<Boolean>> results = new ArrayList<>(jobs.size());
+      try {
+         for (final Job job : jobs) {
+            results.add(pool.submit(new Callable<Boolean>() {
+               @Override
+               public Boolean call() {
+                  String problem = runJob(job);
+                  synchronized (report) {
+                     if (problem == null) {
+                        report.println("OK\t" + job.line + "\t" + job);
+                     } else {
+                        report.println("FAILED\t" + job.line + "\t" + job + "\t" + problem);
+                     }
+                  }
+                  return problem == null;
+               }
+            }));
+         }
+
+         int failed = 0;
+         for (Future<Boolean> result : results) {
+            try {
+               if (! result.get()) failed++;
+            } catch (ExecutionException e) {
+               failed++;
+            }
+         }
+
+         report.flush();
+         System.err.println("Batch complete - " + (jobs.size()-failed) +
+                            " succeeded, " + failed + " failed");
+         return failed;
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         System.err.println("Batch interrupted");
+         return jobs.size();
+      } finally {
+         pool.shutdownNow();
+      }
+   }
+
+   /**
+    * Runs a single job, returning null on success, or a description
+    *  of the problem if it failed
+    */
+   protected String runJob(Job job) {
+      if (job.problem != null) return job.problem;
+
+      try {
+         openDocuments.acquire();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         return "Interrupted";
+      }
+      try {
+         if (OP_EXPORT.equals(job.operation)) {
+            PDFtkBox.doExport(job.pdf, job.bookmarks, new String[0], settings);
+         } else {
+            if (! PDFtkBox.doImport(job.pdf, job.bookmarks, job.output, null, settings)) {
+               return "Invalid bookmarks, nothing saved";
+            }
+         }
+         return null;
+      } catch (Throwable e) {
+         // Errors too, such as running out of memory, fail just this job
+         return e.toString();
+      } finally {
+         openDocuments.release();
+      }
+   }
+}
@@ -0,0 +1,202 @@
+/* ====================================================================
+  Copyright 2017 Quanticate Ltd
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+==================================================================== */
+package com.quanticate.opensource.pdftkbox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compact binary form of bookmarks, for bulk transfer. After a 5 byte
+ *  header of "PTKB" and a version, each bookmark is written as
+ * <ul>
+ *  <li>level, as a varint, with 0 marking the end</li>
+ *  <li>page number, as a varint</li>
+ *  <li>y offset, as a zig-zag varint</li>
+ *  <li>title, as a varint byte length then UTF-8, empty if it has none</li>
+ *  <li>zoom, as a varint of byte length plus one, 0 for none, then UTF-8</li>
+ *  <li>page label, as for zoom (from version 2)</li>
+ *  <li>why it may be wrong, as for zoom (from version 3)</li>
+ * </ul>
+ * A page number of 0 means the bookmark is to the page with the label.
+ * If the version has {@link #OPTIONAL_TITLES} set, the title is written
+ *  as for zoom, so a bookmark without one reads back without one.
+ * Varints are 7 bits per byte, low bits first, top bit set on all
+ *  but the last byte.
+ */
+public class BinaryCodec implements BookmarkCodec {
+   private static final byte[] MAGIC = { 'P', 'T', 'K', 'B' };
+   private static final int VERSION = 3;
+   // Oldest version still read, without page labels or uncertainty
+   private static final int MIN_VERSION = 1;
+   // Set on the version when titles are written as optional
+   private static final int OPTIONAL_TITLES = 0x40;
+   // Longest title or zoom we'll accept, so bad data can't exhaust memory
+   private static final int MAX_STRING = 1 << 24;
+
+   private final boolean optionalTitles;
+
+   public BinaryCodec() {
+      this(false);
+   }
+   /**
+    * @param optionalTitles Keep missing titles as missing, rather than
+    *  writing them as empty, as the export cache needs
+    */
+   BinaryCodec(boolean optionalTitles) {
+      this.optionalTitles = optionalTitles;
+   }
+
+   @Override
+   public String getName() {
+      return "binary";
+   }
+
+   @Override
+   public Writer createWriter(OutputStream output) throws IOException {
+      final OutputStream out = new BufferedOutputStream(output);
+      out.write(MAGIC);
+      out.write(optionalTitles ? VERSION | OPTIONAL_TITLES : VERSION);
+
+      return new Writer() {
+         @Override
+         public void write(PDFBookmark bookmark) throws IOException {
+            writeVarint(out, bookmark.getLevel());
+            writeVarint(out, Math.max(bookmark.getPageNumber(), 0));
+            int yOffset = bookmark.getYOffset();
+            writeVarint(out, (yOffset << 1) ^ (yOffset >> 31));
+            String title = bookmark.getTitle();
+            if (optionalTitles) {
+               writeOptional(out, title);
+            } else {
+               byte[] titleBytes = (title == null) ? new byte[0] : title.getBytes(StandardCharsets.UTF_8);
+               writeVarint(out, titleBytes.length);
+               out.write(titleBytes);
+            }
+            writeOptional(out, bookmark.getZoom());
+            writeOptional(out, bookmark.getPageLabel());
+            writeOptional(out, bookmark.getUncertainty());
+         }
+         @Override
+         public void close() throws IOException {
+            writeVarint(out, 0);
+            out.close();
+         }
+      };
+   }
+
+   @Override
+   public void read(InputStream input, boolean strict, BookmarkParser.BookmarkHandler handler) throws IOException {
+      InputStream in = new BufferedInputStream(input);
+      byte[] header = readFully(in, MAGIC.length+1, 0);
+      for (int i=0; i<MAGIC.length; i++) {
+         if (header[i] != MAGIC[i]) {
+            throw new BookmarkParseException(0, "Not binary bookmarks");
+         }
+      }
+      int version = header[MAGIC.length] & ~OPTIONAL_TITLES;
+      boolean titlesOptional = (header[MAGIC.length] & OPTIONAL_TITLES) != 0;
+      if (version < MIN_VERSION || version > VERSION) {
+         throw new BookmarkParseException(0, "Unsupported binary bookmarks version " + header[MAGIC.length]);
+      }
+
+      // Each bookmark is reported as a "line", counting from 1
+      int record = 0;
+      while (true) {
+         record++;
+         int level = readVarint(in, record);
+         if (level == 0) break;
+
+         int pageNumber = readVarint(in, record);
+         int zigzag = readVarint(in, record, 32);
+         int yOffset = (zigzag >>> 1) ^ -(zigzag & 1);
+         String title = titlesOptional ? readOptional(in, record) :
+            new String(readFully(in, readVarint(in, record), record), StandardCharsets.UTF_8);
+         String zoom = readOptional(in, record);
+         String label = (version >= 2) ? readOptional(in, record) : null;
+         String uncertainty = (version >= 3) ? readOptional(in, record) : null;
+
+         if (pageNumber > 0 || label != null) {
+            PDFBookmark bookmark = new PDFBookmark(title, level, pageNumber > 0 ? pageNumber : -1,
+                                                   label, yOffset, zoom);
+            bookmark.setUncertainty(uncertainty);
+            handler.handleBookmark(bookmark, record);
+         } else {
+            BookmarkParser.reportProblem(new BookmarkParseException(record,
+                  "Bookmark is missing a valid page"), strict, handler);
+         }
+      }
+   }
+
+   private static void writeOptional(OutputStream out, String value) throws IOException {
+      if (value == null) {
+         writeVarint(out, 0);
+      } else {
+         byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+         writeVarint(out, bytes.length+1);
+         out.write(bytes);
+      }
+   }
+   private static String readOptional(InputStream in, int record) throws IOException {
+      int length = readVarint(in, record);
+      if (length == 0) return null;
+      return new String(readFully(in, length-1, record), StandardCharsets.UTF_8);
+   }
+
+   private static void writeVarint(OutputStream out, int value) throws IOException {
+      while ((value & ~0x7f) != 0) {
+         out.write((value & 0x7f) | 0x80);
+         value >>>= 7;
+      }
+      out.write(value);
+   }
+   private static int readVarint(InputStream in, int record) throws IOException {
+      // Lengths, levels and pages can't be negative
+      return readVarint(in, record, 31);
+   }
+   private static int readVarint(InputStream in, int record, int bits) throws IOException {
+      int value = 0;
+      for (int shift=0; shift<bits; shift+=7) {
+         int b = in.read();
+         if (b == -1) {
+            throw new BookmarkParseException(record, "Binary bookmarks are truncated");
+         }
+         // Last byte may only hold the bits left
+         if (bits - shift < 7 && (b & 0x7f) >>> (bits - shift) != 0) break;
+         value |= (b & 0x7f) << shift;
+         if ((b & 0x80) == 0) return value;
+      }
+      throw new BookmarkParseException(record, "Invalid number in binary bookmarks");
+   }
+   private static byte[] readFully(InputStream in, int length, int record) throws IOException {
+      if (length < 0 || length > MAX_STRING) {
+         throw new BookmarkParseException(record, "Invalid length in binary bookmarks");
+      }
+      byte[] data = new byte[length];
+      int read = 0;
+      while (read < length) {
+         int count = in.read(data, read, length-read);
+         if (count < 0) {
+            throw new BookmarkParseException(record, "Binary bookmarks are truncated");
+         }
+         read += count;
+      }
+      return data;
+   }
+}
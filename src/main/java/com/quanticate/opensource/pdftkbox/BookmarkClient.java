@@ -0,0 +1,138 @@
+/* ====================================================================
+  Copyright 2017 Quanticate Ltd
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+==================================================================== */
+package com.quanticate.opensource.pdftkbox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Small client for {@link BookmarkServer}, usable from code or
+ *  from the command line. From the command line, the server's token
+ *  is taken from the PDFTKBOX_TOKEN environment variable.
+ */
+public class BookmarkClient {
+   private final int port;
+   private final String token;
+
+   public BookmarkClient(int port, String token) {
+      this.port = port;
+      this.token = token;
+   }
+
+   /**
+    * Returns the bookmarks text for the PDF
+    */
+   public String exportBookmarks(File pdf) throws IOException {
+      return call(BookmarkServer.PATH_EXPORT + "?pdf=" + encode(pdf), null);
+   }
+   /**
+    * Imports the bookmarks text into the PDF, saving as the output
+    */
+   public String importBookmarks(File pdf, InputStream bookmarks, File output) throws IOException {
+      return call(BookmarkServer.PATH_IMPORT + "?pdf=" + encode(pdf) +
+                  "&output=" + encode(output), bookmarks);
+   }
+   /**
+    * Checks the bookmarks text could be imported
+    */
+   public String validateBookmarks(InputStream bookmarks) throws IOException {
+      return call(BookmarkServer.PATH_VALIDATE, bookmarks);
+   }
+
+   protected String call(String path, InputStream body) throws IOException {
+      URL url = new URL("http", InetAddress.getLoopbackAddress().getHostAddress(), port, path);
+      HttpURLConnection conn = (HttpURLConnection)url.openConnection();
+      conn.setRequestMethod("POST");
+      conn.setRequestProperty("Authorization", "Bearer " + token);
+      conn.setDoOutput(true);
+      conn.setChunkedStreamingMode(0);
+
+      try (OutputStream out = conn.getOutputStream()) {
+         if (body != null) copy(body, out);
+      }
+
+      int status = conn.getResponseCode();
+      InputStream response = (status < 400) ? conn.getInputStream() : conn.getErrorStream();
+      ByteArrayOutputStream result = new ByteArrayOutputStream();
+      if (response != null) {
+         try {
+            copy(response, result);
+         } finally {
+            response.close();
+         }
+      }
+      String text = new String(result.toByteArray(), StandardCharsets.UTF_8);
+
+      if (status != 200) {
+         throw new IOException("Server returned " + status + " - " + text.trim());
+      }
+      return text;
+   }
+
+   private static String encode(File file) throws IOException {
+      return URLEncoder.encode(file.getAbsolutePath(), "UTF-8");
+   }
+   private static void copy(InputStream in, OutputStream out) throws IOException {
+      byte[] buffer = new byte[8192];
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+         out.write(buffer, 0, read);
+      }
+   }
+
+   public static void main(String[] args) throws Exception {
+      if (args.length < 2) {
+         System.err.println("Use:");
+         System.err.println("  BookmarkClient <port> export <input.pdf>");
+         System.err.println("  BookmarkClient <port> import <input.pdf> <output.pdf> [bookmarks.txt]");
+         System.err.println("  BookmarkClient <port> validate [bookmarks.txt]");
+         System.err.println("Bookmarks are read from StdIn if no file is given");
+         System.err.println("The server's token must be set as " + BookmarkServer.TOKEN_ENV);
+         return;
+      }
+      String token = System.getenv(BookmarkServer.TOKEN_ENV);
+      if (token == null || token.trim().isEmpty()) {
+         System.err.println("Error - no token given, set " + BookmarkServer.TOKEN_ENV);
+         System.exit(1);
+      }
+      BookmarkClient client = new BookmarkClient(Integer.parseInt(args[0]), token.trim());
+      String op = args[1];
+
+      String result;
+      if ("export".equals(op) && args.length == 3) {
+         result = client.exportBookmarks(new File(args[2]));
+      } else if ("import".equals(op) && args.length >= 4) {
+         InputStream bookmarks = (args.length > 4) ? new FileInputStream(args[4]) : System.in;
+         result = client.importBookmarks(new File(args[2]), bookmarks, new File(args[3]));
+      } else if ("validate".equals(op)) {
+         InputStream bookmarks = (args.length > 2) ? new FileInputStream(args[2]) : System.in;
+         result = client.validateBookmarks(bookmarks);
+      } else {
+         System.err.println("Unknown or incomplete operation " + op);
+         return;
+      }
+      System.out.print(result);
+   }
+}
@@ -0,0 +1,55 @@
+/* ====================================================================
+  Copyright 2017 Quanticate Ltd
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+==================================================================== */
+package com.quanticate.opensource.pdftkbox;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A format that bookmarks can be written out in, and read back from.
+ *  Both directions work a bookmark at a time, so the whole set is
+ *  never needed in memory.
+ * @see BookmarkCodecs
+ */
+public interface BookmarkCodec {
+   /**
+    * Writes bookmarks out one at a time. Closing it finishes off
+    *  the output, and closes the stream.
+    */
+   interface Writer extends Closeable {
+      void write(PDFBookmark bookmark) throws IOException;
+   }
+
+   /**
+    * The name of the format, as given on the command line
+    */
+   String getName();
+
+   /**
+    * Starts writing bookmarks to the stream
+    */
+   Writer createWriter(OutputStream output) throws IOException;
+
+   /**
+    * Reads all the bookmarks from the stream, passing each to the
+    *  handler as soon as it's complete. In strict mode, an invalid
+    *  bookmark is an error, otherwise it's reported and skipped.
+    *  Anything which can't be read at all is always an error.
+    */
+   void read(InputStream input, boolean strict, BookmarkParser.BookmarkHandler handler) throws IOException;
+}
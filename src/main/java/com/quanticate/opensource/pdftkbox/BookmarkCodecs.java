@@ -0,0 +1,47 @@
+/* ====================================================================
+  Copyright 2017 Quanticate Ltd
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+==================================================================== */
+package com.quanticate.opensource.pdftkbox;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The available bookmark formats
+ */
+public class BookmarkCodecs {
+   /** PDFtk-style text, in UTF-8, the default */
+   public static final BookmarkCodec PDFTK  = new PDFtkCodec(StandardCharsets.UTF_8);
+   /** A JSON array of bookmark objects */
+   public static final BookmarkCodec JSON   = new JsonCodec();
+   /** Compact length-prefixed binary */
+   public static final BookmarkCodec BINARY = new BinaryCodec();
+
+   private BookmarkCodecs() {}
+
+   /**
+    * Returns the format with the given name, or the default if
+    *  none is given
+    */
+   public static BookmarkCodec forName(String name) {
+      if (name == null) return PDFTK;
+      for (BookmarkCodec codec : new BookmarkCodec[] { PDFTK, JSON, BINARY }) {
+         if (codec.getName().equalsIgnoreCase(name)) {
+            return codec;
+         }
+      }
+      throw new IllegalArgumentException("Unknown bookmarks format " + name + 
+                                         ", should be one of pdftk, json or binary");
+   }
+}
@@ -0,0 +1,40 @@
+/* ====================================================================
+  Copyright 2017 Quanticate Ltd
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+==================================================================== */
+package com.quanticate.opensource.pdftkbox;
+
+import java.io.IOException;
+
+/**
+ * Thrown when bookmarks text can't be parsed, giving the line
+ *  number the problem was found on
+ */
+public class BookmarkParseException extends IOException {
+   private static final long serialVersionUID = 1L;
+
+   private final int lineNumber;
+
+   public BookmarkParseException(int lineNumber, String message) {
+      super("Line " + lineNumber + ": " + message);
+      this.lineNumber = lineNumber;
+   }
+
+   /**
+    * The (1-based) line number of the problem
+    */
+   public int getLineNumber() {
+      return lineNumber;
+   }
+}
@@ -0,0 +1,297 @@
+/* ====================================================================
+  Copyright 2017 Quanticate Ltd
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+==================================================================== */
+package com.quanticate.opensource.pdftkbox;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Single pass parser for PDFtk-like Bookmark text, which hands each
+ *  bookmark on as soon as it is complete. A page label may be given
+ *  in place of the page number, to be looked up against the PDF.
+ * Lines are read into a re-used buffer and the keys matched in place,
+ *  so the only strings created are for the titles and zooms.
+ * In strict mode, any malformed bookmark is an error, otherwise they
+ *  are reported and skipped.
+ */
+public class BookmarkParser {
+   /**
+    * Receives each bookmark as it's parsed
+    */
+   public interface BookmarkHandler {
+      /**
+       * Called with each complete bookmark, along with the line
+       *  number its definition started on
+       */
+      void handleBookmark(PDFBookmark bookmark, int lineNumber) throws IOException;
+   }
+   /**
+    * Optionally implemented by a {@link BookmarkHandler}, to be told
+    *  of each malformed bookmark skipped in lenient mode, instead of
+    *  them being printed as warnings
+    */
+   public interface ProblemHandler {
+      void handleProblem(BookmarkParseException problem);
+   }
+
+   // Keys, lower cased, for matching
+   private static final char[] BEGIN     = Bookmarks.BookmarkBegin.toLowerCase().toCharArray();
+   private static final char[] TITLE     = Bookmarks.BookmarkTitle.toLowerCase().toCharArray();
+   private static final char[] LEVEL     = Bookmarks.BookmarkLevel.toLowerCase().toCharArray();
+   private static final char[] PAGENUMBER = Bookmarks.BookmarkPageNumber.toLowerCase().toCharArray();
+   private static final char[] PAGELABEL = Bookmarks.BookmarkPageLabel.toLowerCase().toCharArray();
+   private static final char[] ZOOM      = Bookmarks.BookmarkZoom.toLowerCase().toCharArray();
+   private static final char[] YOFFSET   = Bookmarks.BookmarkYOffset.toLowerCase().toCharArray();
+   private static final char[] UNCERTAIN = Bookmarks.BookmarkUncertain.toLowerCase().toCharArray();
+
+   private final boolean strict;
+
+   // Reading state
+   private Reader input;
+   private BookmarkHandler handler;
+   private final char[] buffer = new char[8192];
+   private int bufferPos, bufferLen;
+   private boolean skipLF;
+   private char[] line = new char[256];
+   private int lineLen;
+   private int lineNumber;
+
+   // Current bookmark state
+   private String title, zoom, pageLabel, uncertainty;
+   private int level, pageNumber, yOffset;
+   private int recordLine;
+   private boolean inRecord, badNumber;
+
+   public BookmarkParser() {
+      this(false);
+   }
+   public BookmarkParser(boolean strict) {
+      this.strict = strict;
+   }
+
+   public boolean isStrict() {
+      return strict;
+   }
+
+   /**
+    * Parses all the bookmarks into a list
+    */
+   public List<PDFBookmark> parse(Reader bookmarkText) throws IOException {
+      final List<PDFBookmark> bookmarks = new ArrayList<>();
+      parse(bookmarkText, new BookmarkHandler() {
+         @Override
+         public void handleBookmark(PDFBookmark bookmark, int lineNumber) {
+            bookmarks.add(bookmark);
+         }
+      });
+      return bookmarks;
+   }
+
+   /**
+    * Parses the bookmarks, passing each to the handler as soon as
+    *  it is complete
+    */
+   public void parse(Reader bookmarkText, BookmarkHandler handler) throws IOException {
+      input = bookmarkText;
+      this.handler = handler;
+      bufferPos = bufferLen = 0;
+      skipLF = false;
+      lineNumber = 0;
+      reset(1, false);
+
+      while (readLine()) {
+         lineNumber++;
+
+         if (lineLen == BEGIN.length && keyMatches(BEGIN)) {
+            finishRecord(handler);
+            reset(lineNumber, true);
+            continue;
+         }
+
+         int splitAt = -1;
+         for (int i=0; i<lineLen; i++) {
+            if (line[i] == ':') {
+               splitAt = i;
+               break;
+            }
+         }
+         if (splitAt <= 9) continue;
+
+         // Value is everything after the colon, trimmed
+         int start = splitAt+1;
+         int end = lineLen;
+         while (start < end && line[start] <= ' ') start++;
+         while (end > start && line[end-1] <= ' ') end--;
+
+         // Keys are of distinct lengths, except Title and Level, and PageLabel and Uncertain
+         if (splitAt == TITLE.length && keyMatches(TITLE)) {
+            title = new String(line, start, end-start);
+         } else if (splitAt == LEVEL.length && keyMatches(LEVEL)) {
+            level = parseNumber(start, end, Bookmarks.BookmarkLevel);
+         } else if (splitAt == PAGENUMBER.length && keyMatches(PAGENUMBER)) {
+            pageNumber = parseNumber(start, end, Bookmarks.BookmarkPageNumber);
+         } else if (splitAt == PAGELABEL.length && keyMatches(PAGELABEL)) {
+            pageLabel = (end > start) ? new String(line, start, end-start) : null;
+         } else if (splitAt == ZOOM.length && keyMatches(ZOOM)) {
+            zoom = new String(line, start, end-start);
+         } else if (splitAt == YOFFSET.length && keyMatches(YOFFSET)) {
+            yOffset = parseNumber(start, end, Bookmarks.BookmarkYOffset);
+         } else if (splitAt == UNCERTAIN.length && keyMatches(UNCERTAIN)) {
+            uncertainty = (end > start) ? new String(line, start, end-start) : null;
+         } else {
+            continue;
+         }
+         inRecord = true;
+      }
+      finishRecord(handler);
+      input = null;
+      this.handler = null;
+   }
+
+   private void reset(int startLine, boolean begun) {
+      title = null; zoom = null; pageLabel = null; uncertainty = null;
+      level = -1; pageNumber = -1; yOffset = 0;
+      recordLine = startLine;
+      inRecord = begun;
+      badNumber = false;
+   }
+
+   private void finishRecord(BookmarkHandler handler) throws IOException {
+      if (badNumber) {
+         // Already reported
+      } else if (title != null && level > 0 && (pageNumber > 0 || pageLabel != null)) {
+         PDFBookmark bookmark = new PDFBookmark(title, level, pageNumber, pageLabel, yOffset, zoom);
+         bookmark.setUncertainty(uncertainty);
+         handler.handleBookmark(bookmark, recordLine);
+      } else if (inRecord) {
+         String missing;
+         if (title == null) {
+            missing = Bookmarks.BookmarkTitle;
+         } else if (level <= 0) {
+            missing = Bookmarks.BookmarkLevel;
+         } else {
+            missing = Bookmarks.BookmarkPageNumber;
+         }
+         problem(recordLine, "Bookmark is missing a valid " + missing);
+      }
+   }
+
+   private void problem(int problemLine, String message) throws BookmarkParseException {
+      reportProblem(new BookmarkParseException(problemLine, message), strict, handler);
+   }
+   /**
+    * In strict mode, fails with the problem, otherwise passes it to the
+    *  handler if it wants problems, or prints it as a warning
+    */
+   protected static void reportProblem(BookmarkParseException problem, boolean strict,
+                                       BookmarkHandler handler) throws BookmarkParseException {
+      if (strict) throw problem;
+      if (handler instanceof ProblemHandler) {
+         ((ProblemHandler)handler).handleProblem(problem);
+      } else {
+         System.err.println("Warning - " + problem.getMessage() + ", skipping bookmark");
+      }
+   }
+
+   /**
+    * Does the start of the line match the (lower case) key,
+    *  ignoring case?
+    */
+   private boolean keyMatches(char[] key) {
+      for (int i=0; i<key.length; i++) {
+         char c = line[i];
+         if (c != key[i] && Character.toLowerCase(c) != key[i]) return false;
+      }
+      return true;
+   }
+
+   /**
+    * Parses an integer as {@link Integer#parseInt(String)} would, but
+    *  without creating a string for it. In lenient mode, a bad number
+    *  means the whole bookmark gets skipped.
+    */
+   private int parseNumber(int start, int end, String key) throws BookmarkParseException {
+      int pos = start;
+      boolean negative = false;
+      if (pos < end && (line[pos] == '-' || line[pos] == '+')) {
+         negative = (line[pos] == '-');
+         pos++;
+      }
+
+      long value = 0;
+      boolean valid = (pos < end);
+      for (; pos < end && valid; pos++) {
+         int digit = Character.digit(line[pos], 10);
+         if (digit < 0) {
+            valid = false;
+         } else {
+            value = value*10 + digit;
+            if (value > (long)Integer.MAX_VALUE+1) valid = false;
+         }
+      }
+      if (negative) value = -value;
+      if (value > Integer.MAX_VALUE) valid = false;
+
+      if (! valid) {
+         problem(lineNumber, "Invalid number '" + new String(line, start, end-start) +
+                 "' for " + key);
+         badNumber = true;
+         return -1;
+      }
+      return (int)value;
+   }
+
+   /**
+    * Reads the next line into the line buffer, handling all of
+    *  \n, \r and \r\n line endings
+    * @return false at the end of the input
+    */
+   private boolean readLine() throws IOException {
+      lineLen = 0;
+      boolean any = false;
+      while (true) {
+         if (bufferPos >= bufferLen) {
+            bufferLen = input.read(buffer, 0, buffer.length);
+            bufferPos = 0;
+            if (bufferLen <= 0) {
+               bufferLen = 0;
+               return any;
+            }
+         }
+
+         char c = buffer[bufferPos++];
+         if (skipLF) {
+            skipLF = false;
+            if (c == '\n') continue;
+         }
+         if (c == '\n') return true;
+         if (c == '\r') {
+            skipLF = true;
+            return true;
+         }
+
+         any = true;
+         if (lineLen == line.length) {
+            char[] bigger = new char[line.length*2];
+            System.arraycopy(line, 0, bigger, 0, lineLen);
+            line = bigger;
+         }
+         line[lineLen++] = c;
+      }
+   }
+}
@@ -0,0 +1,342 @@
+/* ====================================================================
+  Copyright 2017 Quanticate Ltd
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+==================================================================== */
+package com.quanticate.opensource.pdftkbox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Keeps one JVM running to export, import and validate bookmarks,
+ *  for callers on the same machine. Listens only on the loopback
+ *  interface, and accepts POST requests, with the server's token
+ *  as an <code>Authorization: Bearer</code> header, of:
+ * <ul>
+ *  <li>/export?pdf=in.pdf - returns the bookmarks text</li>
+ *  <li>/import?pdf=in.pdf&amp;output=out.pdf - with the bookmarks text as the body</li>
+ *  <li>/validate?pdf=in.pdf - with the bookmarks text as the body, the
+ *      pdf being optional, to check the page numbers against</li>
+ * </ul>
+ * Bookmarks are in the format chosen for the command line, text
+ *  always being UTF-8. PDFs are given as paths on the local filesystem,
+ *  relative to the root directory, or absolute, and must be within it.
+ * As web pages can send requests to the loopback interface too, the
+ *  token, which they can't send without the browser first asking, and
+ *  the check of the Host header, which stops them getting around that
+ *  by DNS rebinding, are both needed along with the root.
+ */
+public class BookmarkServer {
+   public static final String PATH_EXPORT   = "/export";
+   public static final String PATH_IMPORT   = "/import";
+   public static final String PATH_VALIDATE = "/validate";
+
+   /** Environment variable for the token, used by the client, and by the server if set */
+   public static final String TOKEN_ENV = "PDFTKBOX_TOKEN";
+
+   private static final String TEXT_TYPE = "text/plain; charset=UTF-8";
+   private static final String[] LOCAL_HOSTS = { "localhost", "127.0.0.1", "[::1]" };
+
+   private final HttpServer server;
+   private final ExecutorService workers;
+   private final JobSettings settings;
+   private final File root;
+   private String token;
+
+   /**
+    * Creates a server on the given local port, handling at most
+    *  the given number of requests at once, for PDFs under the root
+    *  directory. The token is random, unless changed before starting.
+    */
+   public BookmarkServer(int port, int maxConcurrent, File root, JobSettings settings) throws IOException {
+      if (! root.isDirectory()) {
+         throw new IllegalArgumentException("Root " + root + " is not a directory");
+      }
+      this.settings = settings;
+      this.root = root.getCanonicalFile();
+      this.token = newToken();
+      this.workers = Executors.newFixedThreadPool(maxConcurrent);
+
+      server = HttpServer.create(
+            new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+      server.createContext(PATH_EXPORT, new ExportHandler());
+      server.createContext(PATH_IMPORT, new ImportHandler());
+      server.createContext(PATH_VALIDATE, new ValidateHandler());
+      server.setExecutor(workers);
+   }
+
+   public void start() {
+      server.start();
+   }
+   public void stop() {
+      server.stop(0);
+      workers.shutdown();
+   }
+   public int getPort() {
+      return server.getAddress().getPort();
+   }
+
+   /**
+    * The directory which all PDFs must be under
+    */
+   public File getRoot() {
+      return root;
+   }
+
+   /**
+    * The token which requests must give
+    */
+   public String getToken() {
+      return token;
+   }
+   public void setToken(String token) {
+      if (token == null || token.trim().isEmpty()) {
+         throw new IllegalArgumentException("The token can't be empty");
+      }
+      this.token = token.trim();
+   }
+   private static String newToken() {
+      byte[] random = new byte[24];
+      new SecureRandom().nextBytes(random);
+      StringBuilder hex = new StringBuilder();
+      for (byte b : random) {
+         hex.append(String.format("%02x", b & 0xff));
+      }
+      return hex.toString();
+   }
+
+   /**
+    * Common request handling, checks the host, token and method, and
+    *  turns problems into error responses
+    */
+   protected abstract class BookmarkHandler implements HttpHandler {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+         try {
+            if (! isLocalHost(exchange.getRequestHeaders().getFirst("Host"))) {
+               respond(exchange, 403, "Only requests to localhost are accepted");
+            } else if (! hasToken(exchange.getRequestHeaders().getFirst("Authorization"))) {
+               respond(exchange, 401, "A valid token is required");
+            } else if (! "POST".equals(exchange.getRequestMethod())) {
+               respond(exchange, 405, "Only POST is supported");
+            } else {
+               handle(exchange, parseQuery(exchange.getRequestURI().getRawQuery()));
+            }
+         } catch (IllegalArgumentException e) {
+            respond(exchange, 400, e.getMessage());
+         } catch (SecurityException e) {
+            respond(exchange, 403, e.getMessage());
+         } catch (BookmarkParseException e) {
+            respond(exchange, 422, e.getMessage());
+         } catch (LimitExceededException e) {
+            int status = (e.getLimit() == DocumentLimits.Limit.Size) ? 413 : 422;
+            respond(exchange, status, e.getMessage());
+         } catch (Exception e) {
+            respond(exchange, 500, e.toString());
+         } finally {
+            exchange.close();
+         }
+      }
+      protected abstract void handle(HttpExchange exchange, Map<String,String> params) throws IOException;
+
+      protected File getFile(Map<String,String> params, String name) throws IOException {
+         String value = params.get(name);
+         if (value == null || value.isEmpty()) {
+            throw new IllegalArgumentException("Parameter " + name + " is required");
+         }
+         return resolve(value);
+      }
+      protected List<PDFBookmark> parseBody(HttpExchange exchange) throws IOException {
+         DocumentLimits.Budget budget = settings.getLimits().start(settings.getMetrics());
+         final List<PDFBookmark> bookmarks = new ArrayList<>();
+         settings.getCodec().read(budget.limit(exchange.getRequestBody()), settings.isStrict(),
+                                  budget.limit(new BookmarkParser.BookmarkHandler() {
+            @Override
+            public void handleBookmark(PDFBookmark bookmark, int lineNumber) {
+               bookmarks.add(bookmark);
+            }
+         }));
+         return bookmarks;
+      }
+   }
+   protected class ExportHandler extends BookmarkHandler {
+      @Override
+      protected void handle(HttpExchange exchange, Map<String,String> params) throws IOException {
+         File pdf = getFile(params, "pdf");
+
+         ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+         final BookmarkCodec.Writer output = settings.getCodec().createWriter(bytes);
+         try {
+            settings.exportBookmarks(pdf, new BookmarkParser.BookmarkHandler() {
+               @Override
+               public void handleBookmark(PDFBookmark bookmark, int lineNumber) throws IOException {
+                  output.write(bookmark);
+               }
+            });
+         } finally {
+            output.close();
+         }
+         respond(exchange, 200, getContentType(settings.getCodec()), bytes.toByteArray());
+      }
+   }
+   protected class ImportHandler extends BookmarkHandler {
+      @Override
+      protected void handle(HttpExchange exchange, Map<String,String> params) throws IOException {
+         File pdf = getFile(params, "pdf");
+         File output = getFile(params, "output");
+
+         List<PDFBookmark> bookmarks = parseBody(exchange);
+         String problem = Bookmarks.checkBookmarks(bookmarks);
+         if (problem != null) {
+            respond(exchange, 422, problem);
+            return;
+         }
+
+         try (Bookmarks bm = settings.open(pdf)) {
+            // Labels which no page has are skipped, which may leave none
+            bookmarks = bm.resolvePageLabels(bookmarks);
+            problem = Bookmarks.checkBookmarks(bookmarks);
+            if (problem == null && !bm.importBookmarks(bookmarks, output)) {
+               problem = "bookmarks couldn't be imported, nothing saved";
+            }
+         }
+         if (problem != null) {
+            respond(exchange, 422, problem);
+            return;
+         }
+         respond(exchange, 200, "OK");
+      }
+   }
+   protected class ValidateHandler extends BookmarkHandler {
+      @Override
+      protected void handle(HttpExchange exchange, Map<String,String> params) throws IOException {
+         int pageCount = -1;
+         String pdf = params.get("pdf");
+         if (pdf != null && !pdf.isEmpty()) {
+            try (Bookmarks bm = settings.openForReading(resolve(pdf))) {
+               pageCount = bm.getNumberOfPages();
+            }
+         }
+
+         BookmarkValidator validator = BookmarkValidator.validate(
+               settings.getLimits().start(settings.getMetrics()).limit(exchange.getRequestBody()),
+               settings.getCodec(), pageCount);
+         if (validator.isValid()) {
+            respond(exchange, 200, "OK");
+            return;
+         }
+
+         StringBuilder problems = new StringBuilder();
+         if (validator.getCount() == 0) {
+            problems.append("no bookmarks found to import");
+         }
+         for (BookmarkParseException problem : validator.getProblems()) {
+            if (problems.length() > 0) problems.append(System.lineSeparator());
+            problems.append(problem.getMessage());
+         }
+         respond(exchange, 422, problems.toString());
+      }
+   }
+
+   /**
+    * Is the Host header for this machine, rather than a name which
+    *  a web page has pointed at it?
+    */
+   protected boolean isLocalHost(String host) {
+      if (host == null) return false;
+      host = host.trim().toLowerCase(Locale.ROOT);
+      for (String local : LOCAL_HOSTS) {
+         if (host.equals(local) || host.equals(local + ":" + getPort())) {
+            return true;
+         }
+      }
+      return false;
+   }
+   /**
+    * Does the Authorization header give the token?
+    */
+   protected boolean hasToken(String authorization) {
+      String prefix = "Bearer ";
+      if (authorization == null || !authorization.startsWith(prefix)) return false;
+      byte[] given = authorization.substring(prefix.length()).trim().getBytes(StandardCharsets.UTF_8);
+      return MessageDigest.isEqual(given, token.getBytes(StandardCharsets.UTF_8));
+   }
+   /**
+    * Returns the file for the path, relative to the root if not
+    *  absolute, failing if it isn't within the root
+    */
+   protected File resolve(String path) throws IOException {
+      File file = new File(path);
+      if (! file.isAbsolute()) {
+         file = new File(root, path);
+      }
+      File canonical = file.getCanonicalFile();
+      if (! canonical.getPath().startsWith(root.getPath() + File.separator)) {
+         throw new SecurityException("File " + path + " is not under the root " + root);
+      }
+      return canonical;
+   }
+
+   protected static String getContentType(BookmarkCodec codec) {
+      if (codec instanceof JsonCodec) return "application/json; charset=UTF-8";
+      if (codec instanceof BinaryCodec) return "application/octet-stream";
+      return TEXT_TYPE;
+   }
+
+   protected static Map<String,String> parseQuery(String query) throws UnsupportedEncodingException {
+      Map<String,String> params = new HashMap<>();
+      if (query == null) return params;
+
+      for (String pair : query.split("&")) {
+         int equals = pair.indexOf('=');
+         if (equals > 0) {
+            params.put(URLDecoder.decode(pair.substring(0, equals), "UTF-8"),
+                       URLDecoder.decode(pair.substring(equals+1), "UTF-8"));
+         }
+      }
+      return params;
+   }
+
+   protected static void respond(HttpExchange exchange, int status, String message) throws IOException {
+      respond(exchange, status, TEXT_TYPE, (message + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+   }
+   protected static void respond(HttpExchange exchange, int status, String contentType,
+                                 byte[] body) throws IOException {
+      exchange.getResponseHeaders().set("Content-Type", contentType);
+      exchange.sendResponseHeaders(status, body.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+         out.write(body);
+      }
+   }
+}
@@ -0,0 +1,147 @@
+/* ====================================================================
+  Copyright 2017 Quanticate Ltd
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+==================================================================== */
+package com.quanticate.opensource.pdftkbox;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checks bookmarks as they're read, without needing the PDF itself,
+ *  for everything that would stop them being imported properly: the
+ *  level structure, page numbers (if the page count is known), zooms
+ *  and duplicates. Every problem is recorded with its line number,
+ *  including malformed bookmarks which the parser skipped.
+ */
+public class BookmarkValidator implements BookmarkParser.BookmarkHandler, BookmarkParser.ProblemHandler {
+   private final int pageCount;
+   private final List<BookmarkParseException> problems = new ArrayList<>();
+   private final Map<String,Integer> seen = new HashMap<>();
+   private int lastLevel;
+   private int count;
+
+   /**
+    * Validates without checking the page numbers
+    */
+   public BookmarkValidator() {
+      this(-1);
+   }
+   /**
+    * Validates, with page numbers needing to be within the page count
+    */
+   public BookmarkValidator(int pageCount) {
+      this.pageCount = pageCount;
+   }
+
+   /**
+    * Reads all the bookmarks in the given format, checking each. If
+    *  the input can't be read any further, that's recorded as the
+    *  last problem, rather than thrown.
+    * @param pageCount Pages in the target document, or -1 if unknown
+    */
+   public static BookmarkValidator validate(InputStream input, BookmarkCodec codec, int pageCount) throws IOException {
+      BookmarkValidator validator = new BookmarkValidator(pageCount);
+      try {
+         codec.read(input, false, validator);
+      } catch (BookmarkParseException e) {
+         validator.handleProblem(e);
+      }
+      return validator;
+   }
+
+   @Override
+   public void handleBookmark(PDFBookmark bookmark, int lineNumber) {
+      count++;
+      int level = bookmark.getLevel();
+      if (lastLevel == 0 && level != 1) {
+         problem(lineNumber, "first bookmark must start at level 1, not " + level);
+      } else if (level > lastLevel + 1) {
+         problem(lineNumber, "level jumps from " + lastLevel + " to " + level);
+      }
+      lastLevel = level;
+
+      if (pageCount >= 0 && bookmark.getPageNumber() > pageCount) {
+         problem(lineNumber, "page " + bookmark.getPageNumber() + 
+                             " is past the end of the document, which has " + pageCount);
+      }
+
+      String zoom = bookmark.getZoom();
+      if (zoom != null && !zoom.isEmpty() && !isValidZoom(zoom)) {
+         problem(lineNumber, "invalid zoom " + zoom);
+      }
+
+      if (bookmark.getTitle().trim().isEmpty()) {
+         problem(lineNumber, "title is empty");
+      }
+      String page = (bookmark.getPageNumber() > 0) ? Integer.toString(bookmark.getPageNumber())
+                                                   : "label " + bookmark.getPageLabel();
+      String key = level + "\n" + page + "\n" + bookmark.getTitle();
+      Integer previous = seen.put(key, lineNumber);
+      if (previous != null) {
+         problem(lineNumber, "duplicate of the bookmark at line " + previous);
+      }
+   }
+
+   @Override
+   public void handleProblem(BookmarkParseException problem) {
+      problems.add(problem);
+   }
+
+   private void problem(int lineNumber, String message) {
+      problems.add(new BookmarkParseException(lineNumber, message));
+   }
+
+   /**
+    * Would {@link PDFBookmark#createOutline()} accept this zoom, rather
+    *  than failing or quietly ignoring it?
+    */
+   protected static boolean isValidZoom(String zoom) {
+      PDFBookmark.ZoomType type = PDFBookmark.identifyZoomType(zoom);
+      if (type == null) return false;
+      if (type != PDFBookmark.ZoomType.ZoomPercent) return true;
+
+      String percent = zoom.endsWith("%") ? zoom.substring(0, zoom.length()-1).trim() : zoom;
+      try {
+         return Integer.parseInt(percent) > 0;
+      } catch (NumberFormatException e) {
+         return false;
+      }
+   }
+
+   /**
+    * How many bookmarks were read, excluding any skipped as malformed
+    */
+   public int getCount() {
+      return count;
+   }
+
+   /**
+    * Every problem found, in the order they were found
+    */
+   public List<BookmarkParseException> getProblems() {
+      return problems;
+   }
+
+   /**
+    * Were there bookmarks, and no problems with them?
+    */
+   public boolean isValid() {
+      return count > 0 && problems.isEmpty();
+   }
+}
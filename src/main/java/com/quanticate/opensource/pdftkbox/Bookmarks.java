@@ -15,14 +15,26 @@
 ==================================================================== */
 package com.quanticate.opensource.pdftkbox;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.Closeable;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.interactive.documentnavigation.outline.PDDocumentOutline;
 import org.apache.pdfbox.pdmodel.interactive.documentnavigation.outline.PDOutlineItem;
@@ -36,165 +48,678 @@ public class Bookmarks implements Closeable {
    public static final String BookmarkTitle   = "BookmarkTitle";
    public static final String BookmarkLevel   = "BookmarkLevel";
    public static final String BookmarkPageNumber = "BookmarkPageNumber";
+   public static final String BookmarkPageLabel = "BookmarkPageLabel";
    public static final String BookmarkZoom    = "BookmarkZoom";
    public static final String BookmarkYOffset = "BookmarkYOffset";
+   public static final String BookmarkUncertain = "BookmarkUncertain";
    
-   // For matching
-   private static final String _BMTitle   = BookmarkTitle.toLowerCase() + ":";
-   private static final String _BMLevel   = BookmarkLevel.toLowerCase() + ":";
-   private static final String _BMPageNumber = BookmarkPageNumber.toLowerCase() + ":";
-   private static final String _BMZoom    = BookmarkZoom.toLowerCase() + ":";
-   private static final String _BMYOffset = BookmarkYOffset.toLowerCase() + ":";
+   /**
+    * How to save the PDF after importing
+    */
+   public enum SaveMode {
+      /** Re-write the whole file */
+      Full,
+      /** Append only the changes, falling back to Full if that isn't possible */
+      Incremental,
+      /** Re-write the whole file with objects packed into compressed streams,
+       *  falling back to Full if that isn't possible */
+      Compact
+   };
    
    private PDDocument document;
+   private SaveMode saveMode = SaveMode.Full;
+   private boolean strict = false;
+   private PageIndex pageIndex;
+   private PageLabelIndex pageLabels;
+   private boolean exportPageLabels = false;
+   private NamedDestinations namedDestinations;
+   private boolean readOnly = false;
+   private SalvageReader salvage;
+   private Metrics metrics = Metrics.DISABLED;
+   private DocumentLimits.Budget budget = new DocumentLimits().start(Metrics.DISABLED);
    public Bookmarks(File pdf) throws IOException {
-      document = PDDocument.load(pdf);
+      this(pdf, MemoryUsageSetting.setupMainMemoryOnly());
+   }
+   /**
+    * Opens the PDF, holding its streams in memory, in temp files,
+    *  or a mix of the two, as per the memory usage setting. This
+    *  is also used for the scratch space when saving.
+    */
+   public Bookmarks(File pdf, MemoryUsageSetting memoryUsage) throws IOException {
+      document = PDDocument.load(pdf, memoryUsage);
+   }
+   protected Bookmarks(PDDocument document, boolean readOnly) {
+      this.document = document;
+      this.readOnly = readOnly;
+   }
+   
+   /**
+    * Opens the PDF for reading its bookmarks only, parsing just the
+    *  outline, page tree and named destinations rather than the whole
+    *  file. The bookmarks can be exported, but not imported or saved.
+    * @see OutlineReader
+    */
+   public static Bookmarks openOutline(File pdf, MemoryUsageSetting memoryUsage) throws IOException {
+      return new Bookmarks(OutlineReader.load(pdf, memoryUsage), true);
+   }
+   /**
+    * Opens the PDF for reading its bookmarks only, as above, checking
+    *  the time taken against the budget as the outline is read
+    */
+   public static Bookmarks openOutline(File pdf, MemoryUsageSetting memoryUsage,
+                                       DocumentLimits.Budget budget) throws IOException {
+      return new Bookmarks(OutlineReader.load(pdf, memoryUsage, budget), true);
+   }
+   /**
+    * Opens the PDF for reading its bookmarks only, as above, but if
+    *  its cross-reference tables are broken, salvages the outline with
+    *  a single scan of the file, rather than PDFBox's slower repair.
+    *  Any exported bookmarks which may be wrong are reported.
+    * @see SalvageReader
+    */
+   public static Bookmarks openSalvaged(File pdf, MemoryUsageSetting memoryUsage,
+                                        DocumentLimits.Budget budget) throws IOException {
+      try {
+         return new Bookmarks(OutlineReader.load(pdf, memoryUsage, budget, true), true);
+      } catch (LimitExceededException e) {
+         throw e;
+      } catch (IOException e) {
+         System.err.println("Warning - cross-reference table of " + pdf + " is broken, " +
+                            e.getMessage() + ", salvaging the outline");
+      }
+      SalvageReader reader = SalvageReader.open(pdf, memoryUsage, budget);
+      Bookmarks bookmarks = new Bookmarks(reader.getPDDocument(), true);
+      bookmarks.salvage = reader;
+      return bookmarks;
+   }
+   
+   /**
+    * The underlying PDFBox document
+    */
+   protected PDDocument getDocument() {
+      return document;
+   }
+   
+   /**
+    * Was this opened for outline access only, so can't be saved?
+    */
+   public boolean isReadOnly() {
+      return readOnly;
+   }
+   
+   /**
+    * Was this salvaged from a PDF with broken cross-reference tables,
+    *  so the bookmarks may not all be right?
+    */
+   public boolean isSalvaged() {
+      return salvage != null;
+   }
+   
+   public SaveMode getSaveMode() {
+      return saveMode;
+   }
+   public void setSaveMode(SaveMode saveMode) {
+      this.saveMode = saveMode;
+   }
+   
+   /**
+    * Should importing fail on any malformed bookmarks, rather
+    *  than reporting and skipping them?
+    */
+   public boolean isStrict() {
+      return strict;
+   }
+   public void setStrict(boolean strict) {
+      this.strict = strict;
+   }
+   
+   /**
+    * Should exported bookmarks include the label of their page,
+    *  eg "iv", as well as its number?
+    */
+   public boolean isExportPageLabels() {
+      return exportPageLabels;
+   }
+   public void setExportPageLabels(boolean exportPageLabels) {
+      this.exportPageLabels = exportPageLabels;
+   }
+   
+   /**
+    * Where timings and counts of the work get recorded
+    */
+   public Metrics getMetrics() {
+      return metrics;
+   }
+   public void setMetrics(Metrics metrics) {
+      this.metrics = metrics;
+   }
+   
+   /**
+    * What this document may still use of its limits, checked as
+    *  bookmarks are exported or imported
+    */
+   public DocumentLimits.Budget getBudget() {
+      return budget;
+   }
+   public void setBudget(DocumentLimits.Budget budget) {
+      this.budget = budget;
+   }
+   
+   /**
+    * Returns the number of pages in the PDF
+    */
+   public int getNumberOfPages() {
+      return document.getNumberOfPages();
    }
    
    /**
     * Returns the Bookmarks of a PDF, in PDFtk-like format, or
     *  null if none are contained in the file
     */
-   public void exportBookmarks(PrintWriter output) throws IOException {
+   public void exportBookmarks(final PrintWriter output) throws IOException {
+      exportBookmarks(new BookmarkParser.BookmarkHandler() {
+         @Override
+         public void handleBookmark(PDFBookmark bookmark, int lineNumber) throws IOException {
+            renderBookmark(bookmark, output);
+         }
+      });
+   }
+   /**
+    * Passes each of the Bookmarks of the PDF to the handler in turn,
+    *  in outline order. The line number given is always -1.
+    */
+   public void exportBookmarks(BookmarkParser.BookmarkHandler handler) throws IOException {
       PDDocumentOutline outline =  document.getDocumentCatalog().getDocumentOutline();
       if (outline == null) return;
       
-      exportBookmark(outline, 1, output);
+      if (salvage != null) handler = salvage.flagUncertain(handler);
+      exportBookmark(outline, 1, handler);
+   }
+   
+   /**
+    * Returns the page number lookup for the document, built on first
+    *  use, so pages are found once rather than once per bookmark
+    */
+   public PageIndex getPageIndex() {
+      if (pageIndex == null) {
+         long start = metrics.start();
+         pageIndex = new PageIndex(document);
+         metrics.end(Metrics.Phase.PageIndex, start);
+      }
+      return pageIndex;
    }
-   protected void exportBookmark(PDOutlineNode outline, int level, PrintWriter output) throws IOException {
+   /**
+    * Returns the page label lookup for the document, built on first
+    *  use from its label ranges, so labels are found once per
+    *  document rather than once per bookmark
+    */
+   public PageLabelIndex getPageLabels() {
+      if (pageLabels == null) {
+         long start = metrics.start();
+         pageLabels = new PageLabelIndex(document);
+         metrics.end(Metrics.Phase.PageLabels, start);
+      }
+      return pageLabels;
+   }
+   /**
+    * Returns the named destinations lookup for the document, which
+    *  counts and times its lookups in our metrics
+    */
+   public NamedDestinations getNamedDestinations() {
+      if (namedDestinations == null) {
+         namedDestinations = new NamedDestinations(document, metrics);
+      }
+      return namedDestinations;
+   }
+   /**
+    * Exports all the bookmarks below the given node, writing each one
+    *  out as soon as it is found. Uses an explicit stack rather than
+    *  recursion, so very deep outlines can't overflow, and stops on
+    *  any loops in the outline found in broken files.
+    */
+   protected void exportBookmark(PDOutlineNode outline, int level, 
+                                 BookmarkParser.BookmarkHandler handler) throws IOException {
+      PageIndex pages = getPageIndex();
+      NamedDestinations names = getNamedDestinations();
+      PageLabelIndex labels = exportPageLabels ? getPageLabels() : null;
+      
+      // Only time the parts if wanted, as it's per-bookmark
+      boolean timed = metrics.isEnabled();
+      long start = metrics.start();
+      long lookupNanos = 0, renderNanos = 0;
+      int count = 0;
+      
+      // Track what we've seen, to spot any loops
+      Set<COSDictionary> seen = Collections.newSetFromMap(new IdentityHashMap<COSDictionary,Boolean>());
+      seen.add(outline.getCOSObject());
+      
+      // Parents of the current one, whose later siblings are still to do
+      Deque<PDOutlineItem> parents = new ArrayDeque<>();
+      
       PDOutlineItem current = outline.getFirstChild();
-      while (current != null) {
-         // Handle this one
-         PDFBookmark bookmark = new PDFBookmark(current, level);
-         renderBookmark(bookmark, output);
+      while (current != null || !parents.isEmpty()) {
+         if (current == null) {
+            // Finished this level, on to the parent's next sibling
+            current = parents.pop().getNextSibling();
+            level--;
+            continue;
+         }
+         if (! seen.add(current.getCOSObject())) {
+            System.err.println("Warning - loop in bookmarks found at " + current.getTitle() + 
+                               ", skipping the rest of level " + level);
+            current = null;
+            continue;
+         }
          
-         // Handle any children
-         exportBookmark(current, level+1, output);
+         // Handle this one, if within the limits
+         budget.visit(level);
+         long t0 = timed ? System.nanoTime() : 0;
+         PDFBookmark bookmark = new PDFBookmark(current, level, pages, names, labels);
+         long t1 = timed ? System.nanoTime() : 0;
+         handler.handleBookmark(bookmark, -1);
+         if (timed) {
+            long t2 = System.nanoTime();
+            lookupNanos += t1 - t0;
+            renderNanos += t2 - t1;
+         }
+         count++;
          
-         // Next one at our level, if any
-         current = current.getNextSibling();
+         // Handle any children, then the next one at our level, if any
+         PDOutlineItem child = current.getFirstChild();
+         if (child != null) {
+            parents.push(current);
+            level++;
+            current = child;
+         } else {
+            current = current.getNextSibling();
+         }
+      }
+      
+      if (timed) {
+         metrics.record(Metrics.Phase.PageLookup, lookupNanos);
+         metrics.record(Metrics.Phase.Render, renderNanos);
+         metrics.record(Metrics.Phase.Traverse, System.nanoTime() - start - lookupNanos - renderNanos);
+         metrics.add(Metrics.Counter.Bookmarks, count);
       }
    }
    protected void renderBookmark(PDFBookmark bookmark, PrintWriter bm) throws IOException {
-      bm.append(BookmarkBegin).append(System.lineSeparator());
-      bm.append(BookmarkTitle).append(": ")
-         .append(bookmark.getTitle()).append(System.lineSeparator());
-      bm.append(BookmarkLevel).append(": ")
-         .append(""+bookmark.getLevel()).append(System.lineSeparator());
+      PDFtkCodec.render(bookmark, bm);
+   }
+   
+   /**
+    * Replaces the bookmarks with those from the PDFtk-like text, and
+    *  saves to the output file. Returns false, and saves nothing, if
+    *  the bookmarks weren't valid
+    */
+   public boolean importBookmarks(BufferedReader bookmarkText, File output) throws IOException {
+      // Prepare for the new bookmarks
+      PDDocumentOutline outline =  new PDDocumentOutline();
+      document.getDocumentCatalog().setDocumentOutline( outline );
       
-      if (bookmark.getPageNumber() > 0)
-         bm.append(BookmarkPageNumber).append(": ")
-           .append(""+bookmark.getPageNumber()).append(System.lineSeparator());
+      // Build the new outline as the bookmarks text is parsed
+      OutlineBuilder builder = new OutlineBuilder(outline);
+      TimedHandler timed = timeBuild(builder);
+      long start = metrics.start();
+      new BookmarkParser(strict).parse(bookmarkText,
+            budget.limit(resolvePageLabels((timed == null) ? builder : timed)));
+      recordImport(start, timed, builder);
       
-      if (bookmark.getYOffset() > 0)
-         bm.append(BookmarkYOffset).append(": ")
-            .append(""+bookmark.getYOffset()).append(System.lineSeparator());
+      return finishImport(builder, output);
+   }
+   /**
+    * Replaces the bookmarks with those read in the given format, and
+    *  saves to the output file. Returns false, and saves nothing, if
+    *  the bookmarks weren't valid
+    */
+   public boolean importBookmarks(InputStream input, BookmarkCodec codec, File output) throws IOException {
+      PDDocumentOutline outline =  new PDDocumentOutline();
+      document.getDocumentCatalog().setDocumentOutline( outline );
+      
+      OutlineBuilder builder = new OutlineBuilder(outline);
+      TimedHandler timed = timeBuild(builder);
+      long start = metrics.start();
+      codec.read(budget.limit(input), strict, budget.limit(resolvePageLabels((timed == null) ? builder : timed)));
+      recordImport(start, timed, builder);
       
-      if (bookmark.getZoom() != null)
-         bm.append(BookmarkZoom).append(": ")
-            .append(bookmark.getZoom()).append(System.lineSeparator());
+      return finishImport(builder, output);
+   }
+   
+   /**
+    * Wraps the handler, to look up the page of any bookmarks given by
+    *  page label rather than page number before passing them on. Any
+    *  whose label no page has are reported and skipped, or fail if
+    *  strict.
+    */
+   protected BookmarkParser.BookmarkHandler resolvePageLabels(final BookmarkParser.BookmarkHandler handler) {
+      return new BookmarkParser.BookmarkHandler() {
+         @Override
+         public void handleBookmark(PDFBookmark bookmark, int lineNumber) throws IOException {
+            if (bookmark.getPageNumber() <= 0 && bookmark.getPageLabel() != null) {
+               String label = bookmark.getPageLabel();
+               int index = getPageLabels().getPageIndex(label);
+               if (index < 0) {
+                  BookmarkParser.reportProblem(new BookmarkParseException(lineNumber,
+                        "No page has the label " + label), strict, handler);
+                  return;
+               }
+               bookmark = new PDFBookmark(bookmark.getTitle(), bookmark.getLevel(), index+1, label,
+                                          bookmark.getYOffset(), bookmark.getZoom());
+            }
+            handler.handleBookmark(bookmark, lineNumber);
+         }
+      };
+   }
+   /**
+    * Returns the bookmarks with any given by page label looked up, as
+    *  above, each bookmark's position in the list standing in for its
+    *  line number. Returns the same list if none need looking up.
+    */
+   public List<PDFBookmark> resolvePageLabels(List<PDFBookmark> bookmarks) throws IOException {
+      boolean labelled = false;
+      for (PDFBookmark bookmark : bookmarks) {
+         if (bookmark.getPageNumber() <= 0 && bookmark.getPageLabel() != null) {
+            labelled = true;
+            break;
+         }
+      }
+      if (! labelled) return bookmarks;
+
+      final List<PDFBookmark> resolved = new ArrayList<>(bookmarks.size());
+      BookmarkParser.BookmarkHandler handler = resolvePageLabels(new BookmarkParser.BookmarkHandler() {
+         @Override
+         public void handleBookmark(PDFBookmark bookmark, int lineNumber) {
+            resolved.add(bookmark);
+         }
+      });
+      for (int i=0; i<bookmarks.size(); i++) {
+         handler.handleBookmark(bookmarks.get(i), i+1);
+      }
+      return resolved;
    }
    
-   public void importBookmarks(BufferedReader bookmarkText, File output) throws IOException {
-      // Process the wanted bookmarks text
-      List<PDFBookmark> bookmarks = parseBookmarks(bookmarkText);
+   /**
+    * Times how long building the outline takes, as the bookmarks are
+    *  parsed, so the parsing can be timed separately
+    */
+   private static class TimedHandler implements BookmarkParser.BookmarkHandler {
+      private final BookmarkParser.BookmarkHandler handler;
+      private long nanos;
+      private TimedHandler(BookmarkParser.BookmarkHandler handler) {
+         this.handler = handler;
+      }
+      @Override
+      public void handleBookmark(PDFBookmark bookmark, int lineNumber) throws IOException {
+         long start = System.nanoTime();
+         handler.handleBookmark(bookmark, lineNumber);
+         nanos += System.nanoTime() - start;
+      }
+   }
+   private TimedHandler timeBuild(OutlineBuilder builder) {
+      return metrics.isEnabled() ? new TimedHandler(builder) : null;
+   }
+   private void recordImport(long start, TimedHandler timed, OutlineBuilder builder) {
+      if (timed != null) {
+         metrics.record(Metrics.Phase.Build, timed.nanos);
+         metrics.record(Metrics.Phase.Parse, System.nanoTime() - start - timed.nanos);
+         metrics.add(Metrics.Counter.Bookmarks, builder.getCount());
+      }
+   }
+   private boolean finishImport(OutlineBuilder builder, File output) throws IOException {
+      // Save the new version, if appropriate
+      String problem = builder.getProblem();
+      if (problem != null) {
+         System.err.println("Error - " + problem);
+         return false;
+      }
+      save(output);
+      return true;
+   }
+   /**
+    * Replaces the bookmarks with the given ones, and saves to the
+    *  output file. Returns false, and saves nothing, if the 
+    *  bookmarks weren't valid
+    */
+   public boolean importBookmarks(List<PDFBookmark> bookmarks, File output) throws IOException {
+      boolean valid = replaceBookmarks(bookmarks);
+      
+      // Save the new version, if appropriate
+      if (valid) {
+         save(output);
+      }
+      return valid;
+   }
+   /**
+    * Replaces the bookmarks with the given ones, without saving.
+    *  Returns false, and leaves the outline alone, if the bookmarks
+    *  weren't valid
+    */
+   public boolean replaceBookmarks(List<PDFBookmark> bookmarks) throws IOException {
+      bookmarks = resolvePageLabels(bookmarks);
+      String problem = checkBookmarks(bookmarks);
+      if (problem != null) {
+         System.err.println("Error - " + problem);
+         return false;
+      }
       
       // Prepare for the new bookmarks
       PDDocumentOutline outline =  new PDDocumentOutline();
       document.getDocumentCatalog().setDocumentOutline( outline );
       
       // Import with recursive descent
+      long start = metrics.start();
       boolean valid = importAllBookmarks(bookmarks, outline);
-      
-      // Save the new version, if appropriate
+      metrics.end(Metrics.Phase.Build, start);
       if (valid) {
-         document.save(output);
+         metrics.add(Metrics.Counter.Bookmarks, bookmarks.size());
       }
+      return valid;
    }
    
    /**
-    * Parses a list of PDFtk-like Bookmark text into our 
-    *  wrapper objects
+    * Replaces the bookmarks with a direct copy of those from another
+    *  PDF, and saves to the output file. Source page numbers have the
+    *  offset added, unless in the (1-based) page map.
+    * Returns false, and saves nothing, if there was nothing to copy
+    */
+   public boolean copyBookmarks(Bookmarks source, int pageOffset, Map<Integer,Integer> pageMap,
+                                File output) throws IOException {
+      OutlineCopier copier = new OutlineCopier(source.document, source.getPageIndex(),
+                                               source.getNamedDestinations(), document);
+      copier.setPageOffset(pageOffset);
+      copier.setPageMap(pageMap);
+      
+      long start = metrics.start();
+      int copied = copier.copy();
+      metrics.end(Metrics.Phase.Build, start);
+      metrics.add(Metrics.Counter.Bookmarks, copied);
+      if (copied == 0) {
+         System.err.println("Error - no bookmarks found to copy");
+         return false;
+      }
+      save(output);
+      return true;
+   }
+   
+   /**
+    * Returns all of the Bookmarks of the PDF, in outline order
+    */
+   public List<PDFBookmark> getBookmarks() throws IOException {
+      final List<PDFBookmark> bookmarks = new ArrayList<>();
+      exportBookmarks(new BookmarkParser.BookmarkHandler() {
+         @Override
+         public void handleBookmark(PDFBookmark bookmark, int lineNumber) {
+            bookmarks.add(bookmark);
+         }
+      });
+      return bookmarks;
+   }
+   
+   /**
+    * Returns the Bookmarks of the PDF to the given (1-based, inclusive)
+    *  range of pages, in outline order, with the page numbers rebased
+    *  so the first page of the range is 1. Bookmarks whose parents are
+    *  outside of the range move up to take their place.
     */
-   public List<PDFBookmark> parseBookmarks(BufferedReader bookmarkText) throws IOException {
-      List<PDFBookmark> bookmarks = new ArrayList<>();
+   public List<PDFBookmark> getBookmarks(int firstPage, int lastPage) throws IOException {
+      return selectPages(getBookmarks(), firstPage, lastPage);
+   }
+   /**
+    * Returns those of the bookmarks to the given range of pages,
+    *  rebased and moved up as for {@link #getBookmarks(int, int)}
+    */
+   public static List<PDFBookmark> selectPages(List<PDFBookmark> bookmarks, int firstPage, int lastPage) {
+      List<PDFBookmark> inRange = new ArrayList<>();
+      // Original levels of the bookmarks kept above the current one
+      Deque<Integer> kept = new ArrayDeque<>();
+      for (PDFBookmark bookmark : bookmarks) {
+         while (!kept.isEmpty() && kept.peek() >= bookmark.getLevel()) {
+            kept.pop();
+         }
+         int page = bookmark.getPageNumber();
+         if (page >= firstPage && page <= lastPage) {
+            inRange.add(new PDFBookmark(bookmark.getTitle(), kept.size()+1, page - firstPage + 1,
+                                        bookmark.getYOffset(), bookmark.getZoom()));
+            kept.push(bookmark.getLevel());
+         }
+      }
+      return inRange;
+   }
+   
+   /**
+    * Compares the Bookmarks of the PDF with the given ones
+    */
+   public OutlineDiff diffBookmarks(List<PDFBookmark> bookmarks) throws IOException {
+      return new OutlineDiff(getBookmarks(), resolvePageLabels(bookmarks), budget);
+   }
+   
+   /**
+    * Changes the existing outline to match the given bookmarks, updating
+    *  only the items which differ rather than replacing them all, and
+    *  saves to the output file. With an incremental save, only those
+    *  changes get written. Returns false, and saves nothing, if the
+    *  bookmarks weren't valid
+    */
+   public boolean patchBookmarks(List<PDFBookmark> bookmarks, File output) throws IOException {
+      bookmarks = resolvePageLabels(bookmarks);
+      String problem = checkBookmarks(bookmarks);
+      if (problem != null) {
+         System.err.println("Error - " + problem);
+         return false;
+      }
       
-      String title = null, zoom = null;
-      int level= -1, pageNumber = -1, yOffset = 0;
+      long start = metrics.start();
+      OutlineDiff diff = diffBookmarks(bookmarks);
+      diff.apply(document);
+      metrics.end(Metrics.Phase.Build, start);
+      metrics.add(Metrics.Counter.Bookmarks, bookmarks.size());
       
-      boolean going = true;
-      while (going) {
-         String line = bookmarkText.readLine();
-         if (line == null) going = false;
-         if (line == null || line.equalsIgnoreCase(BookmarkBegin)) {
-            if (title != null && level > 0 && pageNumber > 0) {
-               bookmarks.add(new PDFBookmark(title, level, pageNumber, yOffset, zoom));
-            }
-            title = null; zoom = null;
-            level = -1; pageNumber = -1; yOffset = 0;
+      save(output);
+      return true;
+   }
+   
+   /**
+    * Saves the document in the requested mode. If an incremental
+    *  update or compacted save isn't possible, eg for encrypted or
+    *  repaired files, a full save is done instead.
+    */
+   protected void save(File output) throws IOException {
+      if (readOnly) {
+         throw new IllegalStateException("PDF was opened for outline access only, so can't be saved");
+      }
+      long start = metrics.start();
+      saveAs(output);
+      metrics.end(Metrics.Phase.Save, start);
+      if (metrics.isEnabled()) {
+         metrics.add(Metrics.Counter.BytesWritten, output.length());
+      }
+   }
+   private void saveAs(File output) throws IOException {
+      if (saveMode == SaveMode.Incremental) {
+         String problem = null;
+         if (document.isEncrypted()) {
+            problem = "document is encrypted";
+         } else if (document.getDocument().getStartXref() <= 0) {
+            problem = "cross-reference table is missing or broken";
          } else {
-            String ll = line.toLowerCase();
-            int splitAt = ll.indexOf(':');
-            if (splitAt > 9) {
-               String val = line.substring(splitAt+1).trim();
-               
-               if (ll.startsWith(_BMTitle))
-                  title = val;
-               if (ll.startsWith(_BMLevel))
-                  level = Integer.parseInt(val);
-               if (ll.startsWith(_BMPageNumber))
-                  pageNumber = Integer.parseInt(val);
-               if (ll.startsWith(_BMZoom))
-                  zoom = val;
-               if (ll.startsWith(_BMYOffset))
-                  yOffset = Integer.parseInt(val);
+            // Only the catalog changes, plus the new outline objects
+            document.getDocumentCatalog().getCOSObject().setNeedToBeUpdated(true);
+            
+            // PDFBox copies the original bytes as-is, then appends the changes
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(output))) {
+               document.saveIncremental(out);
+               return;
+            } catch (IOException e) {
+               problem = e.getMessage();
             }
          }
+         System.err.println("Warning - unable to save incrementally, " + problem + 
+                            ", saving in full instead");
       }
-      
+      if (saveMode == SaveMode.Compact) {
+         if (! document.isEncrypted()) {
+            try (OutputStream out = new FileOutputStream(output)) {
+               new CompactWriter(document).write(out);
+               return;
+            }
+         }
+         System.err.println("Warning - unable to save compacted, document is encrypted" + 
+                            ", saving in full instead");
+      }
+      document.save(output);
+   }
+   
+   /**
+    * Parses a list of PDFtk-like Bookmark text into our 
+    *  wrapper objects, skipping (and reporting) any invalid ones
+    */
+   public static List<PDFBookmark> parseBookmarks(BufferedReader bookmarkText) throws IOException {
+      return new BookmarkParser().parse(bookmarkText);
+   }
+   /**
+    * Parses a list of PDFtk-like Bookmark text, as above, stopping
+    *  with a {@link LimitExceededException} if over the budget
+    */
+   public static List<PDFBookmark> parseBookmarks(BufferedReader bookmarkText,
+                                                  DocumentLimits.Budget budget) throws IOException {
+      final List<PDFBookmark> bookmarks = new ArrayList<>();
+      new BookmarkParser().parse(bookmarkText, budget.limit(new BookmarkParser.BookmarkHandler() {
+         @Override
+         public void handleBookmark(PDFBookmark bookmark, int lineNumber) {
+            bookmarks.add(bookmark);
+         }
+      }));
       return bookmarks;
    }
 
-   /** Recursive descent import */
-   protected boolean importAllBookmarks(List<PDFBookmark> bookmarks, PDOutlineNode outline) {
+   /**
+    * Checks if the bookmarks could be imported, returning a description
+    *  of the problem if not, or null if they're fine
+    */
+   public static String checkBookmarks(List<PDFBookmark> bookmarks) {
       if (bookmarks.isEmpty()) {
-         System.err.println("Error - no bookmarks found to import");
-         return false;
+         return "no bookmarks found to import";
       }
       
       PDFBookmark first = bookmarks.get(0);
       if (first.getLevel() != 1) {
-         System.err.println("Error - first bookmark must start at level 1, not " + first.getLevel());
+         return "first bookmark must start at level 1, not " + first.getLevel();
+      }
+      return null;
+   }
+
+   /** Import, building the outline as we go */
+   protected boolean importAllBookmarks(List<PDFBookmark> bookmarks, PDOutlineNode outline) throws IOException {
+      String problem = checkBookmarks(bookmarks);
+      if (problem != null) {
+         System.err.println("Error - " + problem);
          return false;
       }
       
-      List<PDOutlineNode> parents = new ArrayList<>();
-      parents.add(outline);
-      PDOutlineItem last = null;
-      
+      OutlineBuilder builder = new OutlineBuilder(outline);
       for (PDFBookmark bookmark : bookmarks) {
-         // Convert
-         PDOutlineItem asOutline = bookmark.createOutline();
-         
-         // Store at the right place
-         int lastLevel = parents.size();
-         if (bookmark.getLevel() == lastLevel) {
-            // Sibling, no change needed
-         } else if (bookmark.getLevel() > lastLevel) {
-            // Child, add previous as parent
-            parents.add(last);
-         } else {
-            // Higher up, remove un-needed parents
-            for (int i=bookmark.getLevel(); i<lastLevel; i++) {
-               parents.remove(parents.size()-1);
-            }
-         }
-         parents.get(parents.size()-1).addLast(asOutline);
-         
-         // Prepare for the next one
-         last = asOutline;
+         budget.visit(bookmark.getLevel());
+         builder.handleBookmark(bookmark, -1);
       }
-      
       return true;
    }
    
@@ -0,0 +1,242 @@
+/* ====================================================================
+  Copyright 2017 Quanticate Ltd
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+==================================================================== */
+package com.quanticate.opensource.pdftkbox;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.apache.pdfbox.io.RandomAccessRead;
+
+/**
+ * Read-only access to a file, read through its channel a block at a
+ *  time as needed, rather than read in, so only the parts which get
+ *  used are ever read. The last few blocks used are kept, as parsing
+ *  jumps between nearby objects.
+ * Unlike a memory mapping, the file is let go of as soon as this is
+ *  closed, and one truncated while being read gives an IOException
+ *  rather than faulting.
+ */
+public class ChannelRandomAccess implements RandomAccessRead {
+   private static final int BLOCK_BITS = 16;
+   private static final int BLOCK_SIZE = 1 << BLOCK_BITS;
+   private static final int BLOCK_MASK = BLOCK_SIZE - 1;
+   private static final int CACHED_BLOCKS = 16;
+
+   private final File file;
+   private final RandomAccessFile raf;
+   private final FileChannel channel;
+   private final long length;
+   private long position;
+   private boolean closed;
+
+   // The cached blocks, replaced oldest first, and the one last used
+   private final long[] blockNumbers = new long[CACHED_BLOCKS];
+   private final byte[][] blocks = new byte[CACHED_BLOCKS][];
+   private int nextReplaced;
+   private long currentNumber = -1;
+   private byte[] current;
+
+   public ChannelRandomAccess(File file) throws IOException {
+      this.file = file;
+      this.raf = new RandomAccessFile(file, "r");
+      this.channel = raf.getChannel();
+      try {
+         this.length = channel.size();
+      } catch (IOException e) {
+         raf.close();
+         throw e;
+      }
+      for (int i=0; i<CACHED_BLOCKS; i++) {
+         blockNumbers[i] = -1;
+      }
+   }
+
+   private void checkClosed() throws IOException {
+      if (closed) {
+         throw new IOException("ChannelRandomAccess already closed");
+      }
+   }
+
+   /**
+    * Makes the block holding the position the current one, reading it
+    *  in if it isn't one of those cached
+    */
+   private void useBlock(long number) throws IOException {
+      for (int i=0; i<CACHED_BLOCKS; i++) {
+         if (blockNumbers[i] == number) {
+            currentNumber = number;
+            current = blocks[i];
+            return;
+         }
+      }
+
+      int slot = nextReplaced;
+      nextReplaced = (nextReplaced + 1) % CACHED_BLOCKS;
+      if (blocks[slot] == null) {
+         blocks[slot] = new byte[BLOCK_SIZE];
+      }
+      blockNumbers[slot] = -1;
+
+      long start = number << BLOCK_BITS;
+      int size = (int)Math.min(BLOCK_SIZE, length - start);
+      ByteBuffer buffer = ByteBuffer.wrap(blocks[slot], 0, size);
+      while (buffer.hasRemaining()) {
+         if (channel.read(buffer, start + buffer.position()) < 0) {
+            throw new EOFException("Unable to read " + file + ", it has been truncated");
+         }
+      }
+      blockNumbers[slot] = number;
+      currentNumber = number;
+      current = blocks[slot];
+   }
+
+   @Override
+   public int read() throws IOException {
+      checkClosed();
+      if (position >= length) return -1;
+      return get(position++);
+   }
+
+   /**
+    * Returns the byte at the position, without moving there, for
+    *  scanning through the whole file quickly
+    */
+   public int get(long at) throws IOException {
+      if (at < 0 || at >= length) {
+         throw new EOFException("Position " + at + " is outside of " + file);
+      }
+      long number = at >> BLOCK_BITS;
+      if (number != currentNumber) {
+         checkClosed();
+         useBlock(number);
+      }
+      return current[(int)(at & BLOCK_MASK)] & 0xff;
+   }
+
+   @Override
+   public int read(byte[] b) throws IOException {
+      return read(b, 0, b.length);
+   }
+
+   @Override
+   public int read(byte[] b, int offset, int len) throws IOException {
+      checkClosed();
+      if (len == 0) return 0;
+      if (position >= length) return -1;
+
+      int total = 0;
+      while (total < len && position < length) {
+         long number = position >> BLOCK_BITS;
+         if (number != currentNumber) {
+            useBlock(number);
+         }
+         int within = (int)(position & BLOCK_MASK);
+         long blockEnd = Math.min((number + 1) << BLOCK_BITS, length);
+         int count = (int)Math.min(len - total, blockEnd - position);
+         System.arraycopy(current, within, b, offset + total, count);
+         total += count;
+         position += count;
+      }
+      return total;
+   }
+
+   @Override
+   public long getPosition() throws IOException {
+      checkClosed();
+      return position;
+   }
+
+   @Override
+   public void seek(long position) throws IOException {
+      checkClosed();
+      if (position < 0) {
+         throw new IOException("Invalid position " + position);
+      }
+      this.position = position;
+   }
+
+   @Override
+   public long length() throws IOException {
+      checkClosed();
+      return length;
+   }
+
+   @Override
+   public boolean isClosed() {
+      return closed;
+   }
+
+   @Override
+   public int peek() throws IOException {
+      int b = read();
+      if (b != -1) {
+         position--;
+      }
+      return b;
+   }
+
+   @Override
+   public void rewind(int bytes) throws IOException {
+      checkClosed();
+      seek(position - bytes);
+   }
+
+   @Override
+   public byte[] readFully(int len) throws IOException {
+      byte[] b = new byte[len];
+      int read = 0;
+      while (read < len) {
+         int count = read(b, read, len - read);
+         if (count < 0) {
+            throw new EOFException();
+         }
+         read += count;
+      }
+      return b;
+   }
+
+   @Override
+   public boolean isEOF() throws IOException {
+      checkClosed();
+      return position >= length;
+   }
+
+   @Override
+   public int available() throws IOException {
+      checkClosed();
+      return (int)Math.min(length - position, Integer.MAX_VALUE);
+   }
+
+   /**
+    * Closes the file, and drops the cached blocks
+    */
+   @Override
+   public void close() throws IOException {
+      if (closed) return;
+      closed = true;
+      current = null;
+      currentNumber = -1;
+      for (int i=0; i<CACHED_BLOCKS; i++) {
+         blocks[i] = null;
+         blockNumbers[i] = -1;
+      }
+      raf.close();
+   }
+}
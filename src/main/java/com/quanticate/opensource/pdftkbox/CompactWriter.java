@@ -0,0 +1,427 @@
+/* ====================================================================
+  Copyright 2017 Quanticate Ltd
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+==================================================================== */
+package com.quanticate.opensource.pdftkbox;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSBoolean;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSFloat;
+import org.apache.pdfbox.cos.COSInteger;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSNull;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.cos.COSString;
+import org.apache.pdfbox.pdfwriter.COSWriter;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+/**
+ * Writes a whole PDF with everything other than streams packed into
+ *  compressed object streams, and a cross-reference stream in place
+ *  of the cross-reference table, as allowed from PDF 1.5 onwards.
+ *  For a PDF with a large outline, where every bookmark is its own
+ *  small object, this gives a much smaller file than PDFBox's own
+ *  save, which (as of 2.0) can't write object streams.
+ * Only the objects which can be reached from the trailer are written,
+ *  renumbered from 1. Streams are copied across as-is, still encoded,
+ *  straight to the (buffered) output. Encrypted documents can't be
+ *  written this way.
+ */
+public class CompactWriter {
+   private static final int DEFAULT_OBJECTS_PER_STREAM = 100;
+   private static final COSName OBJ_STM = COSName.getPDFName("ObjStm");
+   private static final COSName FIRST = COSName.getPDFName("First");
+   private static final byte[] SPACE = { ' ' };
+
+   private final PDDocument document;
+   private int objectsPerStream = DEFAULT_OBJECTS_PER_STREAM;
+   private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+
+   // Object to its new number, and those numbered but not yet written
+   private final Map<COSBase,Integer> numbers = new IdentityHashMap<>();
+   private final Deque<COSBase> pending = new ArrayDeque<>();
+   // Cross-reference entries, by object number
+   private byte[] types = new byte[1024];
+   private long[] offsets = new long[1024];
+   private int[] indexes = new int[1024];
+   private int nextNumber = 1;
+
+   // The object stream being filled
+   private final ByteArrayOutputStream packed = new ByteArrayOutputStream();
+   private final StringBuilder packedHeader = new StringBuilder();
+   private int packedCount;
+   private int packedStream;
+
+   private final Deflater deflater;
+   private PositionOutputStream out;
+
+   public CompactWriter(PDDocument document) {
+      this.document = document;
+      this.deflater = new Deflater();
+   }
+
+   /**
+    * How many objects to pack into each object stream. More gives
+    *  slightly better compression, fewer makes getting at any one
+    *  object cheaper for readers.
+    */
+   public int getObjectsPerStream() {
+      return objectsPerStream;
+   }
+   public void setObjectsPerStream(int objectsPerStream) {
+      if (objectsPerStream < 1) {
+         throw new IllegalArgumentException("Must have at least one object per stream");
+      }
+      this.objectsPerStream = objectsPerStream;
+   }
+
+   /**
+    * The Deflate level for the object and cross-reference streams,
+    *  0-9, or -1 for the default
+    */
+   public int getCompressionLevel() {
+      return compressionLevel;
+   }
+   public void setCompressionLevel(int compressionLevel) {
+      this.compressionLevel = compressionLevel;
+   }
+
+   /**
+    * Writes the document to the stream, which is left open
+    */
+   public void write(OutputStream output) throws IOException {
+      if (document.isEncrypted()) {
+         throw new IOException("Encrypted documents can't be written compacted");
+      }
+      deflater.setLevel(compressionLevel);
+      out = new PositionOutputStream(new BufferedOutputStream(output, 65536));
+      try {
+         COSDictionary trailer = document.getDocument().getTrailer();
+         float version = Math.max(1.5f, document.getVersion());
+         // The binary comment marks the file as binary for transfer tools
+         write("%PDF-" + version + "\n%\u00e2\u00e3\u00cf\u00d3\n");
+
+         int root = number(trailer.getDictionaryObject(COSName.ROOT));
+         COSBase info = trailer.getDictionaryObject(COSName.INFO);
+         int infoNumber = (info instanceof COSDictionary) ? number(info) : 0;
+
+         while (! pending.isEmpty()) {
+            COSBase object = pending.poll();
+            int number = numbers.get(object);
+            if (object instanceof COSStream) {
+               writeStream(number, (COSStream)object);
+            } else {
+               pack(number, object);
+            }
+         }
+         flushPacked();
+
+         writeXrefStream(root, infoNumber, trailer.getDictionaryObject(COSName.ID));
+         out.flush();
+      } finally {
+         deflater.end();
+      }
+   }
+
+   /**
+    * Returns the new number for the object, queuing it to be
+    *  written if it hasn't been seen before
+    */
+   private int number(COSBase object) {
+      Integer number = numbers.get(object);
+      if (number == null) {
+         number = allocate();
+         numbers.put(object, number);
+         pending.add(object);
+      }
+      return number;
+   }
+   private int allocate() {
+      int number = nextNumber++;
+      if (number >= types.length) {
+         int size = types.length * 2;
+         types = Arrays.copyOf(types, size);
+         offsets = Arrays.copyOf(offsets, size);
+         indexes = Arrays.copyOf(indexes, size);
+      }
+      return number;
+   }
+
+   /**
+    * Writes a stream as an ordinary indirect object, with its data
+    *  copied across still encoded. The length goes in an object of
+    *  its own, written once the data has been counted, so a wrong
+    *  length in the source can't produce a broken file.
+    */
+   private void writeStream(int number, COSStream stream) throws IOException {
+      types[number] = 1;
+      offsets[number] = out.getPosition();
+      int lengthNumber = allocate();
+
+      write(number + " 0 obj\n<<");
+      for (Map.Entry<COSName,COSBase> entry : stream.entrySet()) {
+         if (COSName.LENGTH.equals(entry.getKey())) continue;
+         entry.getKey().writePDF(out);
+         out.write(SPACE);
+         writeValue(entry.getValue(), out);
+      }
+      write("/Length " + lengthNumber + " 0 R>>\nstream\r\n");
+
+      long length = 0;
+      byte[] buffer = new byte[8192];
+      try (InputStream data = stream.createRawInputStream()) {
+         int read;
+         while ((read = data.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+            length += read;
+         }
+      }
+      write("\r\nendstream\nendobj\n");
+
+      pack(lengthNumber, COSInteger.get(length));
+   }
+
+   /**
+    * Adds a non-stream object to the object stream being filled,
+    *  writing that out once it's full
+    */
+   private void pack(int number, COSBase object) throws IOException {
+      if (packedCount == 0) {
+         packedStream = allocate();
+      }
+      types[number] = 2;
+      offsets[number] = packedStream;
+      indexes[number] = packedCount;
+
+      packedHeader.append(number).append(' ').append(packed.size()).append(' ');
+      writeObject(object, packed);
+      packed.write('\n');
+      if (++packedCount == objectsPerStream) {
+         flushPacked();
+      }
+   }
+   private void flushPacked() throws IOException {
+      if (packedCount == 0) return;
+
+      byte[] header = packedHeader.toString().getBytes(StandardCharsets.US_ASCII);
+      ByteArrayOutputStream data = new ByteArrayOutputStream(header.length + packed.size());
+      data.write(header);
+      packed.writeTo(data);
+      byte[] compressed = deflate(data);
+
+      types[packedStream] = 1;
+      offsets[packedStream] = out.getPosition();
+      write(packedStream + " 0 obj\n<</Type/ObjStm/N " + packedCount + "/First " + header.length +
+            "/Filter/FlateDecode/Length " + compressed.length + ">>\nstream\r\n");
+      out.write(compressed);
+      write("\r\nendstream\nendobj\n");
+
+      packed.reset();
+      packedHeader.setLength(0);
+      packedCount = 0;
+   }
+
+   /**
+    * Writes the cross-reference stream, which also serves as the
+    *  trailer, then the pointer to it
+    */
+   private void writeXrefStream(int root, int info, COSBase id) throws IOException {
+      int number = allocate();
+      long position = out.getPosition();
+      types[number] = 1;
+      offsets[number] = position;
+
+      // Offsets and object stream numbers share the middle field
+      int width = 1;
+      while (width < 8 && (Math.max(position, nextNumber) >>> (8 * width)) != 0) {
+         width++;
+      }
+      ByteArrayOutputStream rows = new ByteArrayOutputStream(nextNumber * (width + 3));
+      for (int i=0; i<nextNumber; i++) {
+         if (i == 0) {
+            // Head of the (empty) free list
+            writeRow(rows, 0, 0, width, 0xffff);
+         } else {
+            writeRow(rows, types[i], offsets[i], width, indexes[i]);
+         }
+      }
+      byte[] compressed = deflate(rows);
+
+      write(number + " 0 obj\n<</Type/XRef/Size " + nextNumber + "/W [1 " + width + " 2]/Root " + root + " 0 R");
+      if (info > 0) {
+         write("/Info " + info + " 0 R");
+      }
+      write("/ID ");
+      writeValue((id instanceof COSArray) ? id : createId(position), out);
+      write("/Filter/FlateDecode/Length " + compressed.length + ">>\nstream\r\n");
+      out.write(compressed);
+      write("\r\nendstream\nendobj\nstartxref\n" + position + "\n%%EOF\n");
+   }
+   private static void writeRow(ByteArrayOutputStream rows, int type, long field2, int width, int field3) {
+      rows.write(type);
+      for (int shift = 8 * (width-1); shift >= 0; shift -= 8) {
+         rows.write((int)(field2 >>> shift));
+      }
+      rows.write(field3 >>> 8);
+      rows.write(field3);
+   }
+   /**
+    * Makes up a file identifier for a document which didn't have one
+    */
+   private COSArray createId(long size) throws IOException {
+      try {
+         MessageDigest md5 = MessageDigest.getInstance("MD5");
+         md5.update(Long.toString(System.currentTimeMillis()).getBytes(StandardCharsets.US_ASCII));
+         md5.update(Long.toString(size).getBytes(StandardCharsets.US_ASCII));
+         COSString value = new COSString(md5.digest());
+         value.setForceHexForm(true);
+         COSArray id = new COSArray();
+         id.add(value);
+         id.add(value);
+         return id;
+      } catch (NoSuchAlgorithmException e) {
+         throw new IOException("MD5 not available", e);
+      }
+   }
+
+   private byte[] deflate(ByteArrayOutputStream data) throws IOException {
+      deflater.reset();
+      ByteArrayOutputStream compressed = new ByteArrayOutputStream(data.size() / 2 + 64);
+      try (DeflaterOutputStream deflating = new DeflaterOutputStream(compressed, deflater, 8192)) {
+         data.writeTo(deflating);
+      }
+      return compressed.toByteArray();
+   }
+
+   /**
+    * Writes the contents of an indirect object
+    */
+   private void writeObject(COSBase object, OutputStream output) throws IOException {
+      if (object instanceof COSDictionary) {
+         writeDictionary((COSDictionary)object, output);
+      } else if (object instanceof COSArray) {
+         writeArray((COSArray)object, output);
+      } else {
+         writeSimple(object, output);
+      }
+   }
+   /**
+    * Writes a value within an object, as a reference if it's another
+    *  object. As with PDFBox's own writer, dictionaries are their own
+    *  objects unless they're marked as direct, as are anything which
+    *  was an object in the source.
+    */
+   private void writeValue(COSBase value, OutputStream output) throws IOException {
+      if (value instanceof COSObject) {
+         COSBase object = ((COSObject)value).getObject();
+         if (object == null || object instanceof COSNull) {
+            COSNull.NULL.writePDF(output);
+         } else {
+            writeReference(object, output);
+         }
+      } else if (value instanceof COSStream) {
+         writeReference(value, output);
+      } else if (value instanceof COSDictionary && ! value.isDirect()) {
+         writeReference(value, output);
+      } else {
+         writeObject(value, output);
+      }
+   }
+   private void writeReference(COSBase object, OutputStream output) throws IOException {
+      write(number(object) + " 0 R", output);
+   }
+
+   private void writeDictionary(COSDictionary dictionary, OutputStream output) throws IOException {
+      write("<<", output);
+      for (Map.Entry<COSName,COSBase> entry : dictionary.entrySet()) {
+         entry.getKey().writePDF(output);
+         output.write(SPACE);
+         writeValue(entry.getValue(), output);
+      }
+      write(">>", output);
+   }
+   private void writeArray(COSArray array, OutputStream output) throws IOException {
+      output.write('[');
+      for (int i=0; i<array.size(); i++) {
+         if (i > 0) output.write(SPACE);
+         writeValue(array.get(i), output);
+      }
+      output.write(']');
+   }
+   private static void writeSimple(COSBase value, OutputStream output) throws IOException {
+      if (value instanceof COSString) {
+         COSWriter.writeString((COSString)value, output);
+      } else if (value instanceof COSName) {
+         ((COSName)value).writePDF(output);
+      } else if (value instanceof COSInteger) {
+         ((COSInteger)value).writePDF(output);
+      } else if (value instanceof COSFloat) {
+         ((COSFloat)value).writePDF(output);
+      } else if (value instanceof COSBoolean) {
+         ((COSBoolean)value).writePDF(output);
+      } else {
+         COSNull.NULL.writePDF(output);
+      }
+   }
+
+   private void write(String text) throws IOException {
+      write(text, out);
+   }
+   private static void write(String text, OutputStream output) throws IOException {
+      output.write(text.getBytes(StandardCharsets.ISO_8859_1));
+   }
+
+   /**
+    * Keeps track of where in the file the output has got to
+    */
+   private static class PositionOutputStream extends FilterOutputStream {
+      private long position;
+      private PositionOutputStream(OutputStream out) {
+         super(out);
+      }
+      @Override
+      public void write(int b) throws IOException {
+         out.write(b);
+         position++;
+      }
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+         out.write(b, off, len);
+         position += len;
+      }
+      private long getPosition() {
+         return position;
+      }
+   }
+}
@@ -0,0 +1,484 @@
+/* ====================================================================
+  Copyright 2017 Quanticate Ltd
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+==================================================================== */
+package com.quanticate.opensource.pdftkbox;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Exports the bookmarks of a whole corpus of PDFs into one stream,
+ *  using a pool of workers, with a header for each document so the
+ *  bookmarks can be told apart. Documents which fail are recorded in
+ *  the stream too, and don't stop the others.
+ *
+ * The output is either PDFtk-style, with each document starting
+ * <pre>
+ * DocumentBegin
+ * DocumentFile: path/to/file.pdf
+ * </pre>
+ * followed by its bookmarks, or by a <code>DocumentError</code> line,
+ *  or JSON Lines, one object per document with <code>file</code> and
+ *  either <code>bookmarks</code> or <code>error</code>.
+ *
+ * With a checkpoint file, progress is recorded every so often, and a
+ *  re-run with the same input list picks up from the last checkpoint,
+ *  trimming off anything written to the output after it.
+ */
+public class CorpusExporter {
+   public static final String DocumentBegin = "DocumentBegin";
+   public static final String DocumentFile  = "DocumentFile";
+   public static final String DocumentError = "DocumentError";
+
+   /**
+    * Format of the combined output
+    */
+   public enum Format {
+      /** PDFtk-style text, with document headers */
+      PDFtk,
+      /** JSON Lines, one document per line */
+      JSON
+   };
+
+   private final int threads;
+   private Format format = Format.PDFtk;
+   private boolean ordered = true;
+   private File checkpoint;
+   private int checkpointEvery = 1000;
+   private JobSettings settings = new JobSettings();
+
+   public CorpusExporter(int threads) {
+      if (threads < 1)
+         throw new IllegalArgumentException("Need at least one thread, not " + threads);
+      this.threads = threads;
+   }
+
+   public Format getFormat() {
+      return format;
+   }
+   public void setFormat(Format format) {
+      this.format = format;
+   }
+
+   /**
+    * Should documents be written in the order they were listed, or
+    *  as soon as each is done?
+    */
+   public boolean isOrdered() {
+      return ordered;
+   }
+   public void setOrdered(boolean ordered) {
+      this.ordered = ordered;
+   }
+
+   /**
+    * Where to record progress, so an interrupted export can be
+    *  resumed, or null for none. Needs the output to be a file.
+    */
+   public File getCheckpoint() {
+      return checkpoint;
+   }
+   public void setCheckpoint(File checkpoint) {
+      this.checkpoint = checkpoint;
+   }
+   /**
+    * How many documents to write between checkpoints
+    */
+   public void setCheckpointEvery(int checkpointEvery) {
+      this.checkpointEvery = checkpointEvery;
+   }
+
+   /**
+    * How the documents should be opened
+    */
+   public void setSettings(JobSettings settings) {
+      this.settings = settings;
+   }
+
+   /**
+    * Exports the bookmarks of all the documents, to the output file,
+    *  or to standard out if null. The documents must always be listed
+    *  in the same order for a checkpoint to be used.
+    * @return The number of documents which failed
+    */
+   public int run(Iterator<String> documents, File outputFile) throws IOException {
+      if (checkpoint != null && outputFile == null) {
+         throw new IllegalArgumentException("An output file is needed to use a checkpoint");
+      }
+      Progress progress = new Progress();
+      if (checkpoint != null && checkpoint.exists()) {
+         progress = Progress.read(checkpoint);
+         System.err.println("Resuming from checkpoint, " + progress.next + " documents done");
+      }
+
+      FileOutputStream fileOut = null;
+      CountingOutputStream counted;
+      if (outputFile == null) {
+         counted = new CountingOutputStream(System.out, 0);
+      } else {
+         fileOut = new FileOutputStream(outputFile, progress.bytes > 0);
+         if (progress.bytes > 0) {
+            if (fileOut.getChannel().size() < progress.bytes) {
+               fileOut.close();
+               throw new IOException("Output " + outputFile + " is shorter than the checkpoint expects");
+            }
+            // Drop anything written after the checkpoint, it'll be done again
+            fileOut.getChannel().truncate(progress.bytes);
+         }
+         counted = new CountingOutputStream(fileOut, progress.bytes);
+      }
+      Writer output = new BufferedWriter(new OutputStreamWriter(counted, StandardCharsets.UTF_8), 65536);
+
+      ExecutorService pool = Executors.newFixedThreadPool(threads);
+      CompletionService<Result> completion = new ExecutorCompletionService<>(pool);
+      Deque<Future<Result>> pending = new ArrayDeque<>();
+      int window = threads * 4;
+      int inFlight = 0;
+      int written = 0;
+      int failed = 0;
+      int sinceCheckpoint = 0;
+
+      try {
+         long index = 0;
+         while (documents.hasNext() || inFlight > 0) {
+            // Keep the workers busy, but don't run too far ahead
+            if (documents.hasNext() && inFlight < window) {
+               final String document = documents.next();
+               final long thisIndex = index++;
+               if (progress.isDone(thisIndex)) continue;
+
+               Callable<Result> task = new Callable<Result>() {
+                  @Override
+                  public Result call() {
+                     return export(thisIndex, document);
+                  }
+               };
+               if (ordered) {
+                  pending.add(pool.submit(task));
+               } else {
+                  completion.submit(task);
+               }
+               inFlight++;
+               continue;
+            }
+
+            // Write out the next one
+            Future<Result> next = ordered ? pending.poll() : completion.take();
+            Result result = next.get();
+            inFlight--;
+            output.write(result.text);
+            progress.done(result.index);
+            written++;
+            if (result.failed) failed++;
+
+            if (checkpoint != null && ++sinceCheckpoint >= checkpointEvery) {
+               saveCheckpoint(output, counted, fileOut, progress);
+               sinceCheckpoint = 0;
+            }
+         }
+         output.flush();
+         if (checkpoint != null) {
+            // All done, so nothing to resume
+            Files.deleteIfExists(checkpoint.toPath());
+         }
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new IOException("Corpus export interrupted", e);
+      } catch (ExecutionException e) {
+         throw new IOException(e.getCause());
+      } catch (UncheckedIOException e) {
+         throw e.getCause();
+      } finally {
+         pool.shutdownNow();
+         if (fileOut != null) {
+            output.close();
+         } else {
+            output.flush();
+         }
+      }
+
+      System.err.println("Corpus export complete - " + (written-failed) +
+                         " documents exported, " + failed + " failed");
+      return failed;
+   }
+
+   private void saveCheckpoint(Writer output, CountingOutputStream counted, FileOutputStream fileOut,
+                               Progress progress) throws IOException {
+      output.flush();
+      fileOut.getChannel().force(false);
+      progress.bytes = counted.count;
+
+      // Write then rename, so there's always a whole checkpoint to resume from
+      File temp = new File(checkpoint.getPath() + ".tmp");
+      progress.write(temp);
+      try {
+         Files.move(temp.toPath(), checkpoint.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+         Files.move(temp.toPath(), checkpoint.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+   }
+
+   /**
+    * Exports a single document, rendering it ready for the output,
+    *  along with any problem
+    */
+   protected Result export(long index, String document) {
+      String nl = (format == Format.JSON) ? "\n" : System.lineSeparator();
+      final StringBuilder text = new StringBuilder();
+      if (format == Format.JSON) {
+         text.append("{\"file\":");
+         Json.quote(document, text);
+      } else {
+         text.append(DocumentBegin).append(nl);
+         text.append(DocumentFile).append(": ").append(document).append(nl);
+      }
+      int headerLength = text.length();
+
+      try {
+         if (format == Format.JSON) {
+            text.append(",\"bookmarks\":[");
+            settings.exportBookmarks(new File(document), new BookmarkParser.BookmarkHandler() {
+               private boolean first = true;
+               @Override
+               public void handleBookmark(PDFBookmark bookmark, int lineNumber) {
+                  if (! first) text.append(',');
+                  first = false;
+                  Json.bookmark(bookmark, text);
+               }
+            });
+            text.append("]}").append(nl);
+         } else {
+            StringWriter bookmarks = new StringWriter();
+            final PrintWriter writer = new PrintWriter(bookmarks);
+            settings.exportBookmarks(new File(document), new BookmarkParser.BookmarkHandler() {
+               @Override
+               public void handleBookmark(PDFBookmark bookmark, int lineNumber) {
+                  PDFtkCodec.render(bookmark, writer);
+               }
+            });
+            writer.flush();
+            text.append(bookmarks.getBuffer());
+         }
+         return new Result(index, text.toString(), false);
+      } catch (Throwable e) {
+         // Record the problem, even an Error, in place of any partial bookmarks
+         text.setLength(headerLength);
+         if (format == Format.JSON) {
+            text.append(",\"error\":");
+            Json.quote(e.toString(), text);
+            text.append('}').append(nl);
+         } else {
+            text.append(DocumentError).append(": ")
+                .append(e.toString().replace('\r', ' ').replace('\n', ' ')).append(nl);
+         }
+         return new Result(index, text.toString(), true);
+      }
+   }
+
+   protected static class Result {
+      private final long index;
+      private final String text;
+      private final boolean failed;
+      private Result(long index, String text, boolean failed) {
+         this.index = index;
+         this.text = text;
+         this.failed = failed;
+      }
+   }
+
+   /**
+    * Which documents are done, as the index below which all are done,
+    *  plus any later ones finished out of order, and how much of
+    *  the output they cover
+    */
+   protected static class Progress {
+      private long bytes;
+      private long next;
+      private final TreeSet<Long> later = new TreeSet<>();
+
+      private boolean isDone(long index) {
+         return index < next || later.contains(index);
+      }
+      private void done(long index) {
+         if (index == next) {
+            next++;
+            while (later.remove(next)) next++;
+         } else {
+            later.add(index);
+         }
+      }
+
+      private void write(File file) throws IOException {
+         try (Writer w = new BufferedWriter(new OutputStreamWriter(
+                  new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            w.write("bytes " + bytes + "\n");
+            w.write("next " + next + "\n");
+            for (Long index : later) {
+               w.write("done " + index + "\n");
+            }
+         }
+      }
+      private static Progress read(File file) throws IOException {
+         Progress progress = new Progress();
+         for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+            String[] parts = line.trim().split(" ");
+            if (parts.length != 2) continue;
+            long value = Long.parseLong(parts[1]);
+            if ("bytes".equals(parts[0])) progress.bytes = value;
+            else if ("next".equals(parts[0])) progress.next = value;
+            else if ("done".equals(parts[0])) progress.later.add(value);
+         }
+         return progress;
+      }
+   }
+
+   /**
+    * Keeps track of how many bytes have been written
+    */
+   protected static class CountingOutputStream extends FilterOutputStream {
+      private long count;
+      protected CountingOutputStream(OutputStream out, long count) {
+         super(out);
+         this.count = count;
+      }
+      @Override
+      public void write(int b) throws IOException {
+         out.write(b);
+         count++;
+      }
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+         out.write(b, off, len);
+         count += len;
+      }
+   }
+
+   /**
+    * Lists the PDFs in a directory and all those below it, lazily, in
+    *  name order so that the listing is the same every time
+    */
+   public static Iterator<String> listDirectory(File directory) {
+      return new DirectoryLister(directory.toPath());
+   }
+   /**
+    * Lists the documents named in a file, one per line, skipping
+    *  blank lines and # comments
+    */
+   public static Iterator<String> listFile(final BufferedReader list) {
+      return new Iterator<String>() {
+         private String next;
+         @Override
+         public boolean hasNext() {
+            try {
+               while (next == null) {
+                  String line = list.readLine();
+                  if (line == null) return false;
+                  if (line.trim().isEmpty() || line.startsWith("#")) continue;
+                  next = line;
+               }
+               return true;
+            } catch (IOException e) {
+               throw new UncheckedIOException(e);
+            }
+         }
+         @Override
+         public String next() {
+            if (! hasNext()) throw new NoSuchElementException();
+            String document = next;
+            next = null;
+            return document;
+         }
+      };
+   }
+
+   private static class DirectoryLister implements Iterator<String> {
+      private final Deque<Iterator<Path>> directories = new ArrayDeque<>();
+      private String next;
+
+      private DirectoryLister(Path root) {
+         directories.push(list(root));
+      }
+      private static Iterator<Path> list(Path directory) {
+         List<Path> entries = new ArrayList<>();
+         try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path entry : stream) {
+               entries.add(entry);
+            }
+         } catch (IOException e) {
+            throw new UncheckedIOException(e);
+         }
+         Collections.sort(entries);
+         return entries.iterator();
+      }
+
+      @Override
+      public boolean hasNext() {
+         while (next == null && !directories.isEmpty()) {
+            Iterator<Path> current = directories.peek();
+            if (! current.hasNext()) {
+               directories.pop();
+               continue;
+            }
+            Path entry = current.next();
+            if (Files.isDirectory(entry)) {
+               directories.push(list(entry));
+            } else if (entry.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".pdf")) {
+               next = entry.toString();
+            }
+         }
+         return next != null;
+      }
+      @Override
+      public String next() {
+         if (! hasNext()) throw new NoSuchElementException();
+         String document = next;
+         next = null;
+         return document;
+      }
+   }
+}
@@ -0,0 +1,226 @@
+/* ====================================================================
+  Copyright 2017 Quanticate Ltd
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+==================================================================== */
+package com.quanticate.opensource.pdftkbox;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits on the work done for any one document, so a broken or
+ *  hostile file fails on its own with a {@link LimitExceededException},
+ *  rather than hanging or using up the memory of the whole process.
+ *  A limit of zero, the default for all of them, means no limit.
+ *
+ * The limits are checked as the work goes along, between bookmarks,
+ *  so the time taken can run over by the time one bookmark takes. The
+ *  loading of a full PDF by PDFBox can't be stopped part way, so the
+ *  file size limit is what guards that.
+ */
+public class DocumentLimits {
+   /**
+    * The things which are limited
+    */
+   public enum Limit {
+      /** Wall clock time, from opening the document */
+      Time,
+      /** Number of bookmarks read or written */
+      Nodes,
+      /** How deeply the bookmarks are nested */
+      Depth,
+      /** Size of the PDF, or of the bookmarks read in */
+      Size
+   };
+
+   // How many bookmarks between checks of the clock
+   private static final int TIME_CHECK_EVERY = 64;
+
+   private long maxMillis;
+   private int maxNodes;
+   private int maxDepth;
+   private long maxBytes;
+
+   /**
+    * Most time to spend on a document, in milliseconds
+    */
+   public long getMaxMillis() {
+      return maxMillis;
+   }
+   public void setMaxMillis(long maxMillis) {
+      this.maxMillis = maxMillis;
+   }
+
+   /**
+    * Most bookmarks to read or write for a document
+    */
+   public int getMaxNodes() {
+      return maxNodes;
+   }
+   public void setMaxNodes(int maxNodes) {
+      this.maxNodes = maxNodes;
+   }
+
+   /**
+    * Deepest level of bookmarks allowed
+    */
+   public int getMaxDepth() {
+      return maxDepth;
+   }
+   public void setMaxDepth(int maxDepth) {
+      this.maxDepth = maxDepth;
+   }
+
+   /**
+    * Largest PDF, or bookmarks file, to read in, in bytes
+    */
+   public long getMaxBytes() {
+      return maxBytes;
+   }
+   public void setMaxBytes(long maxBytes) {
+      this.maxBytes = maxBytes;
+   }
+
+   /**
+    * Is anything limited?
+    */
+   public boolean isLimited() {
+      return maxMillis > 0 || maxNodes > 0 || maxDepth > 0 || maxBytes > 0;
+   }
+
+   /**
+    * Starts the budget for a document, with the time counting from now
+    */
+   public Budget start(Metrics metrics) {
+      return new Budget(metrics, System.nanoTime());
+   }
+   /**
+    * Starts the budget for a document, with the time counting from
+    *  the given {@link System#nanoTime()}, eg when it began loading
+    */
+   public Budget start(Metrics metrics, long startNanos) {
+      return new Budget(metrics, startNanos);
+   }
+
+   /**
+    * Checks the size of a file against the limit, before it's read
+    */
+   public void checkSize(long bytes, String what) throws LimitExceededException {
+      if (maxBytes > 0 && bytes > maxBytes) {
+         throw new LimitExceededException(Limit.Size, what + " is " + bytes +
+                                          " bytes, over the limit of " + maxBytes);
+      }
+   }
+
+   /**
+    * What one document has used so far of the limits. Not thread
+    *  safe, each document being worked on by one thread at a time.
+    */
+   public class Budget {
+      private final Metrics metrics;
+      private final long deadline;
+      private int nodes;
+
+      private Budget(Metrics metrics, long startNanos) {
+         this.metrics = metrics;
+         this.deadline = (maxMillis > 0) ? startNanos + TimeUnit.MILLISECONDS.toNanos(maxMillis) : 0;
+      }
+
+      /**
+       * Records a bookmark at the given level, checking the count, the
+       *  depth and, every so often, the time
+       */
+      public void visit(int level) throws LimitExceededException {
+         nodes++;
+         if (maxNodes > 0 && nodes > maxNodes) {
+            throw exceeded(Limit.Nodes, "More than " + maxNodes + " bookmarks");
+         }
+         if (maxDepth > 0 && level > maxDepth) {
+            throw exceeded(Limit.Depth, "Bookmarks nested " + level +
+                           " deep, over the limit of " + maxDepth);
+         }
+         if (deadline != 0 && nodes % TIME_CHECK_EVERY == 0) {
+            checkTime();
+         }
+      }
+      /**
+       * Checks the time taken so far
+       */
+      public void checkTime() throws LimitExceededException {
+         if (deadline != 0 && System.nanoTime() - deadline > 0) {
+            throw exceeded(Limit.Time, "Took longer than the limit of " + maxMillis + "ms");
+         }
+      }
+      /**
+       * Checks the size of a file against the limit, before it's read
+       */
+      public void checkSize(long bytes, String what) throws LimitExceededException {
+         try {
+            DocumentLimits.this.checkSize(bytes, what);
+         } catch (LimitExceededException e) {
+            metrics.add(Metrics.Counter.LimitsExceeded, 1);
+            throw e;
+         }
+      }
+
+      /**
+       * Wraps the handler, to record and check each bookmark before
+       *  passing it on
+       */
+      public BookmarkParser.BookmarkHandler limit(final BookmarkParser.BookmarkHandler handler) {
+         if (! isLimited()) return handler;
+         return new BookmarkParser.BookmarkHandler() {
+            @Override
+            public void handleBookmark(PDFBookmark bookmark, int lineNumber) throws IOException {
+               visit(bookmark.getLevel());
+               handler.handleBookmark(bookmark, lineNumber);
+            }
+         };
+      }
+      /**
+       * Wraps the stream, to fail once more than the size limit is read
+       */
+      public InputStream limit(InputStream input) {
+         if (maxBytes <= 0) return input;
+         return new FilterInputStream(input) {
+            private long read;
+            @Override
+            public int read() throws IOException {
+               int b = super.read();
+               if (b != -1) count(1);
+               return b;
+            }
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+               int count = super.read(b, off, len);
+               if (count > 0) count(count);
+               return count;
+            }
+            private void count(int bytes) throws LimitExceededException {
+               read += bytes;
+               if (read > maxBytes) {
+                  throw exceeded(Limit.Size, "Bookmarks are over the limit of " + maxBytes + " bytes");
+               }
+            }
+         };
+      }
+
+      private LimitExceededException exceeded(Limit limit, String message) {
+         metrics.add(Metrics.Counter.LimitsExceeded, 1);
+         return new LimitExceededException(limit, message);
+      }
+   }
+}
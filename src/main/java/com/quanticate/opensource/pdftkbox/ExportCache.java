@@ -0,0 +1,201 @@
+/* ====================================================================
+  Copyright 2017 Quanticate Ltd
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+==================================================================== */
+package com.quanticate.opensource.pdftkbox;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * On-disk cache of exported bookmarks, keyed by the SHA-256 of the
+ *  PDF's contents, so exporting the same file again only costs
+ *  hashing it. Entries are evicted least recently used first, once
+ *  the cache grows past its size limit. Safe to share between threads,
+ *  and between processes using the same directory.
+ */
+public class ExportCache {
+   private static final String SUFFIX = ".bm";
+   // Entries are stored as binary bookmarks, keeping missing titles
+   //  missing so that hits render just as misses do
+   private static final BookmarkCodec CODEC = new BinaryCodec(true);
+   // How much of the PDF to hash at a time
+   private static final int HASH_CHUNK = 1024 * 1024;
+
+   private final File directory;
+   private final long maxBytes;
+   // Entry sizes, least recently used first
+   private final LinkedHashMap<String,Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+   private long totalBytes;
+
+   public ExportCache(File directory, long maxBytes) throws IOException {
+      if (! directory.isDirectory() && ! directory.mkdirs()) {
+         throw new IOException("Unable to create cache directory " + directory);
+      }
+      this.directory = directory;
+      this.maxBytes = maxBytes;
+
+      // Pick up what's already there, oldest first
+      File[] existing = directory.listFiles();
+      if (existing != null) {
+         Arrays.sort(existing, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+               return Long.compare(a.lastModified(), b.lastModified());
+            }
+         });
+         for (File file : existing) {
+            String name = file.getName();
+            if (file.isFile() && name.endsWith(SUFFIX)) {
+               entries.put(name.substring(0, name.length()-SUFFIX.length()), file.length());
+               totalBytes += file.length();
+            }
+         }
+      }
+   }
+
+   public File getDirectory() {
+      return directory;
+   }
+   public long getMaxBytes() {
+      return maxBytes;
+   }
+
+   /**
+    * Returns the cache key for the PDF, the hex SHA-256 of its
+    *  contents
+    */
+   public String key(File pdf) throws IOException {
+      MessageDigest digest;
+      try {
+         digest = MessageDigest.getInstance("SHA-256");
+      } catch (NoSuchAlgorithmException e) {
+         throw new IllegalStateException("SHA-256 not available", e);
+      }
+      try (RandomAccessFile raf = new RandomAccessFile(pdf, "r");
+           FileChannel channel = raf.getChannel()) {
+         ByteBuffer chunk = ByteBuffer.allocate(HASH_CHUNK);
+         while (channel.read(chunk) >= 0) {
+            chunk.flip();
+            digest.update(chunk);
+            chunk.clear();
+         }
+      }
+
+      StringBuilder hex = new StringBuilder();
+      for (byte b : digest.digest()) {
+         hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+      }
+      return hex.toString();
+   }
+
+   /**
+    * Returns the cached bookmarks for the key, or null if there
+    *  aren't any
+    */
+   public List<PDFBookmark> get(String key) throws IOException {
+      File file = entryFile(key);
+      final List<PDFBookmark> bookmarks = new ArrayList<>();
+      try (InputStream in = new FileInputStream(file)) {
+         CODEC.read(in, true, new BookmarkParser.BookmarkHandler() {
+            @Override
+            public void handleBookmark(PDFBookmark bookmark, int lineNumber) {
+               bookmarks.add(bookmark);
+            }
+         });
+      } catch (FileNotFoundException e) {
+         return null;
+      } catch (IOException e) {
+         System.err.println("Warning - unable to read cached bookmarks " + file + ", " + e.getMessage());
+         return null;
+      }
+
+      // Mark as recently used, for us and for any other processes
+      file.setLastModified(System.currentTimeMillis());
+      synchronized (entries) {
+         if (entries.get(key) == null) {
+            entries.put(key, file.length());
+            totalBytes += file.length();
+         }
+      }
+      return bookmarks;
+   }
+
+   /**
+    * Stores the bookmarks for the key, evicting older entries if
+    *  the cache is now too big. Bookmarks without a page can't be
+    *  stored in the binary form, so those aren't cached.
+    */
+   public void put(String key, List<PDFBookmark> bookmarks) throws IOException {
+      for (PDFBookmark bookmark : bookmarks) {
+         if (bookmark.getPageNumber() <= 0 && bookmark.getPageLabel() == null) {
+            return;
+         }
+      }
+
+      File file = entryFile(key);
+      File temp = File.createTempFile(key, ".tmp", directory);
+      try {
+         try (BookmarkCodec.Writer writer = CODEC.createWriter(new FileOutputStream(temp))) {
+            for (PDFBookmark bookmark : bookmarks) {
+               writer.write(bookmark);
+            }
+         }
+         Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+         temp.delete();
+      }
+
+      List<File> evict = new ArrayList<>();
+      synchronized (entries) {
+         Long previous = entries.put(key, file.length());
+         totalBytes += file.length() - (previous == null ? 0 : previous);
+
+         Iterator<Map.Entry<String,Long>> it = entries.entrySet().iterator();
+         while (totalBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String,Long> oldest = it.next();
+            if (oldest.getKey().equals(key)) continue;
+            evict.add(entryFile(oldest.getKey()));
+            totalBytes -= oldest.getValue();
+            it.remove();
+         }
+      }
+      for (File old : evict) {
+         old.delete();
+      }
+   }
+
+   private File entryFile(String key) {
+      return new File(directory, key + SUFFIX);
+   }
+}
@@ -0,0 +1,553 @@
+/* ====================================================================
+  Copyright 2017 Quanticate Ltd
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+==================================================================== */
+package com.quanticate.opensource.pdftkbox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Watches a directory for PDFs, and bookmark files with the same name,
+ *  importing the bookmarks into the PDF when there's a pair, or
+ *  exporting the bookmarks of a PDF which arrives on its own. Results
+ *  go to the output directory, and the files worked on are then moved
+ *  into <code>done</code> or <code>failed</code> below the watched one.
+ *
+ * The work is done in three stages, loading the PDFs and bookmarks,
+ *  importing or exporting, and saving, each with its own workers, so
+ *  the reading, parsing and writing of different files overlap. The
+ *  stages are joined by bounded queues, so a slow stage holds up the
+ *  ones before it, rather than documents piling up in memory.
+ *
+ * Files are only picked up once they have stopped changing for the
+ *  settle time, and PDFs once they also end with an end-of-file
+ *  marker. A PDF which stops changing without one is failed, once
+ *  it has been left for ten times the settle time. Files with names starting with a dot, or ending in .tmp or
+ *  .part, are left alone, so writers can rename them into place.
+ *  Write the bookmarks file before its PDF, so it's there to be
+ *  paired with it. Outputs are written to a temp file and renamed,
+ *  so they never appear half-written either.
+ */
+public class HotFolder {
+   private static final String DONE = "done";
+   private static final String FAILED = "failed";
+   private static final String PDF = "pdf";
+
+   private final File directory;
+   private final File outputDirectory;
+   private final int threads;
+   private final int queueSize;
+   private JobSettings settings = new JobSettings();
+   private long settleMillis = 2000;
+   private long reportMillis = 10000;
+
+   // Between the stages
+   private BlockingQueue<Job> loadQueue;
+   private BlockingQueue<Job> transformQueue;
+   private BlockingQueue<Job> writeQueue;
+
+   // Names being worked on, touched only by the watcher
+   private final Map<String,FileState> pending = new HashMap<>();
+   private final Set<String> claimed = new HashSet<>();
+   // Names finished with, handed back to the watcher
+   private final BlockingQueue<String> finished = new LinkedBlockingQueue<>();
+
+   private final AtomicInteger inProgress = new AtomicInteger();
+   private final AtomicLong succeeded = new AtomicLong();
+   private final AtomicLong failed = new AtomicLong();
+   private PrintStream report = System.out;
+
+   public HotFolder(File directory, File outputDirectory, int threads, int queueSize) {
+      if (threads < 1)
+         throw new IllegalArgumentException("Need at least one thread, not " + threads);
+      if (queueSize < 1)
+         throw new IllegalArgumentException("Need to allow at least one queued document, not " + queueSize);
+
+      this.directory = directory;
+      this.outputDirectory = outputDirectory;
+      this.threads = threads;
+      this.queueSize = queueSize;
+   }
+
+   /**
+    * How the documents should be opened and saved, and the format
+    *  of the bookmark files
+    */
+   public void setSettings(JobSettings settings) {
+      this.settings = settings;
+   }
+   /**
+    * How long a file must go unchanged before it is picked up
+    */
+   public void setSettleMillis(long settleMillis) {
+      this.settleMillis = settleMillis;
+   }
+   /**
+    * How often to report throughput and queue depths, while busy
+    */
+   public void setReportMillis(long reportMillis) {
+      this.reportMillis = reportMillis;
+   }
+   /**
+    * Where the outcome of each file is written, as it finishes
+    */
+   public void setReport(PrintStream report) {
+      this.report = report;
+   }
+
+   /**
+    * The file extension for bookmarks in the format being used
+    */
+   protected String getBookmarksExtension() {
+      String name = settings.getCodec().getName();
+      if ("json".equals(name)) return "json";
+      if ("binary".equals(name)) return "bin";
+      return "txt";
+   }
+
+   /**
+    * A PDF, and the bookmarks to import into it if there are some,
+    *  as it passes through the stages
+    */
+   protected static class Job {
+      private final String name;
+      private final File pdf;
+      private final File bookmarksFile;
+      private final long started = System.nanoTime();
+      private Bookmarks document;
+      private List<PDFBookmark> bookmarks;
+      private byte[] exported;
+
+      protected Job(String name, File pdf, File bookmarksFile) {
+         this.name = name;
+         this.pdf = pdf;
+         this.bookmarksFile = bookmarksFile;
+      }
+      protected boolean isImport() {
+         return bookmarksFile != null;
+      }
+      public String toString() {
+         return (isImport() ? BatchRunner.OP_IMPORT : BatchRunner.OP_EXPORT) + " " + pdf.getName();
+      }
+   }
+
+   /**
+    * Sizes and modification times of a PDF and its bookmarks, and
+    *  when they last changed
+    */
+   protected static class FileState {
+      private long length = -1;
+      private long modified = -1;
+      private long changedAt;
+
+      /**
+       * Checks the files again, returning how long they have been unchanged
+       */
+      protected long unchangedFor(File pdf, File bookmarks, long now) {
+         long newLength = pdf.length();
+         long newModified = pdf.lastModified();
+         if (bookmarks != null) {
+            newLength += bookmarks.length();
+            newModified = Math.max(newModified, bookmarks.lastModified());
+         }
+         if (newLength != length || newModified != modified) {
+            length = newLength;
+            modified = newModified;
+            changedAt = now;
+         }
+         return now - changedAt;
+      }
+   }
+
+   /**
+    * Watches the directory, and works on the files which turn up,
+    *  until interrupted
+    */
+   public void run() throws IOException, InterruptedException {
+      new File(directory, DONE).mkdirs();
+      new File(directory, FAILED).mkdirs();
+      outputDirectory.mkdirs();
+
+      loadQueue = new ArrayBlockingQueue<>(queueSize);
+      transformQueue = new ArrayBlockingQueue<>(queueSize);
+      writeQueue = new ArrayBlockingQueue<>(queueSize);
+
+      ExecutorService workers = Executors.newFixedThreadPool(threads * 3);
+      for (int i=0; i<threads; i++) {
+         workers.submit(new Stage(loadQueue, transformQueue) {
+            @Override
+            protected void process(Job job) throws Exception {
+               load(job);
+            }
+         });
+         workers.submit(new Stage(transformQueue, writeQueue) {
+            @Override
+            protected void process(Job job) throws Exception {
+               transform(job);
+            }
+         });
+         workers.submit(new Stage(writeQueue, null) {
+            @Override
+            protected void process(Job job) throws Exception {
+               write(job);
+            }
+         });
+      }
+
+      try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+         directory.toPath().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                                     StandardWatchEventKinds.ENTRY_MODIFY);
+         System.err.println("Watching " + directory + " for PDFs, outputs to " + outputDirectory);
+
+         // Anything already there, then whatever turns up
+         for (File file : listFiles()) {
+            noticed(file.getName());
+         }
+         long lastReport = System.nanoTime();
+         long lastCount = 0;
+         while (true) {
+            WatchKey key = watcher.poll(Math.max(settleMillis / 4, 50), TimeUnit.MILLISECONDS);
+            if (key != null) {
+               for (WatchEvent<?> event : key.pollEvents()) {
+                  if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                     for (File file : listFiles()) {
+                        noticed(file.getName());
+                     }
+                  } else {
+                     noticed(((Path)event.context()).getFileName().toString());
+                  }
+               }
+               key.reset();
+            }
+
+            String done;
+            while ((done = finished.poll()) != null) {
+               claimed.remove(done);
+               // Anything which turned up while it was being worked on
+               if (findFile(done, PDF) != null || findFile(done, getBookmarksExtension()) != null) {
+                  pending.put(done, new FileState());
+               }
+            }
+            checkPending();
+
+            long now = System.nanoTime();
+            if (now - lastReport >= TimeUnit.MILLISECONDS.toNanos(reportMillis)) {
+               long count = succeeded.get() + failed.get();
+               if (count != lastCount || inProgress.get() > 0) {
+                  reportStatus(count - lastCount, now - lastReport);
+               }
+               lastReport = now;
+               lastCount = count;
+            }
+         }
+      } finally {
+         workers.shutdownNow();
+      }
+   }
+
+   private File[] listFiles() {
+      File[] files = directory.listFiles();
+      return (files == null) ? new File[0] : files;
+   }
+
+   /**
+    * Returns the name without its extension, or null if it isn't
+    *  one we handle, or is still being written under a temp name
+    */
+   protected String getBaseName(String fileName) {
+      if (fileName.startsWith(".")) return null;
+      String lower = fileName.toLowerCase(Locale.ROOT);
+      if (lower.endsWith(".tmp") || lower.endsWith(".part")) return null;
+
+      int dot = fileName.lastIndexOf('.');
+      if (dot < 1) return null;
+      String extension = lower.substring(dot+1);
+      if (! PDF.equals(extension) && ! getBookmarksExtension().equals(extension)) return null;
+      return fileName.substring(0, dot);
+   }
+   private void noticed(String fileName) {
+      String name = getBaseName(fileName);
+      if (name != null && ! claimed.contains(name) && ! pending.containsKey(name)) {
+         pending.put(name, new FileState());
+      }
+   }
+
+   /**
+    * Hands on any PDFs which are now complete, waiting for the
+    *  loaders if they are behind
+    */
+   private void checkPending() throws InterruptedException {
+      long now = System.nanoTime() / 1000000;
+      List<String> ready = new ArrayList<>();
+      List<String> incomplete = new ArrayList<>();
+      for (Map.Entry<String,FileState> entry : pending.entrySet()) {
+         String name = entry.getKey();
+         File pdf = findFile(name, PDF);
+         if (pdf == null) {
+            // Only the bookmarks so far, or the PDF was taken away
+            if (findFile(name, getBookmarksExtension()) == null) ready.add(name);
+            continue;
+         }
+
+         File bookmarks = findFile(name, getBookmarksExtension());
+         long unchanged = entry.getValue().unchangedFor(pdf, bookmarks, now);
+         if (unchanged < settleMillis) continue;
+         if (! hasEndMarker(pdf)) {
+            // A stalled writer might never finish, so don't wait for
+            //  ever, but don't work on what it left either
+            if (unchanged >= settleMillis * 10) incomplete.add(name);
+            continue;
+         }
+         ready.add(name);
+      }
+
+      for (String name : incomplete) {
+         pending.remove(name);
+         File pdf = findFile(name, PDF);
+         if (pdf == null) continue;
+
+         claimed.add(name);
+         inProgress.incrementAndGet();
+         finish(new Job(name, pdf, findFile(name, getBookmarksExtension())),
+                "PDF has no end-of-file marker, so is incomplete");
+      }
+      for (String name : ready) {
+         pending.remove(name);
+         File pdf = findFile(name, PDF);
+         if (pdf == null) continue;
+
+         claimed.add(name);
+         inProgress.incrementAndGet();
+         // Blocks if the loaders are behind
+         loadQueue.put(new Job(name, pdf, findFile(name, getBookmarksExtension())));
+      }
+   }
+   private File findFile(String name, String extension) {
+      for (String ext : new String[] { extension, extension.toUpperCase(Locale.ROOT) }) {
+         File file = new File(directory, name + "." + ext);
+         if (file.isFile()) return file;
+      }
+      return null;
+   }
+   /**
+    * Does the PDF end with %%EOF, as a complete one should?
+    */
+   protected static boolean hasEndMarker(File pdf) {
+      try (RandomAccessFile raf = new RandomAccessFile(pdf, "r")) {
+         int tail = (int)Math.min(1024, raf.length());
+         byte[] end = new byte[tail];
+         raf.seek(raf.length() - tail);
+         raf.readFully(end);
+         return new String(end, StandardCharsets.ISO_8859_1).contains("%%EOF");
+      } catch (IOException e) {
+         return false;
+      }
+   }
+
+   /**
+    * Takes jobs from one queue, works on them, and passes them on to
+    *  the next, waiting if that's full. Failed jobs go no further,
+    *  including those which fail with an Error, eg from running out of
+    *  memory, so the worker carries on with the next job.
+    */
+   protected abstract class Stage implements Runnable {
+      private final BlockingQueue<Job> input;
+      private final BlockingQueue<Job> output;
+
+      protected Stage(BlockingQueue<Job> input, BlockingQueue<Job> output) {
+         this.input = input;
+         this.output = output;
+      }
+
+      protected abstract void process(Job job) throws Exception;
+
+      @Override
+      public void run() {
+         try {
+            while (true) {
+               Job job = input.take();
+               try {
+                  process(job);
+               } catch (Throwable e) {
+                  finish(job, e.toString());
+                  continue;
+               }
+               if (output != null) {
+                  output.put(job);
+               } else {
+                  finish(job, null);
+               }
+            }
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+         }
+      }
+   }
+
+   /**
+    * Opens the PDF, and reads in the bookmarks to import
+    */
+   protected void load(Job job) throws IOException {
+      if (job.isImport()) {
+         job.document = settings.open(job.pdf);
+         final List<PDFBookmark> bookmarks = new ArrayList<>();
+         try (InputStream input = settings.getMetrics().countRead(new FileInputStream(job.bookmarksFile))) {
+            settings.getCodec().read(input, settings.isStrict(), new BookmarkParser.BookmarkHandler() {
+               @Override
+               public void handleBookmark(PDFBookmark bookmark, int lineNumber) {
+                  bookmarks.add(bookmark);
+               }
+            });
+         }
+         job.bookmarks = bookmarks;
+      } else {
+         job.document = settings.openForReading(job.pdf);
+      }
+   }
+   /**
+    * Replaces the outline, or exports the bookmarks
+    */
+   protected void transform(Job job) throws IOException {
+      if (job.isImport()) {
+         if (! job.document.replaceBookmarks(job.bookmarks)) {
+            throw new IOException("Invalid bookmarks, nothing saved");
+         }
+         job.bookmarks = null;
+      } else {
+         ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+         final BookmarkCodec.Writer writer = settings.getCodec().createWriter(bytes);
+         try {
+            job.document.exportBookmarks(new BookmarkParser.BookmarkHandler() {
+               @Override
+               public void handleBookmark(PDFBookmark bookmark, int lineNumber) throws IOException {
+                  writer.write(bookmark);
+               }
+            });
+         } finally {
+            writer.close();
+         }
+         job.exported = bytes.toByteArray();
+         job.document.close();
+         job.document = null;
+      }
+   }
+   /**
+    * Writes the output under a temp name, then renames it into place
+    */
+   protected void write(Job job) throws IOException {
+      String outputName = job.isImport() ? job.pdf.getName() : job.name + "." + getBookmarksExtension();
+      File output = new File(outputDirectory, outputName);
+      File temp = new File(outputDirectory, "." + outputName + ".tmp");
+      if (job.isImport()) {
+         job.document.save(temp);
+         job.document.close();
+         job.document = null;
+      } else {
+         Files.write(temp.toPath(), job.exported);
+         settings.getMetrics().add(Metrics.Counter.BytesWritten, job.exported.length);
+      }
+      move(temp, output);
+   }
+
+   /**
+    * Moves the inputs out of the way, and reports how it went. However
+    *  that goes, the name is always handed back to the watcher.
+    */
+   protected void finish(Job job, String problem) {
+      try {
+         // Let go of the document, and whatever memory it holds, first
+         Bookmarks document = job.document;
+         job.document = null;
+         job.bookmarks = null;
+         job.exported = null;
+         if (document != null) {
+            try {
+               document.close();
+            } catch (IOException e) {}
+         }
+
+         File to = new File(directory, (problem == null) ? DONE : FAILED);
+         try {
+            move(job.pdf, new File(to, job.pdf.getName()));
+            if (job.bookmarksFile != null) {
+               move(job.bookmarksFile, new File(to, job.bookmarksFile.getName()));
+            }
+         } catch (IOException e) {
+            if (problem == null) problem = "Unable to move inputs to " + to + ", " + e;
+         }
+
+         long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - job.started);
+         synchronized (report) {
+            if (problem == null) {
+               report.println("OK\t" + job + "\t" + millis + "ms");
+            } else {
+               report.println("FAILED\t" + job + "\t" + problem);
+            }
+            report.flush();
+         }
+      } finally {
+         (problem == null ? succeeded : failed).incrementAndGet();
+         inProgress.decrementAndGet();
+         finished.add(job.name);
+      }
+   }
+   private static void move(File from, File to) throws IOException {
+      try {
+         Files.move(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+         Files.move(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+   }
+
+   protected void reportStatus(long count, long nanos) {
+      double perSecond = count * 1e9 / nanos;
+      System.err.println(String.format(Locale.ROOT,
+            "Watching - %d succeeded, %d failed, %.2f files/s, %d in progress, " +
+            "queued to load %d, transform %d, write %d",
+            succeeded.get(), failed.get(), perSecond, inProgress.get(),
+            loadQueue.size(), transformQueue.size(), writeQueue.size()));
+   }
+}
@@ -0,0 +1,233 @@
+/* ====================================================================
+  Copyright 2017 Quanticate Ltd
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+==================================================================== */
+package com.quanticate.opensource.pdftkbox;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.pdfbox.io.MemoryUsageSetting;
+
+/**
+ * How documents should be opened and saved, shared by all the
+ *  jobs of a run
+ */
+public class JobSettings {
+   private MemoryUsageSetting memoryUsage = MemoryUsageSetting.setupMainMemoryOnly();
+   private Bookmarks.SaveMode saveMode = Bookmarks.SaveMode.Full;
+   private boolean strict = false;
+   private boolean outlineOnly = true;
+   private boolean pageLabels = false;
+   private boolean salvage = false;
+   private BookmarkCodec codec = BookmarkCodecs.PDFTK;
+   private Metrics metrics = Metrics.DISABLED;
+   private ExportCache exportCache;
+   private DocumentLimits limits = new DocumentLimits();
+
+   /**
+    * Opens the PDF for working on its bookmarks with these settings
+    */
+   public Bookmarks open(File pdf) throws IOException {
+      long start = System.nanoTime();
+      DocumentLimits.Budget budget = limits.start(metrics, start);
+      budget.checkSize(pdf.length(), "PDF " + pdf);
+      return configure(new Bookmarks(pdf, memoryUsage), pdf, start, budget);
+   }
+   /**
+    * Opens the PDF for reading its bookmarks with these settings. Unless
+    *  turned off, only the outline is read, falling back to a full load
+    *  if that isn't possible, eg for encrypted files. If salvaging, a
+    *  broken outline-only read is salvaged before falling back.
+    */
+   public Bookmarks openForReading(File pdf) throws IOException {
+      if (outlineOnly) {
+         long start = System.nanoTime();
+         DocumentLimits.Budget budget = limits.start(metrics, start);
+         budget.checkSize(pdf.length(), "PDF " + pdf);
+         try {
+            Bookmarks bookmarks = salvage ? Bookmarks.openSalvaged(pdf, memoryUsage, budget) :
+                                            Bookmarks.openOutline(pdf, memoryUsage, budget);
+            if (bookmarks.isSalvaged()) metrics.add(Metrics.Counter.Salvaged, 1);
+            return configure(bookmarks, pdf, start, budget);
+         } catch (LimitExceededException e) {
+            throw e;
+         } catch (IOException e) {
+            System.err.println("Warning - unable to read just the outline of " + pdf + 
+                               ", " + e.getMessage() + ", loading in full instead");
+         }
+      }
+      return open(pdf);
+   }
+   /**
+    * Passes each of the Bookmarks of the PDF to the handler in turn,
+    *  from the export cache if there is one and it has them, otherwise
+    *  from the PDF, caching them for next time
+    */
+   public void exportBookmarks(File pdf, BookmarkParser.BookmarkHandler handler) throws IOException {
+      if (exportCache == null) {
+         try (Bookmarks bm = openForReading(pdf)) {
+            bm.exportBookmarks(handler);
+         }
+         return;
+      }
+
+      // Limited the same whether the bookmarks are cached or not
+      DocumentLimits.Budget budget = limits.start(metrics);
+      budget.checkSize(pdf.length(), "PDF " + pdf);
+
+      String key = exportCache.key(pdf);
+      if (pageLabels) {
+         // Cached apart from those without, which lack the labels
+         key += "-labels";
+      }
+      List<PDFBookmark> cached = exportCache.get(key);
+      if (cached != null) {
+         metrics.add(Metrics.Counter.CacheHits, 1);
+         BookmarkParser.BookmarkHandler limited = budget.limit(handler);
+         for (PDFBookmark bookmark : cached) {
+            limited.handleBookmark(bookmark, -1);
+         }
+         return;
+      }
+      metrics.add(Metrics.Counter.CacheMisses, 1);
+
+      final List<PDFBookmark> bookmarks = new ArrayList<>();
+      final BookmarkParser.BookmarkHandler output = handler;
+      boolean salvaged;
+      try (Bookmarks bm = openForReading(pdf)) {
+         bm.exportBookmarks(new BookmarkParser.BookmarkHandler() {
+            @Override
+            public void handleBookmark(PDFBookmark bookmark, int lineNumber) throws IOException {
+               bookmarks.add(bookmark);
+               output.handleBookmark(bookmark, lineNumber);
+            }
+         });
+         salvaged = bm.isSalvaged();
+      }
+      // Salvaged bookmarks may be wrong, so aren't kept
+      if (! salvaged) {
+         exportCache.put(key, bookmarks);
+      }
+   }
+   private Bookmarks configure(Bookmarks bookmarks, File pdf, long start,
+                               DocumentLimits.Budget budget) {
+      metrics.end(Metrics.Phase.Load, start);
+      if (metrics.isEnabled()) {
+         metrics.add(Metrics.Counter.Documents, 1);
+         metrics.add(Metrics.Counter.BytesRead, pdf.length());
+         metrics.add(Metrics.Counter.Pages, bookmarks.getNumberOfPages());
+      }
+      bookmarks.setSaveMode(saveMode);
+      bookmarks.setStrict(strict);
+      bookmarks.setExportPageLabels(pageLabels);
+      bookmarks.setMetrics(metrics);
+      bookmarks.setBudget(budget);
+      return bookmarks;
+   }
+
+   public MemoryUsageSetting getMemoryUsage() {
+      return memoryUsage;
+   }
+   public void setMemoryUsage(MemoryUsageSetting memoryUsage) {
+      this.memoryUsage = memoryUsage;
+   }
+
+   public Bookmarks.SaveMode getSaveMode() {
+      return saveMode;
+   }
+   public void setSaveMode(Bookmarks.SaveMode saveMode) {
+      this.saveMode = saveMode;
+   }
+
+   public boolean isStrict() {
+      return strict;
+   }
+   public void setStrict(boolean strict) {
+      this.strict = strict;
+   }
+
+   /**
+    * Should exports read only the outline, rather than the whole PDF?
+    */
+   public boolean isOutlineOnly() {
+      return outlineOnly;
+   }
+   public void setOutlineOnly(boolean outlineOnly) {
+      this.outlineOnly = outlineOnly;
+   }
+
+   /**
+    * Should exports give the label of each bookmark's page too?
+    */
+   public boolean isPageLabels() {
+      return pageLabels;
+   }
+   public void setPageLabels(boolean pageLabels) {
+      this.pageLabels = pageLabels;
+   }
+
+   /**
+    * Should exports salvage the outline of PDFs with broken
+    *  cross-reference tables with a single scan of the file?
+    */
+   public boolean isSalvage() {
+      return salvage;
+   }
+   public void setSalvage(boolean salvage) {
+      this.salvage = salvage;
+   }
+
+   /**
+    * Format to export and import bookmarks in
+    */
+   public BookmarkCodec getCodec() {
+      return codec;
+   }
+   public void setCodec(BookmarkCodec codec) {
+      this.codec = codec;
+   }
+
+   /**
+    * Where timings and counts get recorded, disabled by default
+    */
+   public Metrics getMetrics() {
+      return metrics;
+   }
+   public void setMetrics(Metrics metrics) {
+      this.metrics = metrics;
+   }
+
+   /**
+    * Limits on the time, bookmarks and size of each document
+    */
+   public DocumentLimits getLimits() {
+      return limits;
+   }
+   public void setLimits(DocumentLimits limits) {
+      this.limits = limits;
+   }
+
+   /**
+    * Where exported bookmarks are cached, or null for no caching
+    */
+   public ExportCache getExportCache() {
+      return exportCache;
+   }
+   public void setExportCache(ExportCache exportCache) {
+      this.exportCache = exportCache;
+   }
+}
@@ -0,0 +1,88 @@
+/* ====================================================================
+  Copyright 2017 Quanticate Ltd
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+==================================================================== */
+package com.quanticate.opensource.pdftkbox;
+
+/**
+ * Just enough JSON writing for our needs, without pulling
+ *  in a whole library for it
+ */
+public class Json {
+   private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+   private Json() {}
+
+   /**
+    * Appends the string as a quoted JSON string, or null
+    */
+   public static StringBuilder quote(String value, StringBuilder json) {
+      if (value == null) {
+         return json.append("null");
+      }
+
+      json.append('"');
+      for (int i=0; i<value.length(); i++) {
+         char c = value.charAt(i);
+         switch (c) {
+            case '"':  json.append("\\\""); break;
+            case '\\': json.append("\\\\"); break;
+            case '\n': json.append("\\n"); break;
+            case '\r': json.append("\\r"); break;
+            case '\t': json.append("\\t"); break;
+            case '\b': json.append("\\b"); break;
+            case '\f': json.append("\\f"); break;
+            default:
+               if (c < 0x20 || c == 0x2028 || c == 0x2029) {
+                  json.append("\\u")
+                      .append(HEX[(c >> 12) & 0xf]).append(HEX[(c >> 8) & 0xf])
+                      .append(HEX[(c >> 4) & 0xf]).append(HEX[c & 0xf]);
+               } else {
+                  json.append(c);
+               }
+         }
+      }
+      return json.append('"');
+   }
+
+   /**
+    * Appends the bookmark as a JSON object, with the same fields
+    *  as the PDFtk-style text, skipping any which aren't set
+    */
+   public static StringBuilder bookmark(PDFBookmark bookmark, StringBuilder json) {
+      // Items without a title get an empty one, as in the binary form
+      json.append("{\"title\":");
+      quote((bookmark.getTitle() == null) ? "" : bookmark.getTitle(), json);
+      json.append(",\"level\":").append(bookmark.getLevel());
+      if (bookmark.getPageNumber() > 0) {
+         json.append(",\"page\":").append(bookmark.getPageNumber());
+      }
+      if (bookmark.getPageLabel() != null) {
+         json.append(",\"label\":");
+         quote(bookmark.getPageLabel(), json);
+      }
+      if (bookmark.getYOffset() > 0) {
+         json.append(",\"yoffset\":").append(bookmark.getYOffset());
+      }
+      if (bookmark.getZoom() != null) {
+         json.append(",\"zoom\":");
+         quote(bookmark.getZoom(), json);
+      }
+      if (bookmark.getUncertainty() != null) {
+         json.append(",\"uncertain\":");
+         quote(bookmark.getUncertainty(), json);
+      }
+      return json.append('}');
+   }
+}
@@ -0,0 +1,285 @@
+/* ====================================================================
+  Copyright 2017 Quanticate Ltd
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+==================================================================== */
+package com.quanticate.opensource.pdftkbox;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Bookmarks as a JSON array of objects, one per line, each with the
+ *  same fields as the PDFtk-style text, eg
+ * <pre>
+ * [
+ * {"title":"Chapter 1","level":1,"page":3,"label":"iii","yoffset":700,"zoom":"FitWidth"}
+ * ]
+ * </pre>
+ * The page label and uncertainty are optional, and on reading may be given instead
+ *  of the page number.
+ * On reading, unknown fields are ignored, and a stream of objects
+ *  without the enclosing array (ie JSON Lines) is also accepted.
+ *  Always UTF-8.
+ */
+public class JsonCodec implements BookmarkCodec {
+   @Override
+   public String getName() {
+      return "json";
+   }
+
+   @Override
+   public Writer createWriter(OutputStream output) {
+      final java.io.Writer json = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+      return new Writer() {
+         private final StringBuilder buffer = new StringBuilder();
+         private boolean first = true;
+
+         @Override
+         public void write(PDFBookmark bookmark) throws IOException {
+            buffer.setLength(0);
+            buffer.append(first ? "[\n" : ",\n");
+            first = false;
+            Json.bookmark(bookmark, buffer);
+            json.append(buffer);
+         }
+         @Override
+         public void close() throws IOException {
+            json.append(first ? "[" : "\n").append("]\n");
+            json.close();
+         }
+      };
+   }
+
+   @Override
+   public void read(InputStream input, boolean strict, BookmarkParser.BookmarkHandler handler) throws IOException {
+      new JsonBookmarkReader(new InputStreamReader(input, StandardCharsets.UTF_8), strict).read(handler);
+   }
+
+   /**
+    * Pull parser for just the JSON we expect, handing on each
+    *  bookmark as soon as its object is closed
+    */
+   protected static class JsonBookmarkReader {
+      private final Reader input;
+      private final boolean strict;
+      private final char[] buffer = new char[8192];
+      private int bufferPos, bufferLen;
+      private int lineNumber = 1;
+      private final StringBuilder token = new StringBuilder();
+      private BookmarkParser.BookmarkHandler handler;
+
+      protected JsonBookmarkReader(Reader input, boolean strict) {
+         this.input = input;
+         this.strict = strict;
+      }
+
+      public void read(BookmarkParser.BookmarkHandler handler) throws IOException {
+         this.handler = handler;
+         int c = nextNonSpace();
+         if (c == '[') {
+            c = nextNonSpace();
+            if (c != ']') {
+               while (true) {
+                  readBookmark(c, handler);
+                  c = nextNonSpace();
+                  if (c == ']') break;
+                  if (c != ',') throw error("Expected , or ] after bookmark");
+                  c = nextNonSpace();
+               }
+            }
+            if (nextNonSpace() != -1) throw error("Unexpected content after the bookmarks");
+         } else {
+            // Objects one after another, eg JSON Lines
+            while (c != -1) {
+               readBookmark(c, handler);
+               c = nextNonSpace();
+            }
+         }
+      }
+
+      private void readBookmark(int c, BookmarkParser.BookmarkHandler handler) throws IOException {
+         if (c != '{') throw error("Expected a bookmark object");
+         int startLine = lineNumber;
+
+         String title = null, zoom = null, label = null, uncertainty = null;
+         int level = -1, pageNumber = -1, yOffset = 0;
+         boolean badNumber = false;
+
+         c = nextNonSpace();
+         if (c != '}') {
+            while (true) {
+               if (c != '"') throw error("Expected a field name");
+               String key = readString();
+               if (nextNonSpace() != ':') throw error("Expected : after field " + key);
+               c = nextNonSpace();
+
+               if ("title".equals(key) || "zoom".equals(key) || "label".equals(key) ||
+                   "uncertain".equals(key)) {
+                  String value = null;
+                  if (c == '"') {
+                     value = readString();
+                  } else {
+                     String literal = readLiteral(c);
+                     if (! "null".equals(literal)) throw error("Expected a string for " + key);
+                  }
+                  if ("title".equals(key)) title = value;
+                  else if ("zoom".equals(key)) zoom = value;
+                  else if ("uncertain".equals(key)) uncertainty = value;
+                  else if (value != null && !value.isEmpty()) label = value;
+               } else if ("level".equals(key) || "page".equals(key) || "yoffset".equals(key)) {
+                  String literal = readLiteral(c);
+                  int value;
+                  try {
+                     value = Integer.parseInt(literal);
+                  } catch (NumberFormatException e) {
+                     problem(lineNumber, "Invalid number '" + literal + "' for " + key);
+                     badNumber = true;
+                     value = -1;
+                  }
+                  if ("level".equals(key)) level = value;
+                  else if ("page".equals(key)) pageNumber = value;
+                  else yOffset = value;
+               } else {
+                  skipValue(c);
+               }
+
+               c = nextNonSpace();
+               if (c == '}') break;
+               if (c != ',') throw error("Expected , or } in bookmark");
+               c = nextNonSpace();
+            }
+         }
+
+         if (badNumber) {
+            // Already reported
+         } else if (title != null && level > 0 && (pageNumber > 0 || label != null)) {
+            PDFBookmark bookmark = new PDFBookmark(title, level, pageNumber, label, yOffset, zoom);
+            bookmark.setUncertainty(uncertainty);
+            handler.handleBookmark(bookmark, startLine);
+         } else {
+            String missing = (title == null) ? "title" : (level <= 0) ? "level" : "page";
+            problem(startLine, "Bookmark is missing a valid " + missing);
+         }
+      }
+
+      private void problem(int problemLine, String message) throws BookmarkParseException {
+         BookmarkParser.reportProblem(new BookmarkParseException(problemLine, message), strict, handler);
+      }
+      private BookmarkParseException error(String message) {
+         return new BookmarkParseException(lineNumber, message);
+      }
+
+      /**
+       * Reads a string, the opening quote having been read already
+       */
+      private String readString() throws IOException {
+         token.setLength(0);
+         while (true) {
+            int c = next();
+            if (c == -1) throw error("Unterminated string");
+            if (c == '"') return token.toString();
+            if (c == '\\') {
+               c = next();
+               switch (c) {
+                  case '"': case '\\': case '/': token.append((char)c); break;
+                  case 'b': token.append('\b'); break;
+                  case 'f': token.append('\f'); break;
+                  case 'n': token.append('\n'); break;
+                  case 'r': token.append('\r'); break;
+                  case 't': token.append('\t'); break;
+                  case 'u':
+                     int value = 0;
+                     for (int i=0; i<4; i++) {
+                        int digit = Character.digit(next(), 16);
+                        if (digit < 0) throw error("Invalid \\u escape");
+                        value = (value << 4) | digit;
+                     }
+                     token.append((char)value);
+                     break;
+                  default:
+                     throw error("Invalid escape in string");
+               }
+            } else {
+               token.append((char)c);
+            }
+         }
+      }
+      /**
+       * Reads a number, true, false or null, starting with the given character
+       */
+      private String readLiteral(int c) throws IOException {
+         token.setLength(0);
+         while (c != -1 && c != ',' && c != '}' && c != ']' && c > ' ') {
+            token.append((char)c);
+            c = next();
+         }
+         // Step back, so the caller sees what ended it
+         if (c != -1) {
+            bufferPos--;
+            if (c == '\n') lineNumber--;
+         }
+         if (token.length() == 0) throw error("Expected a value");
+         return token.toString();
+      }
+      /**
+       * Skips over any value, including nested objects and arrays
+       */
+      private void skipValue(int c) throws IOException {
+         if (c == '"') {
+            readString();
+            return;
+         }
+         if (c != '{' && c != '[') {
+            readLiteral(c);
+            return;
+         }
+
+         int depth = 1;
+         while (depth > 0) {
+            c = next();
+            if (c == -1) throw error("Unexpected end of input");
+            if (c == '"') readString();
+            else if (c == '{' || c == '[') depth++;
+            else if (c == '}' || c == ']') depth--;
+         }
+      }
+
+      private int nextNonSpace() throws IOException {
+         int c;
+         do {
+            c = next();
+         } while (c == ' ' || c == '\t' || c == '\n' || c == '\r');
+         return c;
+      }
+      private int next() throws IOException {
+         if (bufferPos >= bufferLen) {
+            bufferLen = input.read(buffer, 0, buffer.length);
+            bufferPos = 0;
+            if (bufferLen <= 0) {
+               bufferLen = 0;
+               return -1;
+            }
+         }
+         char c = buffer[bufferPos++];
+         if (c == '\n') lineNumber++;
+         return c;
+      }
+   }
+}
@@ -0,0 +1,304 @@
+/* ====================================================================
+  Copyright 2017 Quanticate Ltd
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+==================================================================== */
+package com.quanticate.opensource.pdftkbox;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Timings of each phase of the work, along with counts of what was
+ *  done, summed over all the documents of a run. Safe to share between
+ *  threads. When disabled, as is the default, nothing is recorded, and
+ *  callers can check {@link #isEnabled()} to skip any timing.
+ */
+public class Metrics implements MetricsMXBean {
+   public static final String OBJECT_NAME = "com.quanticate.opensource.pdftkbox:type=Metrics";
+
+   /** Shared instance which records nothing */
+   public static final Metrics DISABLED = new Metrics(false);
+
+   /**
+    * The phases of export and import which are timed
+    */
+   public enum Phase {
+      /** Opening and parsing the PDF */
+      Load,
+      /** Building the page number lookup */
+      PageIndex,
+      /** Building the page label lookup */
+      PageLabels,
+      /** Reading in the named destinations, on the first lookup, so within PageLookup */
+      NamedDestinations,
+      /** Walking the outline, excluding lookups and rendering */
+      Traverse,
+      /** Finding the page and destination of each bookmark */
+      PageLookup,
+      /** Writing out the exported bookmarks */
+      Render,
+      /** Reading in the bookmarks, excluding building the outline */
+      Parse,
+      /** Extracting the text of the pages to find headings */
+      Extract,
+      /** Copying pages into a split or merged PDF */
+      Assemble,
+      /** Building the new outline from the bookmarks */
+      Build,
+      /** Saving the PDF */
+      Save
+   };
+   /**
+    * The things which are counted
+    */
+   public enum Counter {
+      Documents, Bookmarks, Pages, BytesRead, BytesWritten, CacheHits, CacheMisses, LimitsExceeded, Salvaged,
+      NamedLookups, NamedMisses
+   };
+
+   private final boolean enabled;
+   private final LongAdder[] phaseNanos = new LongAdder[Phase.values().length];
+   private final LongAdder[] phaseCounts = new LongAdder[Phase.values().length];
+   private final LongAdder[] counters = new LongAdder[Counter.values().length];
+   private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+   private final LongAccumulator peakHeap = new LongAccumulator(new LongBinaryOperator() {
+      @Override
+      public long applyAsLong(long left, long right) {
+         return Math.max(left, right);
+      }
+   }, 0);
+
+   public Metrics() {
+      this(true);
+   }
+   private Metrics(boolean enabled) {
+      this.enabled = enabled;
+      for (int i=0; i<phaseNanos.length; i++) {
+         phaseNanos[i] = new LongAdder();
+         phaseCounts[i] = new LongAdder();
+      }
+      for (int i=0; i<counters.length; i++) {
+         counters[i] = new LongAdder();
+      }
+   }
+
+   public boolean isEnabled() {
+      return enabled;
+   }
+
+   /**
+    * Returns the start time for a phase, or 0 if disabled
+    */
+   public long start() {
+      return enabled ? System.nanoTime() : 0;
+   }
+   /**
+    * Records a phase which began at the given {@link #start()} time
+    */
+   public void end(Phase phase, long start) {
+      if (enabled) {
+         record(phase, System.nanoTime() - start);
+      }
+   }
+   /**
+    * Records a phase which took the given time, and samples the heap
+    *  use as it ends
+    */
+   public void record(Phase phase, long nanos) {
+      if (enabled) {
+         phaseNanos[phase.ordinal()].add(nanos);
+         phaseCounts[phase.ordinal()].increment();
+         sampleHeap();
+      }
+   }
+   private void sampleHeap() {
+      peakHeap.accumulate(memory.getHeapMemoryUsage().getUsed());
+   }
+   public void add(Counter counter, long amount) {
+      if (enabled) {
+         counters[counter.ordinal()].add(amount);
+      }
+   }
+   public long get(Counter counter) {
+      return counters[counter.ordinal()].sum();
+   }
+
+   /**
+    * Wraps the stream to count the bytes read from it, if enabled
+    */
+   public InputStream countRead(InputStream in) {
+      if (! enabled) return in;
+      return new FilterInputStream(in) {
+         @Override
+         public int read() throws IOException {
+            int b = in.read();
+            if (b != -1) add(Counter.BytesRead, 1);
+            return b;
+         }
+         @Override
+         public int read(byte[] b, int off, int len) throws IOException {
+            int read = in.read(b, off, len);
+            if (read > 0) add(Counter.BytesRead, read);
+            return read;
+         }
+      };
+   }
+   /**
+    * Wraps the stream to count the bytes written to it, if enabled
+    */
+   public OutputStream countWritten(OutputStream out) {
+      if (! enabled) return out;
+      return new FilterOutputStream(out) {
+         @Override
+         public void write(int b) throws IOException {
+            out.write(b);
+            add(Counter.BytesWritten, 1);
+         }
+         @Override
+         public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            add(Counter.BytesWritten, len);
+         }
+      };
+   }
+
+   @Override
+   public long getDocuments() {
+      return get(Counter.Documents);
+   }
+   @Override
+   public long getBookmarks() {
+      return get(Counter.Bookmarks);
+   }
+   @Override
+   public long getPages() {
+      return get(Counter.Pages);
+   }
+   @Override
+   public long getBytesRead() {
+      return get(Counter.BytesRead);
+   }
+   @Override
+   public long getBytesWritten() {
+      return get(Counter.BytesWritten);
+   }
+   @Override
+   public long getCacheHits() {
+      return get(Counter.CacheHits);
+   }
+   @Override
+   public long getCacheMisses() {
+      return get(Counter.CacheMisses);
+   }
+   @Override
+   public long getLimitsExceeded() {
+      return get(Counter.LimitsExceeded);
+   }
+   @Override
+   public long getSalvaged() {
+      return get(Counter.Salvaged);
+   }
+   @Override
+   public long getNamedLookups() {
+      return get(Counter.NamedLookups);
+   }
+   @Override
+   public long getNamedMisses() {
+      return get(Counter.NamedMisses);
+   }
+   @Override
+   public long getPeakHeapBytes() {
+      if (enabled) sampleHeap();
+      return peakHeap.get();
+   }
+   @Override
+   public Map<String,Double> getPhaseMillis() {
+      Map<String,Double> millis = new LinkedHashMap<>();
+      for (Phase phase : Phase.values()) {
+         millis.put(phase.name(), phaseNanos[phase.ordinal()].sum() / 1000000.0);
+      }
+      return millis;
+   }
+   @Override
+   public Map<String,Long> getPhaseCounts() {
+      Map<String,Long> counts = new LinkedHashMap<>();
+      for (Phase phase : Phase.values()) {
+         counts.put(phase.name(), phaseCounts[phase.ordinal()].sum());
+      }
+      return counts;
+   }
+
+   @Override
+   public String getSummary() {
+      StringBuilder json = new StringBuilder("{");
+      for (Counter counter : Counter.values()) {
+         String name = counter.name();
+         json.append('"').append(Character.toLowerCase(name.charAt(0))).append(name.substring(1))
+             .append("\":").append(get(counter)).append(',');
+      }
+      json.append("\"peakHeapBytes\":").append(getPeakHeapBytes());
+      json.append(",\"phases\":{");
+      for (Phase phase : Phase.values()) {
+         if (phase.ordinal() > 0) json.append(',');
+         json.append('"').append(phase.name().toLowerCase(Locale.ROOT)).append("\":{\"count\":")
+             .append(phaseCounts[phase.ordinal()].sum()).append(",\"ms\":")
+             .append(String.format(Locale.ROOT, "%.3f", phaseNanos[phase.ordinal()].sum() / 1000000.0))
+             .append('}');
+      }
+      return json.append("}}").toString();
+   }
+
+   @Override
+   public void reset() {
+      for (int i=0; i<phaseNanos.length; i++) {
+         phaseNanos[i].reset();
+         phaseCounts[i].reset();
+      }
+      for (LongAdder counter : counters) {
+         counter.reset();
+      }
+      peakHeap.reset();
+   }
+
+   /**
+    * Publishes these metrics over JMX, if enabled
+    */
+   public void register() {
+      if (! enabled) return;
+      try {
+         MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+         ObjectName name = new ObjectName(OBJECT_NAME);
+         if (! server.isRegistered(name)) {
+            server.registerMBean(this, name);
+         }
+      } catch (JMException e) {
+         System.err.println("Warning - unable to publish metrics over JMX, " + e.getMessage());
+      }
+   }
+}
@@ -0,0 +1,70 @@
+/* ====================================================================
+  Copyright 2017 Quanticate Ltd
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+==================================================================== */
+package com.quanticate.opensource.pdftkbox;
+
+import java.util.Map;
+
+/**
+ * JMX view of the {@link Metrics}, for batch and server runs
+ */
+public interface MetricsMXBean {
+   long getDocuments();
+   long getBookmarks();
+   long getPages();
+   long getBytesRead();
+   long getBytesWritten();
+   /**
+    * Exports found in, and not found in, the export cache
+    */
+   long getCacheHits();
+   long getCacheMisses();
+   /**
+    * Documents which failed for going over one of their limits
+    */
+   long getLimitsExceeded();
+   /**
+    * Documents with broken cross-reference tables, which were salvaged
+    */
+   long getSalvaged();
+   /**
+    * Bookmarks to named destinations looked up, and those whose name
+    *  wasn't found
+    */
+   long getNamedLookups();
+   long getNamedMisses();
+   /**
+    * Highest total heap use seen, in bytes, sampled as each phase
+    *  ends and when read
+    */
+   long getPeakHeapBytes();
+   /**
+    * Total time spent in each phase, in milliseconds
+    */
+   Map<String,Double> getPhaseMillis();
+   /**
+    * How many times each phase has run
+    */
+   Map<String,Long> getPhaseCounts();
+   /**
+    * Summary of everything, as a line of JSON
+    */
+   String getSummary();
+
+   /**
+    * Zeros all the counts and timings
+    */
+   void reset();
+}
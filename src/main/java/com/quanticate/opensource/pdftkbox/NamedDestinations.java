@@ -0,0 +1,152 @@
+/* ====================================================================
+  Copyright 2017 Quanticate Ltd
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+==================================================================== */
+package com.quanticate.opensource.pdftkbox;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSString;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.destination.PDDestination;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.destination.PDNamedDestination;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.destination.PDPageDestination;
+
+/**
+ * Lookup of the named destinations of a document, from both the
+ *  catalog's Dests dictionary and the Dests name tree. The names are
+ *  all read into a hash index the first time one is needed, rather
+ *  than walking the name tree for every bookmark.
+ * Reading the names is timed, and the lookups and misses counted,
+ *  in the (optional) metrics.
+ */
+public class NamedDestinations {
+   private final PDDocument document;
+   private final Metrics metrics;
+   private Map<String,PDPageDestination> destinations;
+
+   public NamedDestinations(PDDocument document) {
+      this(document, Metrics.DISABLED);
+   }
+   public NamedDestinations(PDDocument document, Metrics metrics) {
+      this.document = document;
+      this.metrics = metrics;
+   }
+
+   /**
+    * Returns the page destination the name refers to, or null if
+    *  there's no such name
+    */
+   public PDPageDestination resolve(PDNamedDestination named) throws IOException {
+      if (destinations == null) {
+         long start = metrics.start();
+         destinations = readAll();
+         metrics.end(Metrics.Phase.NamedDestinations, start);
+      }
+
+      PDPageDestination dest = destinations.get(named.getNamedDestination());
+      metrics.add(Metrics.Counter.NamedLookups, 1);
+      if (dest == null) metrics.add(Metrics.Counter.NamedMisses, 1);
+      return dest;
+   }
+
+   protected Map<String,PDPageDestination> readAll() throws IOException {
+      Map<String,PDPageDestination> all = new HashMap<>();
+      COSDictionary catalog = document.getDocumentCatalog().getCOSObject();
+
+      // Name tree of destinations, from PDF 1.2
+      COSBase names = catalog.getDictionaryObject(COSName.NAMES);
+      if (names instanceof COSDictionary) {
+         COSBase tree = ((COSDictionary)names).getDictionaryObject(COSName.DESTS);
+         if (tree instanceof COSDictionary) {
+            readTree((COSDictionary)tree, all);
+         }
+      }
+
+      // Simple dictionary of destinations, from PDF 1.1
+      COSBase dests = catalog.getDictionaryObject(COSName.DESTS);
+      if (dests instanceof COSDictionary) {
+         for (Map.Entry<COSName,COSBase> entry : ((COSDictionary)dests).entrySet()) {
+            addDestination(entry.getKey().getName(), entry.getValue(), all);
+         }
+      }
+
+      return all;
+   }
+
+   /**
+    * Flattens the name tree, without recursion, and guarding
+    *  against loops in broken files
+    */
+   private void readTree(COSDictionary root, Map<String,PDPageDestination> all) throws IOException {
+      Set<COSDictionary> seen = Collections.newSetFromMap(new IdentityHashMap<COSDictionary,Boolean>());
+      Deque<COSDictionary> todo = new ArrayDeque<>();
+      todo.push(root);
+
+      while (! todo.isEmpty()) {
+         COSDictionary node = todo.pop();
+         if (! seen.add(node)) continue;
+
+         COSBase leaves = node.getDictionaryObject(COSName.NAMES);
+         if (leaves instanceof COSArray) {
+            COSArray pairs = (COSArray)leaves;
+            for (int i=0; i+1<pairs.size(); i+=2) {
+               COSBase key = pairs.getObject(i);
+               if (key instanceof COSString) {
+                  addDestination(((COSString)key).getString(), pairs.get(i+1), all);
+               }
+            }
+         }
+
+         COSBase kids = node.getDictionaryObject(COSName.KIDS);
+         if (kids instanceof COSArray) {
+            COSArray kidsArray = (COSArray)kids;
+            for (int i=kidsArray.size()-1; i>=0; i--) {
+               COSBase kid = kidsArray.getObject(i);
+               if (kid instanceof COSDictionary) {
+                  todo.push((COSDictionary)kid);
+               }
+            }
+         }
+      }
+   }
+
+   private void addDestination(String name, COSBase value, Map<String,PDPageDestination> all) throws IOException {
+      if (value instanceof COSObject) {
+         value = ((COSObject)value).getObject();
+      }
+      // May be wrapped in a dictionary, as the D entry
+      if (value instanceof COSDictionary) {
+         value = ((COSDictionary)value).getDictionaryObject(COSName.D);
+      }
+      if (value instanceof COSArray) {
+         PDDestination dest = PDDestination.create(value);
+         if (dest instanceof PDPageDestination && !all.containsKey(name)) {
+            all.put(name, (PDPageDestination)dest);
+         }
+      }
+   }
+}
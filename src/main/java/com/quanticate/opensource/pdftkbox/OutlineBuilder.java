@@ -0,0 +1,87 @@
+/* ====================================================================
+  Copyright 2017 Quanticate Ltd
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+==================================================================== */
+package com.quanticate.opensource.pdftkbox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.outline.PDOutlineItem;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.outline.PDOutlineNode;
+
+/**
+ * Builds up an outline from bookmarks, one at a time, as they
+ *  are parsed
+ */
+public class OutlineBuilder implements BookmarkParser.BookmarkHandler {
+   private final List<PDOutlineNode> parents = new ArrayList<>();
+   private PDOutlineItem last;
+   private int count;
+   private String problem;
+
+   public OutlineBuilder(PDOutlineNode outline) {
+      parents.add(outline);
+   }
+
+   @Override
+   public void handleBookmark(PDFBookmark bookmark, int lineNumber) {
+      if (problem != null) return;
+
+      if (count == 0 && bookmark.getLevel() != 1) {
+         problem = "first bookmark must start at level 1, not " + bookmark.getLevel();
+         return;
+      }
+
+      // Convert
+      PDOutlineItem asOutline = bookmark.createOutline();
+
+      // Store at the right place
+      int lastLevel = parents.size();
+      if (bookmark.getLevel() == lastLevel) {
+         // Sibling, no change needed
+      } else if (bookmark.getLevel() > lastLevel) {
+         // Child, add previous as parent
+         parents.add(last);
+      } else {
+         // Higher up, remove un-needed parents
+         for (int i=bookmark.getLevel(); i<lastLevel; i++) {
+            parents.remove(parents.size()-1);
+         }
+      }
+      parents.get(parents.size()-1).addLast(asOutline);
+
+      // Prepare for the next one
+      last = asOutline;
+      count++;
+   }
+
+   /**
+    * How many bookmarks have been added to the outline
+    */
+   public int getCount() {
+      return count;
+   }
+
+   /**
+    * Returns why the bookmarks can't be used, or null if
+    *  they were all fine
+    */
+   public String getProblem() {
+      if (problem == null && count == 0) {
+         return "no bookmarks found to import";
+      }
+      return problem;
+   }
+}
@@ -0,0 +1,337 @@
+/* ====================================================================
+  Copyright 2017 Quanticate Ltd
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+==================================================================== */
+package com.quanticate.opensource.pdftkbox;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSNull;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.cos.COSString;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.destination.PDDestination;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.destination.PDNamedDestination;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.destination.PDPageDestination;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.outline.PDDocumentOutline;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.outline.PDOutlineItem;
+
+/**
+ * Copies the outline of one PDF directly onto another, without going
+ *  via bookmarks text. Everything on each outline item is copied,
+ *  including destination types, actions, colours and styles, with any
+ *  pages mapped across by their page number. Named destinations are
+ *  resolved to their pages, as the target won't have the names.
+ */
+public class OutlineCopier {
+   // Outline structure keys, which get re-built rather than copied
+   private static final Set<COSName> STRUCTURE;
+   static {
+      STRUCTURE = Collections.newSetFromMap(new IdentityHashMap<COSName,Boolean>());
+      STRUCTURE.add(COSName.PARENT);
+      STRUCTURE.add(COSName.FIRST);
+      STRUCTURE.add(COSName.LAST);
+      STRUCTURE.add(COSName.NEXT);
+      STRUCTURE.add(COSName.PREV);
+      STRUCTURE.add(COSName.COUNT);
+      // Structure elements belong to the source document's tree
+      STRUCTURE.add(COSName.getPDFName("SE"));
+   }
+
+   private final PDDocument source;
+   private final PDDocument target;
+   private final PageIndex sourcePages;
+   private final NamedDestinations sourceNames;
+   private int pageOffset = 0;
+   private Map<Integer,Integer> pageMap = new HashMap<>();
+
+   // Source objects already copied, so shared ones stay shared
+   private Map<COSBase,COSBase> copied;
+   // Target page objects by index, from one walk of its page tree
+   private List<COSDictionary> targetPages;
+
+   public OutlineCopier(PDDocument source, PDDocument target) {
+      this(source, new PageIndex(source), new NamedDestinations(source), target);
+   }
+   public OutlineCopier(PDDocument source, PageIndex sourcePages, NamedDestinations sourceNames,
+                        PDDocument target) {
+      this.source = source;
+      this.sourcePages = sourcePages;
+      this.sourceNames = sourceNames;
+      this.target = target;
+   }
+
+   /**
+    * How much to add to the source page number to get the target
+    *  page number, for pages not in the page map
+    */
+   public void setPageOffset(int pageOffset) {
+      this.pageOffset = pageOffset;
+   }
+   /**
+    * Source page number to target page number, both 1-based, for
+    *  pages which don't just follow the offset
+    */
+   public void setPageMap(Map<Integer,Integer> pageMap) {
+      this.pageMap = pageMap;
+   }
+
+   /**
+    * Returns the (0-based) target page index for the (0-based)
+    *  source page index, or -1 if it isn't in the target
+    */
+   protected int mapPage(int sourceIndex) {
+      int pageNumber = sourceIndex+1;
+      Integer mapped = pageMap.get(pageNumber);
+      if (mapped != null) {
+         pageNumber = mapped;
+      } else {
+         pageNumber += pageOffset;
+      }
+
+      if (pageNumber < 1 || pageNumber > target.getNumberOfPages()) {
+         return -1;
+      }
+      return pageNumber-1;
+   }
+
+   /**
+    * Replaces the outline of the target with a copy of the source one
+    * @return The number of outline items copied
+    */
+   public int copy() throws IOException {
+      PDDocumentOutline sourceOutline = source.getDocumentCatalog().getDocumentOutline();
+      PDDocumentOutline outline = new PDDocumentOutline();
+      target.getDocumentCatalog().setDocumentOutline(outline);
+      if (sourceOutline == null) return 0;
+
+      copied = new IdentityHashMap<>();
+      targetPages = new ArrayList<>(target.getNumberOfPages());
+      for (PDPage page : target.getPages()) {
+         targetPages.add(page.getCOSObject());
+      }
+      Set<COSDictionary> seen = Collections.newSetFromMap(new IdentityHashMap<COSDictionary,Boolean>());
+      seen.add(sourceOutline.getCOSObject());
+
+      // As for export, walk with an explicit stack of the parents
+      Deque<PDOutlineItem> sourceParents = new ArrayDeque<>();
+      Deque<PDOutlineItem> targetParents = new ArrayDeque<>();
+      int count = 0;
+
+      PDOutlineItem current = sourceOutline.getFirstChild();
+      while (current != null || !sourceParents.isEmpty()) {
+         if (current == null) {
+            // Finished this level, close the parent if it was, then on to its sibling
+            PDOutlineItem parent = sourceParents.pop();
+            PDOutlineItem targetParent = targetParents.pop();
+            if (! parent.isNodeOpen()) {
+               targetParent.closeNode();
+            }
+            current = parent.getNextSibling();
+            continue;
+         }
+         if (! seen.add(current.getCOSObject())) {
+            System.err.println("Warning - loop in bookmarks found at " + current.getTitle() +
+                               ", skipping the rest of the level");
+            current = null;
+            continue;
+         }
+
+         PDOutlineItem item = copyItem(current);
+         if (targetParents.isEmpty()) {
+            outline.addLast(item);
+         } else {
+            targetParents.peek().addLast(item);
+         }
+         count++;
+
+         PDOutlineItem child = current.getFirstChild();
+         if (child != null) {
+            sourceParents.push(current);
+            targetParents.push(item);
+            current = child;
+         } else {
+            current = current.getNextSibling();
+         }
+      }
+
+      copied = null;
+      return count;
+   }
+
+   /**
+    * Copies everything but the outline structure from the item
+    */
+   protected PDOutlineItem copyItem(PDOutlineItem sourceItem) throws IOException {
+      COSDictionary from = sourceItem.getCOSObject();
+      COSDictionary to = new COSDictionary();
+
+      for (Map.Entry<COSName,COSBase> entry : from.entrySet()) {
+         COSName key = entry.getKey();
+         if (STRUCTURE.contains(key)) continue;
+
+         COSBase value = entry.getValue();
+         if (COSName.DEST.equals(key)) {
+            value = resolveNamed(value);
+         } else if (COSName.A.equals(key)) {
+            value = resolveNamedAction(value);
+         }
+         to.setItem(key, copyValue(value));
+      }
+      return new PDOutlineItem(to);
+   }
+
+   /**
+    * Named destinations are replaced with the page destination they
+    *  refer to in the source, as the target won't have the name
+    */
+   protected COSBase resolveNamed(COSBase dest) throws IOException {
+      COSBase direct = (dest instanceof COSObject) ? ((COSObject)dest).getObject() : dest;
+      if (direct instanceof COSName || direct instanceof COSString) {
+         PDDestination named = PDDestination.create(direct);
+         PDPageDestination page = sourceNames.resolve((PDNamedDestination)named);
+         if (page != null) {
+            return page.getCOSObject();
+         }
+         System.err.println("Warning - named destination " + 
+               ((PDNamedDestination)named).getNamedDestination() + " not found");
+      }
+      return dest;
+   }
+   protected COSBase resolveNamedAction(COSBase action) throws IOException {
+      COSBase direct = (action instanceof COSObject) ? ((COSObject)action).getObject() : action;
+      if (direct instanceof COSDictionary) {
+         COSDictionary dict = (COSDictionary)direct;
+         if ("GoTo".equals(dict.getNameAsString(COSName.S))) {
+            COSBase dest = dict.getDictionaryObject(COSName.D);
+            COSBase resolved = resolveNamed(dest);
+            if (resolved != dest) {
+               COSDictionary copy = new COSDictionary(dict);
+               copy.setItem(COSName.D, resolved);
+               return copy;
+            }
+         }
+      }
+      return action;
+   }
+
+   /**
+    * Deep copies a value into the target. Source pages are swapped
+    *  for the matching target page, or null if there isn't one.
+    */
+   protected COSBase copyValue(COSBase value) throws IOException {
+      if (value instanceof COSObject) {
+         value = ((COSObject)value).getObject();
+      }
+      if (value == null) {
+         return COSNull.NULL;
+      }
+
+      COSBase done = copied.get(value);
+      if (done != null) return done;
+
+      COSBase copy;
+      if (value instanceof COSStream) {
+         COSStream from = (COSStream)value;
+         COSStream to = target.getDocument().createCOSStream();
+         copied.put(value, to);
+         copyEntries(from, to);
+         try (InputStream in = from.createRawInputStream();
+              OutputStream out = to.createRawOutputStream()) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+               out.write(buffer, 0, read);
+            }
+         }
+         copy = to;
+      } else if (value instanceof COSDictionary) {
+         COSDictionary from = (COSDictionary)value;
+         if (sourcePages.getPageIndex(from) >= 0 ||
+             COSName.PAGE.equals(from.getCOSName(COSName.TYPE))) {
+            copy = mapPageObject(from);
+         } else {
+            COSDictionary to = new COSDictionary();
+            copied.put(value, to);
+            copyEntries(from, to);
+            copy = to;
+         }
+      } else if (value instanceof COSArray) {
+         COSArray from = (COSArray)value;
+         COSArray to = new COSArray();
+         copied.put(value, to);
+         for (int i=0; i<from.size(); i++) {
+            to.add(copyValue(from.get(i)));
+         }
+         copy = to;
+      } else if (value instanceof COSString) {
+         copy = new COSString(((COSString)value).getBytes());
+      } else {
+         // Names, numbers, booleans and nulls can be shared
+         copy = value;
+      }
+      copied.put(value, copy);
+      return copy;
+   }
+   private void copyEntries(COSDictionary from, COSDictionary to) throws IOException {
+      for (Map.Entry<COSName,COSBase> entry : from.entrySet()) {
+         if (to instanceof COSStream && COSName.LENGTH.equals(entry.getKey())) continue;
+         to.setItem(entry.getKey(), copyValue(entry.getValue()));
+      }
+   }
+   private COSBase mapPageObject(COSDictionary page) {
+      int sourceIndex = sourcePages.getPageIndex(page);
+      int targetIndex = (sourceIndex < 0) ? -1 : mapPage(sourceIndex);
+      if (targetIndex < 0) {
+         System.err.println("Warning - page " + (sourceIndex+1) + " has no matching target page");
+         return COSNull.NULL;
+      }
+      return targetPages.get(targetIndex);
+   }
+
+   /**
+    * Parses a page map of the form "1:3,2:4", source page then
+    *  target page
+    */
+   public static Map<Integer,Integer> parsePageMap(String map) {
+      Map<Integer,Integer> pageMap = new HashMap<>();
+      if (map == null || map.trim().isEmpty()) return pageMap;
+
+      for (String pair : map.split(",")) {
+         String[] pages = pair.split(":");
+         if (pages.length != 2) {
+            throw new IllegalArgumentException("Invalid page mapping " + pair + ", should be source:target");
+         }
+         pageMap.put(Integer.parseInt(pages[0].trim()), Integer.parseInt(pages[1].trim()));
+      }
+      return pageMap;
+   }
+}
@@ -0,0 +1,574 @@
+/* ====================================================================
+  Copyright 2017 Quanticate Ltd
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+==================================================================== */
+package com.quanticate.opensource.pdftkbox;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.outline.PDDocumentOutline;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.outline.PDOutlineItem;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.outline.PDOutlineNode;
+
+/**
+ * Structural difference between two outlines, as the bookmarks added,
+ *  removed and changed, which can also be applied to the first outline
+ *  in place. Each list of children is matched up by title, keeping the
+ *  longest common sequence, with any unmatched bookmarks left between
+ *  two matches paired up in order as changes, so an edited title
+ *  doesn't lose its children.
+ * Applying only touches the outline items which changed, and the
+ *  chains of items leading to them, which are all marked for an
+ *  incremental save.
+ * Both trees are walked with explicit stacks rather than recursion,
+ *  so very deep outlines can't overflow.
+ */
+public class OutlineDiff {
+   // Largest children list pair to find the common sequence of, as it needs n*m memory
+   private static final long MAX_LCS_CELLS = 1 << 22;
+
+   public enum Type { Added, Removed, Changed };
+
+   /**
+    * A single change, with the path being the 1-based position at each
+    *  level, in the old outline for removals and the new one otherwise
+    */
+   public static class Edit {
+      private final Type type;
+      private final String path;
+      private final PDFBookmark from;
+      private final PDFBookmark to;
+      private Edit(Type type, String path, PDFBookmark from, PDFBookmark to) {
+         this.type = type;
+         this.path = path;
+         this.from = from;
+         this.to = to;
+      }
+      public Type getType() {
+         return type;
+      }
+      public String getPath() {
+         return path;
+      }
+      public PDFBookmark getFrom() {
+         return from;
+      }
+      public PDFBookmark getTo() {
+         return to;
+      }
+   }
+
+   /**
+    * A bookmark along with its children. For the new outline, also
+    *  the old bookmark it's matched to, if any
+    */
+   protected static class Node {
+      private final PDFBookmark bookmark;
+      private final List<Node> children = new ArrayList<>();
+      private Node match;
+      private Node(PDFBookmark bookmark) {
+         this.bookmark = bookmark;
+      }
+   }
+
+   /**
+    * A bookmark still to be compared, along with its children. For
+    *  changes, the old and new bookmarks matched up, otherwise only
+    *  the one added or removed. Paths are only built for edits, from
+    *  the positions of the steps leading here, as deep outlines would
+    *  otherwise need a long path for every bookmark.
+    */
+   private static class Step {
+      private final Type type;
+      private final Node old;
+      private final Node node;
+      private final int oldIndex;
+      private final int index;
+      private final Step parent;
+      private final int level;
+      private Step(Type type, Node old, Node node, int oldIndex, int index, Step parent) {
+         this.type = type;
+         this.old = old;
+         this.node = node;
+         this.oldIndex = oldIndex;
+         this.index = index;
+         this.parent = parent;
+         this.level = (parent == null) ? 0 : parent.level+1;
+      }
+      private String path(boolean inOld) {
+         List<Integer> positions = new ArrayList<>(level);
+         for (Step step = this; step.parent != null; step = step.parent) {
+            positions.add((inOld ? step.oldIndex : step.index) + 1);
+         }
+         StringBuilder path = new StringBuilder();
+         for (int i=positions.size()-1; i>=0; i--) {
+            path.append(positions.get(i));
+            if (i > 0) path.append('.');
+         }
+         return path.toString();
+      }
+   }
+
+   private final Node oldRoot;
+   private final Node newRoot;
+   private final List<Edit> edits = new ArrayList<>();
+
+   /**
+    * Compares the bookmarks, each in outline order, as exported
+    *  or parsed
+    */
+   public OutlineDiff(List<PDFBookmark> from, List<PDFBookmark> to) throws LimitExceededException {
+      this(from, to, new DocumentLimits().start(Metrics.DISABLED));
+   }
+   /**
+    * Compares the bookmarks, checking each one compared against
+    *  the budget
+    */
+   public OutlineDiff(List<PDFBookmark> from, List<PDFBookmark> to,
+                      DocumentLimits.Budget budget) throws LimitExceededException {
+      oldRoot = buildTree(from);
+      newRoot = buildTree(to);
+      diff(budget);
+   }
+
+   public List<Edit> getEdits() {
+      return edits;
+   }
+   public boolean isEmpty() {
+      return edits.isEmpty();
+   }
+
+   /**
+    * Nests the bookmarks by level, treating any jump of more than one
+    *  level as one, as importing does
+    */
+   protected static Node buildTree(List<PDFBookmark> bookmarks) {
+      Node root = new Node(null);
+      List<Node> parents = new ArrayList<>();
+      parents.add(root);
+      for (PDFBookmark bookmark : bookmarks) {
+         int depth = Math.max(1, Math.min(bookmark.getLevel(), parents.size()));
+         while (parents.size() > depth) {
+            parents.remove(parents.size()-1);
+         }
+         Node node = new Node(bookmark);
+         parents.get(depth-1).children.add(node);
+         parents.add(node);
+      }
+      return root;
+   }
+
+   /**
+    * Walks both trees together, recording the edits in outline order,
+    *  each bookmark's before its children's
+    */
+   private void diff(DocumentLimits.Budget budget) throws LimitExceededException {
+      Deque<Step> steps = new ArrayDeque<>();
+      steps.push(new Step(Type.Changed, oldRoot, newRoot, -1, -1, null));
+      while (! steps.isEmpty()) {
+         Step step = steps.pop();
+         if (step.level > 0) {
+            budget.visit(step.level);
+         }
+
+         if (step.type == Type.Removed) {
+            edits.add(new Edit(Type.Removed, step.path(true), step.old.bookmark, null));
+            List<Node> children = step.old.children;
+            for (int i=children.size()-1; i>=0; i--) {
+               steps.push(new Step(Type.Removed, children.get(i), null, i, -1, step));
+            }
+            continue;
+         }
+         if (step.type == Type.Added) {
+            edits.add(new Edit(Type.Added, step.path(false), null, step.node.bookmark));
+            List<Node> children = step.node.children;
+            for (int i=children.size()-1; i>=0; i--) {
+               steps.push(new Step(Type.Added, null, children.get(i), -1, i, step));
+            }
+            continue;
+         }
+
+         // Matched, so check it, then match up the children
+         if (step.level > 0 && ! sameBookmark(step.old.bookmark, step.node.bookmark)) {
+            edits.add(new Edit(Type.Changed, step.path(false), step.old.bookmark, step.node.bookmark));
+         }
+         List<Node> olds = step.old.children;
+         List<Node> news = step.node.children;
+         int[] matches = match(olds, news);
+
+         // Pushed in reverse, so the removals come off first
+         for (int n=news.size()-1; n>=0; n--) {
+            Node node = news.get(n);
+            if (matches[n] < 0) {
+               steps.push(new Step(Type.Added, null, node, -1, n, step));
+            } else {
+               node.match = olds.get(matches[n]);
+               steps.push(new Step(Type.Changed, node.match, node, matches[n], n, step));
+            }
+         }
+         boolean[] matched = new boolean[olds.size()];
+         for (int n=0; n<news.size(); n++) {
+            if (matches[n] >= 0) matched[matches[n]] = true;
+         }
+         for (int o=olds.size()-1; o>=0; o--) {
+            if (! matched[o]) {
+               steps.push(new Step(Type.Removed, olds.get(o), null, o, -1, step));
+            }
+         }
+      }
+   }
+
+   /**
+    * For each new child, returns the index of the old child it matches,
+    *  or -1 if it's new
+    */
+   protected static int[] match(List<Node> olds, List<Node> news) {
+      int[] matches = new int[news.size()];
+      Arrays.fill(matches, -1);
+
+      // Edits are usually few, so skip the common start and end first
+      int start = 0;
+      while (start < olds.size() && start < news.size() && sameTitle(olds.get(start), news.get(start))) {
+         matches[start] = start;
+         start++;
+      }
+      int oldEnd = olds.size(), newEnd = news.size();
+      while (oldEnd > start && newEnd > start && sameTitle(olds.get(oldEnd-1), news.get(newEnd-1))) {
+         matches[--newEnd] = --oldEnd;
+      }
+
+      // Longest common sequence of titles for the rest, if not too big
+      int n = oldEnd - start, m = newEnd - start;
+      if (n > 0 && m > 0 && (long)n * m <= MAX_LCS_CELLS) {
+         int[][] lengths = new int[n+1][m+1];
+         for (int i=n-1; i>=0; i--) {
+            for (int j=m-1; j>=0; j--) {
+               if (sameTitle(olds.get(start+i), news.get(start+j))) {
+                  lengths[i][j] = lengths[i+1][j+1] + 1;
+               } else {
+                  lengths[i][j] = Math.max(lengths[i+1][j], lengths[i][j+1]);
+               }
+            }
+         }
+         int i = 0, j = 0;
+         while (i < n && j < m) {
+            if (sameTitle(olds.get(start+i), news.get(start+j))) {
+               matches[start+j] = start+i;
+               i++; j++;
+            } else if (lengths[i+1][j] >= lengths[i][j+1]) {
+               i++;
+            } else {
+               j++;
+            }
+         }
+      }
+
+      // Pair up what's left between matches, in order, as changes
+      int o = 0;
+      int n2 = 0;
+      while (n2 < news.size()) {
+         if (matches[n2] >= 0) {
+            o = matches[n2] + 1;
+            n2++;
+            continue;
+         }
+         int nextOld = olds.size();
+         int runEnd = n2;
+         while (runEnd < news.size() && matches[runEnd] < 0) runEnd++;
+         if (runEnd < news.size()) nextOld = matches[runEnd];
+         while (n2 < runEnd && o < nextOld) {
+            matches[n2++] = o++;
+         }
+         n2 = runEnd;
+      }
+      return matches;
+   }
+
+   // Titles may be missing, for items without one
+   private static boolean sameTitle(Node a, Node b) {
+      return Objects.equals(a.bookmark.getTitle(), b.bookmark.getTitle());
+   }
+   protected static boolean sameBookmark(PDFBookmark a, PDFBookmark b) {
+      return Objects.equals(a.getTitle(), b.getTitle()) &&
+             a.getPageNumber() == b.getPageNumber() &&
+             a.getYOffset() == b.getYOffset() &&
+             normalZoom(a.getZoom()).equals(normalZoom(b.getZoom()));
+   }
+   /**
+    * Zooms as they'd end up once imported, eg no zoom is FitWidth
+    */
+   private static String normalZoom(String zoom) {
+      PDFBookmark.ZoomType type = PDFBookmark.identifyZoomType(zoom);
+      if (type == null) {
+         return PDFBookmark.ZoomType.FitWidth.name();
+      }
+      if (type == PDFBookmark.ZoomType.ZoomPercent) {
+         String percent = zoom.trim();
+         if (percent.endsWith("%")) percent = percent.substring(0, percent.length()-1).trim();
+         return percent + "%";
+      }
+      return type.name();
+   }
+
+   /**
+    * Writes out the edits, one per line, as + for added, - for removed
+    *  and ~ for changed, then the path and the bookmark
+    */
+   public void write(PrintWriter output) {
+      for (Edit edit : edits) {
+         StringBuilder line = new StringBuilder();
+         if (edit.type == Type.Changed) {
+            line.append("~ ").append(edit.path);
+            describeChange(edit.from, edit.to, line);
+         } else {
+            PDFBookmark bookmark = (edit.type == Type.Added) ? edit.to : edit.from;
+            line.append(edit.type == Type.Added ? "+ " : "- ").append(edit.path);
+            line.append(" \"").append(bookmark.getTitle()).append('"');
+            line.append(" page ").append(bookmark.getPageNumber());
+            if (bookmark.getYOffset() != 0) line.append(" yoffset ").append(bookmark.getYOffset());
+            if (bookmark.getZoom() != null) line.append(" zoom ").append(bookmark.getZoom());
+         }
+         output.println(line);
+      }
+   }
+   private static void describeChange(PDFBookmark from, PDFBookmark to, StringBuilder line) {
+      if (! Objects.equals(from.getTitle(), to.getTitle())) {
+         line.append(" title \"").append(from.getTitle()).append("\" -> \"").append(to.getTitle()).append('"');
+      } else {
+         line.append(" \"").append(to.getTitle()).append('"');
+      }
+      if (from.getPageNumber() != to.getPageNumber()) {
+         line.append(" page ").append(from.getPageNumber()).append(" -> ").append(to.getPageNumber());
+      }
+      if (from.getYOffset() != to.getYOffset()) {
+         line.append(" yoffset ").append(from.getYOffset()).append(" -> ").append(to.getYOffset());
+      }
+      String fromZoom = normalZoom(from.getZoom()), toZoom = normalZoom(to.getZoom());
+      if (! fromZoom.equals(toZoom)) {
+         line.append(" zoom ").append(fromZoom).append(" -> ").append(toZoom);
+      }
+   }
+
+   /**
+    * Applies the edits to the outline the old bookmarks were exported
+    *  from, in place, leaving unchanged items untouched. Everything
+    *  altered, along with the items leading to it from the catalog,
+    *  is marked as needing to be written in an incremental save.
+    */
+   public void apply(PDDocument document) throws IOException {
+      if (edits.isEmpty()) return;
+
+      PDDocumentOutline outline = document.getDocumentCatalog().getDocumentOutline();
+      if (outline == null) {
+         outline = new PDDocumentOutline();
+         document.getDocumentCatalog().setDocumentOutline(outline);
+      }
+      Set<COSBase> marked = Collections.newSetFromMap(new IdentityHashMap<COSBase,Boolean>());
+
+      // Each parent is finished once all its children are, as its
+      //  count depends on theirs
+      Deque<Level> levels = new ArrayDeque<>();
+      levels.push(new Level(outline, newRoot, oldRoot));
+      while (! levels.isEmpty()) {
+         Level level = levels.peek();
+         if (level.next < level.newParent.children.size()) {
+            Node node = level.newParent.children.get(level.next++);
+            if (node.match == null) {
+               level.items.add(create(node));
+               level.itemsChanged.add(true);
+            } else {
+               PDOutlineItem item = node.match.bookmark.getOutlineItem();
+               level.items.add(item);
+               level.itemsChanged.add(update(item, node.match.bookmark, node.bookmark));
+               levels.push(new Level(item, node, node.match));
+            }
+            continue;
+         }
+
+         levels.pop();
+         boolean changed = finish(level, marked);
+         Level parent = levels.peek();
+         if (parent != null && changed) {
+            parent.itemsChanged.set(parent.itemsChanged.size()-1, true);
+         }
+      }
+
+      mark(outline.getCOSObject(), marked);
+      mark(document.getDocumentCatalog().getCOSObject(), marked);
+   }
+
+   /**
+    * An outline node whose children are being brought into line with
+    *  the new tree, and the items for those done so far
+    */
+   private static class Level {
+      private final PDOutlineNode parent;
+      private final Node newParent;
+      private final Node oldParent;
+      private final List<PDOutlineItem> items;
+      private final List<Boolean> itemsChanged;
+      private int next;
+      private Level(PDOutlineNode parent, Node newParent, Node oldParent) {
+         this.parent = parent;
+         this.newParent = newParent;
+         this.oldParent = oldParent;
+         this.items = new ArrayList<>(newParent.children.size());
+         this.itemsChanged = new ArrayList<>(newParent.children.size());
+      }
+   }
+
+   /**
+    * Re-links and marks the children of the node, once they've all
+    *  been done, returning if anything under it changed
+    */
+   private static boolean finish(Level level, Set<COSBase> marked) {
+      PDOutlineNode parent = level.parent;
+      List<PDOutlineItem> items = level.items;
+      List<Boolean> itemsChanged = level.itemsChanged;
+      boolean changed = false;
+
+      // Re-link the children, if the list changed
+      boolean relinked = items.size() != level.oldParent.children.size();
+      COSDictionary parentDict = parent.getCOSObject();
+      for (int i=0; i<items.size(); i++) {
+         COSDictionary dict = items.get(i).getCOSObject();
+         COSDictionary prev = (i > 0) ? items.get(i-1).getCOSObject() : null;
+         COSDictionary next = (i < items.size()-1) ? items.get(i+1).getCOSObject() : null;
+         boolean linkChanged = setLink(dict, COSName.PREV, prev);
+         linkChanged |= setLink(dict, COSName.NEXT, next);
+         linkChanged |= setLink(dict, COSName.PARENT, parentDict);
+         if (linkChanged) {
+            itemsChanged.set(i, true);
+            relinked = true;
+         }
+      }
+      if (relinked) {
+         setLink(parentDict, COSName.FIRST, items.isEmpty() ? null : items.get(0).getCOSObject());
+         setLink(parentDict, COSName.LAST, items.isEmpty() ? null : items.get(items.size()-1).getCOSObject());
+      }
+
+      // Mark the changed items, and the shorter chain of siblings to
+      //  each, from the first or the last, so the writer can reach them
+      int toFromStart = -1, toFromEnd = items.size();
+      for (int i=0; i<items.size(); i++) {
+         if (! itemsChanged.get(i)) continue;
+         if (i < items.size() - i) {
+            toFromStart = i;
+         } else {
+            toFromEnd = Math.min(toFromEnd, i);
+         }
+         changed = true;
+      }
+      for (int i=0; i<=toFromStart; i++) {
+         mark(items.get(i).getCOSObject(), marked);
+      }
+      for (int i=toFromEnd; i<items.size(); i++) {
+         mark(items.get(i).getCOSObject(), marked);
+      }
+      changed |= relinked;
+
+      if (changed) {
+         updateCount(parent);
+      }
+      return changed;
+   }
+
+   private static boolean setLink(COSDictionary dict, COSName key, COSDictionary target) {
+      COSBase current = dict.getDictionaryObject(key);
+      if (current == target) return false;
+      dict.setItem(key, target);
+      return true;
+   }
+   private static void mark(COSDictionary dict, Set<COSBase> marked) {
+      if (marked.add(dict)) {
+         dict.setNeedToBeUpdated(true);
+      }
+   }
+
+   /**
+    * Sets the title and destination of an existing item, if they've
+    *  changed, returning if they had
+    */
+   private static boolean update(PDOutlineItem item, PDFBookmark from, PDFBookmark to) throws IOException {
+      boolean changed = false;
+      if (! Objects.equals(from.getTitle(), to.getTitle())) {
+         item.setTitle(to.getTitle());
+         changed = true;
+      }
+      if (from.getPageNumber() != to.getPageNumber() || from.getYOffset() != to.getYOffset() ||
+          ! normalZoom(from.getZoom()).equals(normalZoom(to.getZoom()))) {
+         PDOutlineItem created = to.createOutline();
+         item.setAction(null);
+         item.setDestination(created.getDestination());
+         changed = true;
+      }
+      return changed;
+   }
+   /**
+    * Creates a new item, along with all its children
+    */
+   private static PDOutlineItem create(Node node) throws IOException {
+      PDOutlineItem item = node.bookmark.createOutline();
+      Deque<Node> nodes = new ArrayDeque<>();
+      Deque<PDOutlineItem> items = new ArrayDeque<>();
+      nodes.push(node);
+      items.push(item);
+      while (! nodes.isEmpty()) {
+         Node parent = nodes.pop();
+         PDOutlineItem parentItem = items.pop();
+         for (Node child : parent.children) {
+            PDOutlineItem childItem = child.bookmark.createOutline();
+            parentItem.addLast(childItem);
+            nodes.push(child);
+            items.push(childItem);
+         }
+      }
+      return item;
+   }
+
+   /**
+    * Re-calculates the open descendants count of the node, keeping it
+    *  open or closed as before. Our caller handles our parent.
+    */
+   private static void updateCount(PDOutlineNode node) {
+      int visible = 0;
+      for (PDOutlineItem child : node.children()) {
+         visible++;
+         int childCount = child.getCOSObject().getInt(COSName.COUNT, 0);
+         if (childCount > 0) visible += childCount;
+      }
+      COSDictionary dict = node.getCOSObject();
+      int current = dict.getInt(COSName.COUNT, 0);
+      boolean open = (node instanceof PDDocumentOutline) || current > 0;
+      if (visible == 0) {
+         dict.removeItem(COSName.COUNT);
+      } else {
+         dict.setInt(COSName.COUNT, open ? visible : -visible);
+      }
+   }
+}
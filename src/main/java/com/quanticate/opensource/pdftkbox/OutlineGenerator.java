@@ -0,0 +1,456 @@
+/* ====================================================================
+  Copyright 2017 Quanticate Ltd
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+==================================================================== */
+package com.quanticate.opensource.pdftkbox;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDFontDescriptor;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.apache.pdfbox.text.TextPosition;
+
+/**
+ * Generates bookmarks for a PDF with no outline, from the headings in
+ *  its text. Pages are extracted in chunks, in parallel, with each
+ *  worker having its own copy of the document and its own text
+ *  extractor, as PDFBox documents can't be shared between threads.
+ *  The first worker uses the caller's copy, and there are only as many
+ *  others as the free heap looks to have room for.
+ *
+ * Headings are either found from their font, as lines in a larger
+ *  size than the body text, or all in bold, with the biggest sizes
+ *  being the top levels; or by matching lines against a list of
+ *  regular expressions, each for a given level.
+ */
+public class OutlineGenerator {
+   private static final int PAGES_PER_CHUNK = 16;
+   // How much bigger than the body text a heading must be
+   private static final float HEADING_SCALE = 1.15f;
+   // Lines longer than this aren't headings
+   private static final int MAX_HEADING_LENGTH = 120;
+   // Top and bottom margins, as a fraction of the page, for running headers and footers
+   private static final float MARGIN = 0.05f;
+   // Rough heap needed by each extra worker, as a multiple of the file size plus a fixed amount
+   private static final int COPY_SIZE_FACTOR = 3;
+   private static final long COPY_OVERHEAD = 16 * 1024 * 1024;
+
+   /**
+    * A regular expression which marks a line as a heading of the
+    *  given level
+    */
+   public static class HeadingPattern {
+      private final int level;
+      private final Pattern pattern;
+      public HeadingPattern(int level, Pattern pattern) {
+         this.level = level;
+         this.pattern = pattern;
+      }
+      public int getLevel() {
+         return level;
+      }
+      public Pattern getPattern() {
+         return pattern;
+      }
+   }
+
+   /**
+    * A line of text, with what we need to know about its font
+    */
+   protected static class Line {
+      private final int page;
+      private final String text;
+      private final float fontSize;
+      private final boolean bold;
+      private final int top;
+      private final boolean inMargin;
+      private int level;
+
+      protected Line(int page, String text, float fontSize, boolean bold, int top, boolean inMargin) {
+         this.page = page;
+         this.text = text;
+         this.fontSize = fontSize;
+         this.bold = bold;
+         this.top = top;
+         this.inMargin = inMargin;
+      }
+   }
+
+   private final int threads;
+   private MemoryUsageSetting memoryUsage = MemoryUsageSetting.setupMainMemoryOnly();
+   private List<HeadingPattern> patterns;
+   private int maxLevels = 3;
+
+   public OutlineGenerator(int threads) {
+      if (threads < 1)
+         throw new IllegalArgumentException("Need at least one thread, not " + threads);
+      this.threads = threads;
+   }
+
+   /**
+    * How each worker's copy of the PDF should be held
+    */
+   public void setMemoryUsage(MemoryUsageSetting memoryUsage) {
+      this.memoryUsage = memoryUsage;
+   }
+   /**
+    * Find headings with these patterns, rather than by their fonts
+    */
+   public void setHeadingPatterns(List<HeadingPattern> patterns) {
+      this.patterns = patterns;
+   }
+   /**
+    * Most levels to generate from font sizes
+    */
+   public void setMaxLevels(int maxLevels) {
+      this.maxLevels = maxLevels;
+   }
+
+   /**
+    * Reads heading patterns, one per line, as the level then
+    *  whitespace then the regular expression, eg "1 ^Chapter \d+".
+    *  Blank lines and # comments are skipped.
+    */
+   public static List<HeadingPattern> readPatterns(BufferedReader input) throws IOException {
+      List<HeadingPattern> patterns = new ArrayList<>();
+      int lineNumber = 0;
+      String line;
+      while ((line = input.readLine()) != null) {
+         lineNumber++;
+         String trimmed = line.trim();
+         if (trimmed.isEmpty() || trimmed.startsWith("#")) continue;
+
+         String[] parts = trimmed.split("\\s+", 2);
+         try {
+            int level = Integer.parseInt(parts[0]);
+            if (level < 1 || parts.length < 2) throw new NumberFormatException();
+            patterns.add(new HeadingPattern(level, Pattern.compile(parts[1])));
+         } catch (NumberFormatException e) {
+            throw new BookmarkParseException(lineNumber, "Expected a level then a pattern, found " + line);
+         } catch (PatternSyntaxException e) {
+            throw new BookmarkParseException(lineNumber, "Invalid pattern " + e.getDescription());
+         }
+      }
+      return patterns;
+   }
+
+   /**
+    * Extracts the text of the PDF, and returns bookmarks for the
+    *  headings found in it
+    */
+   public List<PDFBookmark> generate(File pdf) throws IOException {
+      try (PDDocument document = PDDocument.load(pdf, memoryUsage)) {
+         return generate(pdf, document);
+      }
+   }
+   /**
+    * Extracts the text of the PDF, already loaded as the given document,
+    *  and returns bookmarks for the headings found in it. The document
+    *  is used by one of the workers, and is left open.
+    */
+   public List<PDFBookmark> generate(final File pdf, final PDDocument loaded) throws IOException {
+      int pageCount = loaded.getNumberOfPages();
+
+      // Each worker takes the next chunk of pages, until none are left
+      final int chunks = (pageCount + PAGES_PER_CHUNK - 1) / PAGES_PER_CHUNK;
+      final List<List<Line>> chunkLines = new ArrayList<>(chunks);
+      for (int i=0; i<chunks; i++) chunkLines.add(null);
+      final AtomicInteger nextChunk = new AtomicInteger();
+      final int lastPage = pageCount;
+
+      int workers = Math.max(1, Math.min(Math.min(threads, chunks), 1 + extraCopies(pdf)));
+      ExecutorService pool = Executors.newFixedThreadPool(workers);
+      try {
+         List<Future<Void>> results = new ArrayList<>();
+         for (int i=0; i<workers; i++) {
+            final boolean useLoaded = (i == 0);
+            results.add(pool.submit(new Callable<Void>() {
+               @Override
+               public Void call() throws IOException {
+                  if (useLoaded) {
+                     extractChunks(loaded);
+                  } else {
+                     try (PDDocument document = PDDocument.load(pdf, memoryUsage)) {
+                        extractChunks(document);
+                     }
+                  }
+                  return null;
+               }
+               private void extractChunks(PDDocument document) throws IOException {
+                  LineExtractor extractor = new LineExtractor();
+                  int chunk;
+                  while ((chunk = nextChunk.getAndIncrement()) < chunks) {
+                     int start = chunk * PAGES_PER_CHUNK + 1;
+                     int end = Math.min(start + PAGES_PER_CHUNK - 1, lastPage);
+                     chunkLines.set(chunk, extractor.extract(document, start, end));
+                  }
+               }
+            }));
+         }
+         for (Future<Void> result : results) {
+            result.get();
+         }
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new IOException("Interrupted extracting text", e);
+      } catch (ExecutionException e) {
+         Throwable cause = e.getCause();
+         if (cause instanceof IOException) throw (IOException)cause;
+         if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+         if (cause instanceof Error) throw (Error)cause;
+         throw new IOException(cause);
+      } finally {
+         pool.shutdownNow();
+      }
+
+      List<Line> lines = new ArrayList<>();
+      for (List<Line> chunk : chunkLines) {
+         lines.addAll(chunk);
+      }
+
+      if (patterns != null) {
+         findByPattern(lines);
+      } else {
+         findByFont(lines, pageCount);
+      }
+      return toBookmarks(lines);
+   }
+
+   /**
+    * How many more copies of the PDF the free heap looks to have room
+    *  for, beyond the one already loaded
+    */
+   protected int extraCopies(File pdf) {
+      Runtime runtime = Runtime.getRuntime();
+      long free = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+      long perCopy = pdf.length() * COPY_SIZE_FACTOR + COPY_OVERHEAD;
+      return (int)Math.min(threads, Math.max(0, free / perCopy));
+   }
+
+   /**
+    * Headings are those lines matching one of the patterns, with the
+    *  first matching pattern giving the level
+    */
+   protected void findByPattern(List<Line> lines) {
+      for (Line line : lines) {
+         for (HeadingPattern pattern : patterns) {
+            if (pattern.pattern.matcher(line.text).find()) {
+               line.level = pattern.level;
+               break;
+            }
+         }
+      }
+   }
+
+   /**
+    * Headings are the short lines, outside of the margins, which are
+    *  noticeably larger than the most common size of text, or are the
+    *  body size but all in bold. Text repeated on many pages, such as
+    *  running headers, is skipped.
+    */
+   protected void findByFont(List<Line> lines, int pageCount) {
+      // The body text size is the one with the most characters
+      Map<Float,Integer> sizeChars = new HashMap<>();
+      for (Line line : lines) {
+         Integer chars = sizeChars.get(line.fontSize);
+         sizeChars.put(line.fontSize, (chars == null ? 0 : chars) + line.text.length());
+      }
+      float bodySize = 0;
+      int bodyChars = -1;
+      for (Map.Entry<Float,Integer> entry : sizeChars.entrySet()) {
+         if (entry.getValue() > bodyChars) {
+            bodySize = entry.getKey();
+            bodyChars = entry.getValue();
+         }
+      }
+
+      // Find the candidates, and the distinct heading sizes
+      List<Line> candidates = new ArrayList<>();
+      TreeSet<Float> headingSizes = new TreeSet<>();
+      Map<String,Integer> repeats = new HashMap<>();
+      boolean anyBold = false;
+      for (Line line : lines) {
+         if (line.inMargin || line.text.length() > MAX_HEADING_LENGTH) continue;
+         if (! Character.isLetterOrDigit(line.text.codePointAt(0))) continue;
+
+         if (line.fontSize >= bodySize * HEADING_SCALE) {
+            headingSizes.add(line.fontSize);
+         } else if (line.bold && line.fontSize >= bodySize) {
+            anyBold = true;
+         } else {
+            continue;
+         }
+         candidates.add(line);
+         Integer seen = repeats.get(line.text);
+         repeats.put(line.text, (seen == null ? 0 : seen) + 1);
+      }
+
+      // Biggest sizes are the top levels, then bold body text
+      Map<Float,Integer> sizeLevels = new TreeMap<>();
+      int level = 1;
+      for (Float size : headingSizes.descendingSet()) {
+         sizeLevels.put(size, Math.min(level++, maxLevels));
+      }
+      int boldLevel = Math.min(level, maxLevels);
+
+      int maxRepeats = Math.max(3, pageCount / 4);
+      for (Line line : candidates) {
+         if (repeats.get(line.text) > maxRepeats) continue;
+         Integer sizeLevel = sizeLevels.get(line.fontSize);
+         if (sizeLevel != null) {
+            line.level = sizeLevel;
+         } else if (anyBold) {
+            line.level = boldLevel;
+         }
+      }
+   }
+
+   /**
+    * Turns the headings into bookmarks, making sure they start at
+    *  the top level and never skip a level
+    */
+   protected List<PDFBookmark> toBookmarks(List<Line> lines) {
+      List<PDFBookmark> bookmarks = new ArrayList<>();
+      int lastLevel = 0;
+      for (Line line : lines) {
+         if (line.level < 1) continue;
+         int level = Math.min(line.level, lastLevel + 1);
+         bookmarks.add(new PDFBookmark(line.text, level, line.page, line.top, null));
+         lastLevel = level;
+      }
+      return bookmarks;
+   }
+
+   /**
+    * Extracts the lines of text of a range of pages, along with their
+    *  font size, weight and position. Each worker has its own.
+    */
+   protected static class LineExtractor extends PDFTextStripper {
+      private final List<Line> lines = new ArrayList<>();
+      private final StringBuilder text = new StringBuilder();
+      private final List<TextPosition> positions = new ArrayList<>();
+      private float pageTop, pageHeight;
+
+      protected LineExtractor() throws IOException {
+         super();
+         // Overprinted text is rare in headings, and checking for it is slow
+         setSuppressDuplicateOverlappingText(false);
+      }
+
+      protected List<Line> extract(PDDocument document, int startPage, int endPage) throws IOException {
+         lines.clear();
+         setStartPage(startPage);
+         setEndPage(endPage);
+         writeText(document, new NullWriter());
+         return new ArrayList<>(lines);
+      }
+
+      @Override
+      protected void startPage(PDPage page) throws IOException {
+         pageTop = page.getCropBox().getUpperRightY();
+         pageHeight = page.getCropBox().getHeight();
+         text.setLength(0);
+         positions.clear();
+      }
+      @Override
+      protected void endPage(PDPage page) throws IOException {
+         finishLine();
+      }
+
+      @Override
+      protected void writeString(String string, List<TextPosition> textPositions) throws IOException {
+         text.append(string);
+         positions.addAll(textPositions);
+      }
+      @Override
+      protected void writeWordSeparator() throws IOException {
+         text.append(' ');
+      }
+      @Override
+      protected void writeLineSeparator() throws IOException {
+         finishLine();
+      }
+
+      private void finishLine() {
+         String line = text.toString().trim();
+         if (! line.isEmpty() && ! positions.isEmpty()) {
+            float size = 0;
+            int boldChars = 0;
+            float lineTop = Float.MAX_VALUE;
+            PDFont lastFont = null;
+            boolean lastBold = false;
+            for (TextPosition position : positions) {
+               size = Math.max(size, position.getFontSizeInPt());
+               lineTop = Math.min(lineTop, position.getYDirAdj() - position.getHeightDir());
+               if (position.getFont() != lastFont) {
+                  lastFont = position.getFont();
+                  lastBold = isBold(lastFont);
+               }
+               if (lastBold) boldChars++;
+            }
+            // Round sizes, so tiny differences don't make new levels
+            size = Math.round(size * 2) / 2.0f;
+            boolean bold = boldChars * 2 > positions.size();
+            boolean inMargin = lineTop < pageHeight * MARGIN || lineTop > pageHeight * (1-MARGIN);
+            lines.add(new Line(getCurrentPageNo(), line, size, bold,
+                               Math.round(pageTop - lineTop), inMargin));
+         }
+         text.setLength(0);
+         positions.clear();
+      }
+
+      private static boolean isBold(PDFont font) {
+         if (font == null) return false;
+         PDFontDescriptor descriptor = font.getFontDescriptor();
+         if (descriptor != null && (descriptor.isForceBold() || descriptor.getFontWeight() >= 600)) {
+            return true;
+         }
+         String name = font.getName();
+         if (name == null) return false;
+         name = name.toLowerCase(Locale.ROOT);
+         return name.contains("bold") || name.contains("black") || name.contains("heavy");
+      }
+   }
+
+   private static class NullWriter extends Writer {
+      @Override
+      public void write(char[] cbuf, int off, int len) {}
+      @Override
+      public void flush() {}
+      @Override
+      public void close() {}
+   }
+}
@@ -0,0 +1,225 @@
+/* ====================================================================
+  Copyright 2017 Quanticate Ltd
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+==================================================================== */
+package com.quanticate.opensource.pdftkbox;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.io.IOUtils;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.io.RandomAccessRead;
+import org.apache.pdfbox.io.ScratchFile;
+import org.apache.pdfbox.pdfparser.PDFParser;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+/**
+ * Opens a PDF for reading just its outline. The file is read a block at
+ *  a time as needed, and only the cross-reference tables are parsed
+ *  up-front. After that,
+ *  only the objects reachable from the outline, the page tree (without
+ *  the pages' contents or resources), the named destinations and the
+ *  page labels are parsed, so the work done depends on the size of the
+ *  outline rather than the size of the file.
+ * Everything else is left unparsed, so the document must only be read,
+ *  never saved. Encrypted files aren't supported.
+ */
+public class OutlineReader extends PDFParser {
+   // Outline entries which lead away from the outline, into the rest of the document
+   private static final Set<COSName> SKIP_KEYS;
+   static {
+      SKIP_KEYS = Collections.newSetFromMap(new IdentityHashMap<COSName,Boolean>());
+      SKIP_KEYS.add(COSName.PARENT);
+      SKIP_KEYS.add(COSName.P);
+      SKIP_KEYS.add(COSName.getPDFName("SE"));
+   }
+
+   private final Set<COSBase> pages = Collections.newSetFromMap(new IdentityHashMap<COSBase,Boolean>());
+   private final Set<COSBase> seen = Collections.newSetFromMap(new IdentityHashMap<COSBase,Boolean>());
+   protected DocumentLimits.Budget budget;
+
+   protected OutlineReader(RandomAccessRead source, ScratchFile scratch) throws IOException {
+      super(source, scratch);
+   }
+
+   /**
+    * Opens the PDF for outline access only
+    */
+   public static PDDocument load(File pdf, MemoryUsageSetting memoryUsage) throws IOException {
+      return load(pdf, memoryUsage, null);
+   }
+   /**
+    * Opens the PDF for outline access only, checking the time taken
+    *  against the (optional) budget as each object is read
+    */
+   public static PDDocument load(File pdf, MemoryUsageSetting memoryUsage,
+                                 DocumentLimits.Budget budget) throws IOException {
+      return load(pdf, memoryUsage, budget, false);
+   }
+   /**
+    * Opens the PDF for outline access only, as above. If strict, any
+    *  problems with the cross-reference tables fail, rather than being
+    *  repaired by PDFBox with a (slow) search of the whole file.
+    */
+   public static PDDocument load(File pdf, MemoryUsageSetting memoryUsage,
+                                 DocumentLimits.Budget budget, boolean strict) throws IOException {
+      RandomAccessRead source = new ChannelRandomAccess(pdf);
+      ScratchFile scratch = null;
+      try {
+         scratch = new ScratchFile(memoryUsage);
+         OutlineReader reader = new OutlineReader(source, scratch);
+         reader.budget = budget;
+         reader.setLenient(! strict);
+         reader.parse();
+         return reader.getPDDocument();
+      } catch (IOException e) {
+         IOUtils.closeQuietly(scratch);
+         IOUtils.closeQuietly(source);
+         throw e;
+      }
+   }
+
+   /**
+    * Reads the cross-reference tables and trailer as normal, but then
+    *  only the parts of the document needed for the outline
+    */
+   @Override
+   protected void initialParse() throws IOException {
+      COSDictionary trailer = readTrailer();
+      if (trailer.getItem(COSName.ENCRYPT) != null) {
+         throw new IOException("document is encrypted");
+      }
+
+      COSBase base = parseTrailerValuesDynamically(trailer);
+      if (!(base instanceof COSDictionary)) {
+         throw new IOException("Expected root dictionary, but got " + base);
+      }
+      COSDictionary catalog = (COSDictionary)base;
+      if (isLenient() && !catalog.containsKey(COSName.TYPE)) {
+         catalog.setItem(COSName.TYPE, COSName.CATALOG);
+      }
+
+      // Pages first, so the outline walk knows where to stop
+      readPageTree(catalog.getItem(COSName.PAGES));
+      readAll(catalog.getItem(COSName.OUTLINES));
+      COSBase names = resolve(catalog.getItem(COSName.NAMES));
+      if (names instanceof COSDictionary) {
+         readAll(((COSDictionary)names).getItem(COSName.DESTS));
+      }
+      readAll(catalog.getItem(COSName.DESTS));
+      readAll(catalog.getItem(COSName.PAGE_LABELS));
+
+      initialParseDone = true;
+   }
+
+   /**
+    * Reads the cross-reference tables, returning the trailer
+    */
+   protected COSDictionary readTrailer() throws IOException {
+      long startXRefOffset = getStartxrefOffset();
+      if (startXRefOffset > -1) {
+         return parseXref(startXRefOffset);
+      } else if (isLenient()) {
+         return rebuildTrailer();
+      } else {
+         throw new IOException("cross-reference table not found");
+      }
+   }
+
+   /**
+    * Parses the page tree nodes, and the page dictionaries themselves,
+    *  but nothing from the pages
+    */
+   private void readPageTree(COSBase root) throws IOException {
+      if (root == null) return;
+      Deque<COSBase> todo = new ArrayDeque<>();
+      todo.push(root);
+      while (! todo.isEmpty()) {
+         COSBase node = resolve(todo.pop());
+         if (!(node instanceof COSDictionary) || !seen.add(node)) continue;
+
+         COSDictionary dict = (COSDictionary)node;
+         resolve(dict.getItem(COSName.TYPE));
+         COSBase kids = resolve(dict.getItem(COSName.KIDS));
+         if (kids instanceof COSArray) {
+            resolve(dict.getItem(COSName.COUNT));
+            COSArray kidsArray = (COSArray)kids;
+            for (int i=kidsArray.size()-1; i>=0; i--) {
+               if (kidsArray.get(i) != null) todo.push(kidsArray.get(i));
+            }
+         } else {
+            pages.add(dict);
+         }
+      }
+   }
+
+   /**
+    * Parses everything reachable from the given object, stopping
+    *  at pages and at links back out of the outline
+    */
+   private void readAll(COSBase start) throws IOException {
+      if (start == null) return;
+      Deque<COSBase> todo = new ArrayDeque<>();
+      todo.push(start);
+      while (! todo.isEmpty()) {
+         COSBase value = resolve(todo.pop());
+         if (value == null || pages.contains(value) || !seen.add(value)) continue;
+
+         if (value instanceof COSDictionary) {
+            COSDictionary dict = (COSDictionary)value;
+            if (COSName.PAGE.equals(dict.getCOSName(COSName.TYPE))) continue;
+
+            for (Map.Entry<COSName,COSBase> entry : dict.entrySet()) {
+               if (! SKIP_KEYS.contains(entry.getKey())) {
+                  todo.push(entry.getValue());
+               }
+            }
+         } else if (value instanceof COSArray) {
+            for (COSBase entry : (COSArray)value) {
+               if (entry != null) todo.push(entry);
+            }
+         }
+      }
+   }
+
+   protected COSBase resolve(COSBase base) throws IOException {
+      if (base instanceof COSObject) {
+         if (budget != null) budget.checkTime();
+         COSObject object = (COSObject)base;
+         if (object.getObject() == null) {
+            parse(object);
+         }
+         return object.getObject();
+      }
+      return base;
+   }
+   /**
+    * Parses an object which hasn't been read yet
+    */
+   protected void parse(COSObject object) throws IOException {
+      parseObjectDynamically(object, false);
+   }
+}
@@ -20,6 +20,7 @@ import java.io.IOException;
 import org.apache.pdfbox.pdmodel.interactive.action.PDAction;
 import org.apache.pdfbox.pdmodel.interactive.action.PDActionGoTo;
 import org.apache.pdfbox.pdmodel.interactive.documentnavigation.destination.PDDestination;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.destination.PDNamedDestination;
 import org.apache.pdfbox.pdmodel.interactive.documentnavigation.destination.PDPageDestination;
 import org.apache.pdfbox.pdmodel.interactive.documentnavigation.destination.PDPageFitDestination;
 import org.apache.pdfbox.pdmodel.interactive.documentnavigation.destination.PDPageFitHeightDestination;
@@ -40,17 +41,27 @@ public class PDFBookmark {
    private String title;
    private int level;
    private int pageNumber;
+   private String pageLabel;
    private int yOffset;
    private ZoomType zoomType;
    private String zoom;
+   private String uncertainty;
 
    /**
     * Creates a Bookmark Wrapper based on an import
     */
    public PDFBookmark(String title, int level, int pageNumber, int yOffset, String zoom) {
+      this(title, level, pageNumber, null, yOffset, zoom);
+   }
+   /**
+    * Creates a Bookmark Wrapper based on an import, which may give
+    *  the page label instead of (or as well as) the page number
+    */
+   public PDFBookmark(String title, int level, int pageNumber, String pageLabel, int yOffset, String zoom) {
       this.title = title;
       this.level = level;
       this.pageNumber = pageNumber;
+      this.pageLabel = pageLabel;
       this.yOffset = yOffset;
       this.zoom = zoom;
       this.zoomType = identifyZoomType(zoom);
@@ -58,10 +69,32 @@ public class PDFBookmark {
 
    /**
     * Creates our Bookmark Wrapper from the outline item.
+    * Named destinations can't be looked up without the document,
+    *  so bookmarks to them are left without a page, with a warning.
     * Handling Children (and tracking of levels) is up to
     *  the calling class to manage
     */
    public PDFBookmark(PDOutlineItem current, int level) throws IOException {
+      this(current, level, null, null);
+   }
+   /**
+    * Creates our Bookmark Wrapper from the outline item, using
+    *  the (optional) document page index to find the page number,
+    *  and the (optional) named destinations to resolve names.
+    * Handling Children (and tracking of levels) is up to
+    *  the calling class to manage
+    */
+   public PDFBookmark(PDOutlineItem current, int level, PageIndex pages, 
+                      NamedDestinations names) throws IOException {
+      this(current, level, pages, names, null);
+   }
+   /**
+    * Creates our Bookmark Wrapper from the outline item, as above,
+    *  also giving the page's label if the (optional) document page
+    *  label index is given
+    */
+   public PDFBookmark(PDOutlineItem current, int level, PageIndex pages, 
+                      NamedDestinations names, PageLabelIndex labels) throws IOException {
       this.title = current.getTitle();
       this.outlineItem = current;
       this.level = level;
@@ -83,13 +116,37 @@ public class PDFBookmark {
       if (dest == null) {
          dest = current.getDestination();
       }
+      
+      // Named destinations need to be looked up to find the page
+      if (dest instanceof PDNamedDestination) {
+         String name = ((PDNamedDestination)dest).getNamedDestination();
+         PDPageDestination named = (names != null) ? names.resolve((PDNamedDestination)dest) : null;
+         if (named != null) {
+            dest = named;
+         } else if (names == null) {
+            System.err.println("Warning - named destination " + name + 
+                  " not looked up, as the document's names weren't given");
+         } else {
+            System.err.println("Warning - named destination " + name + " not found");
+         }
+      }
 
       if (dest != null) {
          if (dest instanceof PDPageDestination) {
             PDPageDestination pdest = (PDPageDestination)dest;
-            int pageNum = pdest.retrievePageNumber();
+            int pageNum;
+            if (pages != null) {
+               pageNum = pages.getPageIndex(pdest);
+            } else {
+               pageNum = pdest.retrievePageNumber();
+            }
             if (pageNum != -1) {
                this.pageNumber = pageNum+1;
+               // Pages can have an empty label, which is as good as none
+               String label = (labels != null) ? labels.getLabel(pageNum) : null;
+               if (label != null && !label.isEmpty()) {
+                  this.pageLabel = label;
+               }
             }
          }
 
@@ -112,6 +169,8 @@ public class PDFBookmark {
             zoomType = ZoomType.FitPage;
          } else if (dest instanceof PDPageFitHeightDestination) {
             zoomType = ZoomType.FitHeight;
+         } else if (dest instanceof PDNamedDestination) {
+            // Name not found or not looked up, warned above
          } else {
             System.err.println("TODO: Support destination of type " + dest);
          }
@@ -209,6 +268,14 @@ public class PDFBookmark {
       return pageNumber;
    }
 
+   /**
+    * Get the label of the Page this bookmark refers to, eg "iv",
+    *  if known, otherwise null. Only set on export if asked for.
+    */
+   public String getPageLabel() {
+      return pageLabel;
+   }
+
    public int getYOffset() {
       return yOffset;
    }
@@ -218,6 +285,17 @@ public class PDFBookmark {
    public String getZoom() {
       return zoom;
    }
+
+   /**
+    * Get why this bookmark may be wrong, eg when salvaged from a
+    *  damaged file, or null if there's no reason to doubt it
+    */
+   public String getUncertainty() {
+      return uncertainty;
+   }
+   public void setUncertainty(String uncertainty) {
+      this.uncertainty = uncertainty;
+   }
    
    public String toString() {
       return "Bookmark to page " + pageNumber + " @ " + level + " / " + zoom + 
@@ -18,10 +18,15 @@ package com.quanticate.opensource.pdftkbox;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -31,11 +36,95 @@ import org.apache.commons.cli.Option;
 import org.apache.commons.cli.OptionGroup;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
+import org.apache.pdfbox.io.MemoryUsageSetting;
 
 /**
  * PDFtk bookmark replacement, powered by Apache PDFBox
  */
 public class PDFtkBox {
+   // Options for how the work gets done, shared by all styles
+   private static final Option optIncremental = 
+         Option.builder("incremental")
+         .desc("on import, append the new bookmarks to the pdf rather than re-writing it" )
+         .build();
+   private static final Option optCompact = 
+         Option.builder("compact")
+         .desc("on import, pack the pdf's objects into compressed object streams, for a smaller file" )
+         .build();
+   private static final Option optStrict = 
+         Option.builder("strict")
+         .desc("on import, fail on any malformed bookmark rather than skipping it" )
+         .build();
+   private static final Option optFullLoad = 
+         Option.builder("fullload")
+         .desc("on export, load the whole pdf rather than just its outline" )
+         .build();
+   private static final Option optPageLabels = 
+         Option.builder("pagelabels")
+         .desc("on export, also give the label of each bookmark's page, eg iv" )
+         .build();
+   private static final Option optSalvage = 
+         Option.builder("salvage")
+         .desc("on export, read pdfs with broken cross-reference tables " +
+               "with a single scan for just the outline" )
+         .build();
+   private static final Option optFormat = 
+         Option.builder("format")
+         .hasArg()
+         .desc("bookmarks format, pdftk (default), json or binary, " +
+               "corpus exports take pdftk or json for JSON Lines" )
+         .argName("pdftk|json|binary").build();
+   private static final Option optStats = 
+         Option.builder("stats")
+         .desc("print timings and counts as JSON to stderr when done, " +
+               "and publish them over JMX for batch, corpus and server runs" )
+         .build();
+   private static final Option optCache = 
+         Option.builder("cache")
+         .hasArg()
+         .desc("on export, cache the bookmarks in this directory, keyed by the pdf's contents" )
+         .argName("dir").build();
+   private static final Option optCacheMax = 
+         Option.builder("cachemax")
+         .hasArg()
+         .desc("most space the export cache may use, in MB, default 256" )
+         .argName("mb").build();
+   private static final Option optMemory = 
+         Option.builder("memory")
+         .hasArg()
+         .desc("where to hold the pdf while working, one of main (default), mixed or temp (default for split and merge)" )
+         .argName("main|mixed|temp").build();
+   private static final Option optMemoryMax = 
+         Option.builder("memorymax")
+         .hasArg()
+         .desc("for mixed memory, the most heap to use before spilling to temp files, in MB" )
+         .argName("mb").build();
+   private static final Option optTempDir = 
+         Option.builder("tempdir")
+         .hasArg()
+         .desc("directory for temp files, defaults to java.io.tmpdir" )
+         .argName("dir").build();
+   private static final Option optMaxTime = 
+         Option.builder("maxtime")
+         .hasArg()
+         .desc("fail any one pdf which takes longer than this, in seconds" )
+         .argName("s").build();
+   private static final Option optMaxBookmarks = 
+         Option.builder("maxbookmarks")
+         .hasArg()
+         .desc("fail any one pdf with more than this many bookmarks" )
+         .argName("n").build();
+   private static final Option optMaxDepth = 
+         Option.builder("maxdepth")
+         .hasArg()
+         .desc("fail any one pdf with bookmarks nested deeper than this" )
+         .argName("n").build();
+   private static final Option optMaxSize = 
+         Option.builder("maxsize")
+         .hasArg()
+         .desc("fail any one pdf, or bookmarks file, larger than this, in MB" )
+         .argName("mb").build();
+   
    public static void main(String[] args) throws Exception {
       // For printing help
       Options optsHelp = new Options();
@@ -63,6 +152,89 @@ public class PDFtkBox {
             .desc("import bookmarks into pdf" )
             .argName("source-pdf").build();
       normal.addOption(optImport);
+      Option optBatch = 
+            Option.builder("batch")
+            .required()
+            .hasArg()
+            .desc("run the export/import jobs listed in a manifest, - for stdin" )
+            .argName("manifest").build();
+      normal.addOption(optBatch);
+      Option optCopy = 
+            Option.builder("copy")
+            .required()
+            .hasArg()
+            .desc("copy bookmarks from this pdf onto another" )
+            .argName("source-pdf").build();
+      normal.addOption(optCopy);
+      Option optServer = 
+            Option.builder("server")
+            .required()
+            .hasArg()
+            .desc("run as a local bookmarks service on the given port" )
+            .argName("port").build();
+      normal.addOption(optServer);
+      Option optCorpus = 
+            Option.builder("corpus")
+            .required()
+            .hasArg()
+            .desc("export the bookmarks of every pdf in a directory, or listed in a file, as one stream" )
+            .argName("dir|list").build();
+      normal.addOption(optCorpus);
+      Option optGenerate = 
+            Option.builder("generate")
+            .required()
+            .hasArg()
+            .desc("generate bookmarks from the headings in the pdf's text" )
+            .argName("source-pdf").build();
+      normal.addOption(optGenerate);
+      Option optValidate = 
+            Option.builder("validate")
+            .required()
+            .hasArg()
+            .desc("check bookmarks can be imported, against the page count of " +
+                  "the pdf if one is given, - for stdin" )
+            .argName("bookmarks").build();
+      normal.addOption(optValidate);
+      Option optDiff = 
+            Option.builder("diff")
+            .required()
+            .hasArg()
+            .desc("list the differences between the bookmarks of this pdf and " +
+                  "another pdf, or the bookmarks file" )
+            .argName("source-pdf").build();
+      normal.addOption(optDiff);
+      Option optPatch = 
+            Option.builder("patch")
+            .required()
+            .hasArg()
+            .desc("update the bookmarks of the pdf to match the bookmarks file, " +
+                  "changing only those which differ" )
+            .argName("source-pdf").build();
+      normal.addOption(optPatch);
+      Option optSplit = 
+            Option.builder("split")
+            .required()
+            .hasArg()
+            .desc("split the pdf into one pdf per page range, each with the bookmarks " +
+                  "to its pages" )
+            .argName("source-pdf").build();
+      normal.addOption(optSplit);
+      Option optMerge = 
+            Option.builder("merge")
+            .required()
+            .hasArg()
+            .desc("merge this pdf and those following it into one, with the bookmarks " +
+                  "of each under its file name" )
+            .argName("source-pdf").build();
+      normal.addOption(optMerge);
+      Option optWatch = 
+            Option.builder("watch")
+            .required()
+            .hasArg()
+            .desc("watch a directory, importing bookmark files into the pdfs of the same " +
+                  "name, and exporting the bookmarks of pdfs on their own" )
+            .argName("dir").build();
+      normal.addOption(optWatch);
       optsNormal.addOptionGroup(normal);
       Option optBookmarks = 
             Option.builder("bookmarks")
@@ -76,6 +248,75 @@ public class PDFtkBox {
             .desc("output to new pdf" )
             .argName("pdf").build();
       optsNormal.addOption(optOutput);
+      Option optThreads = 
+            Option.builder("threads")
+            .hasArg()
+            .desc("number of batch worker threads, or concurrent server requests, " +
+                  "defaults to the number of cores" )
+            .argName("n").build();
+      optsNormal.addOption(optThreads);
+      Option optMaxOpen = 
+            Option.builder("maxopen")
+            .hasArg()
+            .desc("most documents a batch may have open at once" )
+            .argName("n").build();
+      optsNormal.addOption(optMaxOpen);
+      Option optPageOffset = 
+            Option.builder("pageoffset")
+            .hasArg()
+            .desc("when copying, add this to the page numbers" )
+            .argName("n").build();
+      optsNormal.addOption(optPageOffset);
+      Option optPageMap = 
+            Option.builder("pagemap")
+            .hasArg()
+            .desc("when copying, map these source pages to target pages" )
+            .argName("src:target,...").build();
+      optsNormal.addOption(optPageMap);
+      optsNormal.addOption(optFormat);
+      Option optUnordered = 
+            Option.builder("unordered")
+            .desc("write corpus documents as they finish, rather than in listed order" )
+            .build();
+      optsNormal.addOption(optUnordered);
+      Option optCheckpoint = 
+            Option.builder("checkpoint")
+            .hasArg()
+            .desc("record corpus progress here, and resume from it if present" )
+            .argName("file").build();
+      optsNormal.addOption(optCheckpoint);
+      Option optHeadings = 
+            Option.builder("headings")
+            .hasArg()
+            .desc("when generating, find headings with the level and pattern on each line, " +
+                  "rather than by font size" )
+            .argName("file").build();
+      optsNormal.addOption(optHeadings);
+      Option optRanges = 
+            Option.builder("ranges")
+            .hasArg()
+            .desc("when splitting, the pages of each new pdf, a missing end being the last page" )
+            .argName("1-10,11-20,21-").build();
+      optsNormal.addOption(optRanges);
+      Option optSettle = 
+            Option.builder("settle")
+            .hasArg()
+            .desc("when watching, how long files must be unchanged before they are used, " +
+                  "in ms, default 2000" )
+            .argName("ms").build();
+      optsNormal.addOption(optSettle);
+      Option optRoot = 
+            Option.builder("root")
+            .hasArg()
+            .desc("for the server, the directory which all pdfs must be under" )
+            .argName("dir").build();
+      optsNormal.addOption(optRoot);
+      Option optDryRun = 
+            Option.builder("dryrun")
+            .desc("on import, only check the bookmarks against the pdf, writing nothing" )
+            .build();
+      optsNormal.addOption(optDryRun);
+      addSettingOptions(optsNormal);
       
       // PDFtk style options
       Options optsPDFtk = new Options();
@@ -95,6 +336,7 @@ public class PDFtkBox {
       pdftk.addOption(optUpdateInfo);
       optsPDFtk.addOptionGroup(pdftk);
       optsPDFtk.addOption(optOutput);
+      addSettingOptions(optsPDFtk);
 
       
       // What are we doing?
@@ -112,33 +354,178 @@ public class PDFtkBox {
 
 
       // Normal-style import/export?
+      CommandLine line = null;
       try {
-         CommandLine line = parser.parse(optsNormal, args);
+         line = parser.parse(optsNormal, args);
+      } catch (ParseException pe) {}
+      if (line != null) {
+         // From here on, problems with the options are reported
+         JobSettings settings = getSettingsOrExit(line, optThreads, optMaxOpen,
+                                                  optPageOffset, optSettle, optServer);
          
          // Export
          if (line.hasOption(optExport.getOpt())) {
             doExport( line.getOptionValue(optExport.getOpt()), 
                       line.getOptionValue(optBookmarks.getOpt()), 
-                      line.getArgs() );
+                      line.getArgs(), settings );
+            printStats(settings);
+            return;
+         }
+         // Batch of jobs, failing with a non-zero exit if any job did
+         if (line.hasOption(optBatch.getOpt())) {
+            int failed = doBatch( line.getOptionValue(optBatch.getOpt()),
+                                  line.getOptionValue(optThreads.getOpt()),
+                                  line.getOptionValue(optMaxOpen.getOpt()),
+                                  settings );
+            printStats(settings);
+            if (failed > 0) {
+               System.exit(1);
+            }
+            return;
+         }
+         // Whole corpus into one stream
+         if (line.hasOption(optCorpus.getOpt())) {
+            doCorpus( line.getOptionValue(optCorpus.getOpt()),
+                      line.getOptionValue(optOutput.getOpt()),
+                      line.getOptionValue(optThreads.getOpt()),
+                      line.getOptionValue(optFormat.getOpt()),
+                      !line.hasOption(optUnordered.getOpt()),
+                      line.getOptionValue(optCheckpoint.getOpt()),
+                      settings );
+            printStats(settings);
+            return;
+         }
+         // Bookmarks from the text's headings
+         if (line.hasOption(optGenerate.getOpt())) {
+            boolean done = doGenerate( line.getOptionValue(optGenerate.getOpt()),
+                                       line.getOptionValue(optBookmarks.getOpt()),
+                                       line.getOptionValue(optOutput.getOpt()),
+                                       line.getOptionValue(optHeadings.getOpt()),
+                                       line.getOptionValue(optThreads.getOpt()),
+                                       settings );
+            printStats(settings);
+            if (! done) {
+               System.exit(1);
+            }
+            return;
+         }
+         // Checks only, failing with a non-zero exit for use as a gate
+         if (line.hasOption(optValidate.getOpt()) ||
+             (line.hasOption(optImport.getOpt()) && line.hasOption(optDryRun.getOpt()))) {
+            String pdf, bookmarks;
+            if (line.hasOption(optValidate.getOpt())) {
+               bookmarks = line.getOptionValue(optValidate.getOpt());
+               pdf = (line.getArgs().length > 0) ? line.getArgs()[0] : null;
+            } else {
+               bookmarks = line.getOptionValue(optBookmarks.getOpt());
+               pdf = line.getOptionValue(optImport.getOpt());
+            }
+            boolean valid = doValidate(bookmarks, pdf, settings);
+            printStats(settings);
+            if (! valid) {
+               System.exit(1);
+            }
+            return;
+         }
+         // Differences between outlines
+         if (line.hasOption(optDiff.getOpt())) {
+            doDiff( line.getOptionValue(optDiff.getOpt()),
+                    line.getOptionValue(optBookmarks.getOpt()),
+                    line.getArgs(), settings );
+            printStats(settings);
+            return;
+         }
+         // Minimal changes to an outline, with output either explicit or implicit
+         if (line.hasOption(optPatch.getOpt()) && 
+             (line.hasOption(optOutput.getOpt()) || line.getArgs().length > 0)) {
+            boolean done = doPatch( line.getOptionValue(optPatch.getOpt()),
+                                    line.getOptionValue(optBookmarks.getOpt()),
+                                    line.getOptionValue(optOutput.getOpt()),
+                                    line.getArgs(), settings );
+            printStats(settings);
+            if (! done) {
+               System.exit(1);
+            }
+            return;
+         }
+         // Page ranges into new pdfs, named from the output pattern
+         if (line.hasOption(optSplit.getOpt())) {
+            doSplit( line.getOptionValue(optSplit.getOpt()),
+                     line.getOptionValue(optRanges.getOpt()),
+                     line.getOptionValue(optOutput.getOpt()),
+                     settings );
+            printStats(settings);
+            return;
+         }
+         // Several pdfs into one, with explicit output only
+         if (line.hasOption(optMerge.getOpt()) && line.hasOption(optOutput.getOpt())) {
+            doMerge( line.getOptionValue(optMerge.getOpt()),
+                     line.getArgs(),
+                     line.getOptionValue(optOutput.getOpt()),
+                     settings );
+            printStats(settings);
+            return;
+         }
+         // Hot folder, running until killed
+         if (line.hasOption(optWatch.getOpt())) {
+            doWatch( line.getOptionValue(optWatch.getOpt()),
+                     line.getOptionValue(optOutput.getOpt()),
+                     line.getOptionValue(optThreads.getOpt()),
+                     line.getOptionValue(optMaxOpen.getOpt()),
+                     line.getOptionValue(optSettle.getOpt()),
+                     settings );
+            return;
+         }
+         // Local service
+         if (line.hasOption(optServer.getOpt())) {
+            String root = line.getOptionValue(optRoot.getOpt());
+            if (root == null || !new File(root).isDirectory()) {
+               System.err.println("Error - the server needs -root, the directory its pdfs are under");
+               System.exit(1);
+            }
+            doServer( line.getOptionValue(optServer.getOpt()),
+                      line.getOptionValue(optThreads.getOpt()),
+                      root, settings );
+            return;
+         }
+         // Copy between PDFs, with output either explicit or implicit
+         if (line.hasOption(optCopy.getOpt()) && line.getArgs().length > 0) {
+            boolean done = doCopy( line.getOptionValue(optCopy.getOpt()),
+                                   line.getOptionValue(optOutput.getOpt()),
+                                   line.getOptionValue(optPageOffset.getOpt()),
+                                   line.getOptionValue(optPageMap.getOpt()),
+                                   line.getArgs(), settings );
+            printStats(settings);
+            if (! done) {
+               System.exit(1);
+            }
             return;
          }
          // Import with explicit output filename
          if (line.hasOption(optImport.getOpt()) && 
              line.hasOption(optOutput.getOpt())) {
-            doImport( line.getOptionValue(optImport.getOpt()),
-                      line.getOptionValue(optBookmarks.getOpt()), 
-                      line.getOptionValue(optOutput.getOpt()), 
-                      null );
+            boolean done = doImport( line.getOptionValue(optImport.getOpt()),
+                                     line.getOptionValue(optBookmarks.getOpt()), 
+                                     line.getOptionValue(optOutput.getOpt()), 
+                                     null, settings );
+            printStats(settings);
+            if (! done) {
+               System.exit(1);
+            }
             return;
          }
          // Import with implicit output filename
          if (line.hasOption(optImport.getOpt()) && line.getArgs().length > 0) {
-            doImport( line.getOptionValue(optImport.getOpt()),
-                      line.getOptionValue(optBookmarks.getOpt()), 
-                      null, line.getArgs() );
+            boolean done = doImport( line.getOptionValue(optImport.getOpt()),
+                                     line.getOptionValue(optBookmarks.getOpt()), 
+                                     null, line.getArgs(), settings );
+            printStats(settings);
+            if (! done) {
+               System.exit(1);
+            }
             return;
          }
-      } catch (ParseException pe) {}
+      }
 
 
       // PDFtk-style
@@ -151,29 +538,38 @@ public class PDFtkBox {
                }
             }
          }
-         try {
-            // Input file comes first, then arguments
-            String input = args[0];
-            String[] pargs = new String[args.length-1];
-            System.arraycopy(args, 1, pargs, 0, pargs.length);
+         // Input file comes first, then arguments
+         String input = args[0];
+         String[] pargs = new String[args.length-1];
+         System.arraycopy(args, 1, pargs, 0, pargs.length);
 
-            // Parse what's left and check
-            CommandLine line = parser.parse(optsPDFtk, pargs);
+         // Parse what's left and check
+         line = null;
+         try {
+            line = parser.parse(optsPDFtk, pargs);
+         } catch (ParseException pe) {}
+         if (line != null) {
+            JobSettings settings = getSettingsOrExit(line);
 
             if (line.hasOption(optDumpData.getOpt())) {
                doExport(input,
                      line.getOptionValue(optOutput.getOpt()), 
-                     line.getArgs() );
+                     line.getArgs(), settings );
+               printStats(settings);
                return;
             }
             if (line.hasOption(optUpdateInfo.getOpt())) {
-               doImport(input, 
-                     line.getOptionValue(optUpdateInfo.getOpt()),
-                     line.getOptionValue(optOutput.getOpt()), 
-                     line.getArgs() );
+               boolean done = doImport(input, 
+                                    line.getOptionValue(optUpdateInfo.getOpt()),
+                                    line.getOptionValue(optOutput.getOpt()), 
+                                    line.getArgs(), settings );
+               printStats(settings);
+               if (! done) {
+                  System.exit(1);
+               }
                return;
             }
-         } catch (ParseException pe) {}
+         }
       }
 
 
@@ -199,9 +595,154 @@ public class PDFtkBox {
       // Ignore the opts help
    }
    
-   protected static void doExport(String pdf, String bookmarks, String[] args) throws IOException {
-      Bookmarks bm = new Bookmarks(new File(pdf));
+   protected static void addSettingOptions(Options opts) {
+      opts.addOption(optIncremental);
+      opts.addOption(optCompact);
+      opts.addOption(optStrict);
+      opts.addOption(optFullLoad);
+      opts.addOption(optPageLabels);
+      opts.addOption(optSalvage);
+      opts.addOption(optStats);
+      opts.addOption(optCache);
+      opts.addOption(optCacheMax);
+      opts.addOption(optMemory);
+      opts.addOption(optMemoryMax);
+      opts.addOption(optTempDir);
+      opts.addOption(optMaxTime);
+      opts.addOption(optMaxBookmarks);
+      opts.addOption(optMaxDepth);
+      opts.addOption(optMaxSize);
+   }
+   /**
+    * Returns the settings from the options, having checked that any of
+    *  the other numeric options given are whole numbers. As the options
+    *  are for this style, any problem with them is reported, and the
+    *  program exits, rather than going on to try the next style.
+    */
+   protected static JobSettings getSettingsOrExit(CommandLine line, Option... wholeNumbers) 
+         throws IOException {
+      try {
+         for (Option opt : wholeNumbers) {
+            getWholeNumber(line, opt, 0);
+         }
+         return getSettings(line);
+      } catch (ParseException pe) {
+         System.err.println("Error - " + pe.getMessage());
+         System.exit(1);
+         return null;
+      }
+   }
+   /**
+    * Returns the option's value as a whole number, or the default if
+    *  the option wasn't given
+    */
+   protected static long getWholeNumber(CommandLine line, Option opt, long defaultValue) 
+         throws ParseException {
+      String value = line.getOptionValue(opt.getOpt());
+      if (value == null) return defaultValue;
+      try {
+         return Long.parseLong(value.trim());
+      } catch (NumberFormatException e) {
+         throw new ParseException("Invalid number " + value + " for -" + opt.getOpt());
+      }
+   }
+   /**
+    * Returns the option's value as a number, or the default if the
+    *  option wasn't given
+    */
+   protected static double getNumber(CommandLine line, Option opt, double defaultValue) 
+         throws ParseException {
+      String value = line.getOptionValue(opt.getOpt());
+      if (value == null) return defaultValue;
+      try {
+         return Double.parseDouble(value.trim());
+      } catch (NumberFormatException e) {
+         throw new ParseException("Invalid number " + value + " for -" + opt.getOpt());
+      }
+   }
+   protected static JobSettings getSettings(CommandLine line) throws ParseException, IOException {
+      JobSettings settings = new JobSettings();
       
+      if (line.hasOption(optIncremental.getOpt())) {
+         if (line.hasOption(optCompact.getOpt())) {
+            throw new ParseException("Only one of -incremental and -compact can be given");
+         }
+         settings.setSaveMode(Bookmarks.SaveMode.Incremental);
+      }
+      if (line.hasOption(optCompact.getOpt())) {
+         settings.setSaveMode(Bookmarks.SaveMode.Compact);
+      }
+      if (line.hasOption(optStrict.getOpt())) {
+         settings.setStrict(true);
+      }
+      if (line.hasOption(optFormat.getOpt())) {
+         try {
+            settings.setCodec(BookmarkCodecs.forName(line.getOptionValue(optFormat.getOpt())));
+         } catch (IllegalArgumentException e) {
+            throw new ParseException(e.getMessage());
+         }
+      }
+      if (line.hasOption(optStats.getOpt())) {
+         settings.setMetrics(new Metrics());
+      }
+      if (line.hasOption(optFullLoad.getOpt())) {
+         if (line.hasOption(optSalvage.getOpt())) {
+            throw new ParseException("Only one of -fullload and -salvage can be given");
+         }
+         settings.setOutlineOnly(false);
+      }
+      if (line.hasOption(optSalvage.getOpt())) {
+         settings.setSalvage(true);
+      }
+      if (line.hasOption(optPageLabels.getOpt())) {
+         settings.setPageLabels(true);
+      }
+      if (line.hasOption(optCache.getOpt())) {
+         long maxMB = getWholeNumber(line, optCacheMax, 256);
+         settings.setExportCache(new ExportCache(new File(line.getOptionValue(optCache.getOpt())),
+                                                 maxMB * 1024 * 1024));
+      }
+      
+      // Split and merge write out whole documents, so use temp files
+      //  by default, everything else works in memory
+      boolean assembling = line.hasOption("split") || line.hasOption("merge");
+      String memory = line.getOptionValue(optMemory.getOpt(), assembling ? "temp" : "main");
+      MemoryUsageSetting memoryUsage;
+      if ("main".equalsIgnoreCase(memory)) {
+         memoryUsage = MemoryUsageSetting.setupMainMemoryOnly();
+      } else if ("mixed".equalsIgnoreCase(memory)) {
+         long maxMB = getWholeNumber(line, optMemoryMax, 64);
+         memoryUsage = MemoryUsageSetting.setupMixed(maxMB * 1024 * 1024);
+      } else if ("temp".equalsIgnoreCase(memory)) {
+         memoryUsage = MemoryUsageSetting.setupTempFileOnly();
+      } else {
+         throw new ParseException("Unknown memory type " + memory);
+      }
+      if (line.hasOption(optTempDir.getOpt())) {
+         memoryUsage.setTempDir(new File(line.getOptionValue(optTempDir.getOpt())));
+      }
+      settings.setMemoryUsage(memoryUsage);
+      
+      DocumentLimits limits = settings.getLimits();
+      limits.setMaxMillis((long)(getNumber(line, optMaxTime, 0) * 1000));
+      limits.setMaxNodes((int)getWholeNumber(line, optMaxBookmarks, 0));
+      limits.setMaxDepth((int)getWholeNumber(line, optMaxDepth, 0));
+      limits.setMaxBytes((long)(getNumber(line, optMaxSize, 0) * 1024 * 1024));
+      
+      return settings;
+   }
+   
+   protected static void printStats(JobSettings settings) {
+      if (settings.getMetrics().isEnabled()) {
+         System.err.println(settings.getMetrics().getSummary());
+      }
+   }
+   
+   protected static void doExport(String pdf, String bookmarks, String[] args) throws IOException {
+      doExport(pdf, bookmarks, args, new JobSettings());
+   }
+   protected static void doExport(String pdf, String bookmarks, String[] args,
+                                  JobSettings settings) throws IOException {
       File bmf = null;
       if (bookmarks != null) {
          bmf = new File(bookmarks);
@@ -209,28 +750,105 @@ public class PDFtkBox {
          bmf = new File(args[0]);
       }
       
-      PrintWriter output;
+      BookmarkCodec codec = settings.getCodec();
+      OutputStream ostream;
       if (bmf == null) {
-         output = new PrintWriter(System.out);
+         ostream = System.out;
+         // Text to the console has always been in the platform charset
+         if (codec instanceof PDFtkCodec) {
+            codec = new PDFtkCodec(Charset.defaultCharset());
+         }
       } else {
-         output = new PrintWriter(bmf, "UTF-8");
+         ostream = new FileOutputStream(bmf);
       }
       
-      bm.exportBookmarks(output);
-      output.close();
-      bm.close();
+      final BookmarkCodec.Writer output = codec.createWriter(settings.getMetrics().countWritten(ostream));
+      try {
+         settings.exportBookmarks(new File(pdf), new BookmarkParser.BookmarkHandler() {
+            @Override
+            public void handleBookmark(PDFBookmark bookmark, int lineNumber) throws IOException {
+               output.write(bookmark);
+            }
+         });
+      } finally {
+         output.close();
+      }
    }
-   protected static void doImport(String pdf, String bookmarks, String output, String[] args) throws IOException {
-      Bookmarks bm = new Bookmarks(new File(pdf));
-
+   protected static boolean doImport(String pdf, String bookmarks, String output, String[] args) throws IOException {
+      return doImport(pdf, bookmarks, output, args, new JobSettings());
+   }
+   protected static boolean doImport(String pdf, String bookmarks, String output, String[] args,
+                                     JobSettings settings) throws IOException {
+      File outF;
+      if (output != null) {
+         outF = new File(output);
+      } else {
+         outF = new File(args[0]);
+      }
+      
+      try (Bookmarks bm = settings.open(new File(pdf))) {
+         InputStream istream;
+         if (bookmarks != null) {
+            istream = new FileInputStream(new File(bookmarks));
+         } else {
+            istream = System.in;
+         }
+         
+         try (InputStream input = settings.getMetrics().countRead(istream)) {
+            return bm.importBookmarks(input, settings.getCodec(), outF);
+         }
+      }
+   }
+   protected static boolean doValidate(String bookmarks, String pdf, JobSettings settings) throws IOException {
+      // Only the page count is needed, which the outline reader gets cheaply
+      int pageCount = -1;
+      if (pdf != null) {
+         try (Bookmarks bm = settings.openForReading(new File(pdf))) {
+            pageCount = bm.getNumberOfPages();
+         }
+      }
+      
       InputStream istream;
-      if (bookmarks != null) {
+      if (bookmarks == null || "-".equals(bookmarks)) {
+         istream = System.in;
+      } else {
          istream = new FileInputStream(new File(bookmarks));
+      }
+      
+      BookmarkValidator validator;
+      try (InputStream input = settings.getMetrics().countRead(istream)) {
+         validator = BookmarkValidator.validate(input, settings.getCodec(), pageCount);
+      }
+      for (BookmarkParseException problem : validator.getProblems()) {
+         System.err.println("Error - " + problem.getMessage());
+      }
+      if (validator.getCount() == 0) {
+         System.err.println("Error - no bookmarks found to import");
+      }
+      if (validator.isValid()) {
+         System.out.println("Valid, " + validator.getCount() + " bookmarks");
+      }
+      return validator.isValid();
+   }
+   protected static void doDiff(String pdf, String bookmarks, String[] args,
+                                JobSettings settings) throws IOException {
+      List<PDFBookmark> to;
+      if (args.length > 0) {
+         try (Bookmarks other = settings.openForReading(new File(args[0]))) {
+            to = other.getBookmarks();
+         }
       } else {
-         istream = System.in;
+         to = readBookmarks(bookmarks, settings);
       }
-      BufferedReader input = new BufferedReader(new InputStreamReader(istream,"UTF-8"));
-
+      
+      try (Bookmarks bm = settings.openForReading(new File(pdf))) {
+         PrintWriter output = new PrintWriter(System.out);
+         bm.diffBookmarks(to).write(output);
+         output.flush();
+      }
+   }
+   protected static boolean doPatch(String pdf, String bookmarks, String output, String[] args,
+                                    JobSettings settings) throws IOException {
       File outF;
       if (output != null) {
          outF = new File(output);
@@ -238,9 +856,260 @@ public class PDFtkBox {
          outF = new File(args[0]);
       }
       
-      bm.importBookmarks(input, outF);
+      List<PDFBookmark> to = readBookmarks(bookmarks, settings);
+      try (Bookmarks bm = settings.open(new File(pdf))) {
+         return bm.patchBookmarks(to, outF);
+      }
+   }
+   /**
+    * Reads all the bookmarks from the file, or stdin if none given,
+    *  in the chosen format
+    */
+   protected static List<PDFBookmark> readBookmarks(String bookmarks, JobSettings settings) throws IOException {
+      InputStream istream;
+      if (bookmarks == null || "-".equals(bookmarks)) {
+         istream = System.in;
+      } else {
+         istream = new FileInputStream(new File(bookmarks));
+      }
+      
+      final List<PDFBookmark> read = new ArrayList<>();
+      try (InputStream input = settings.getMetrics().countRead(istream)) {
+         settings.getCodec().read(input, settings.isStrict(), new BookmarkParser.BookmarkHandler() {
+            @Override
+            public void handleBookmark(PDFBookmark bookmark, int lineNumber) {
+               read.add(bookmark);
+            }
+         });
+      }
+      return read;
+   }
+   protected static boolean doCopy(String source, String output, String pageOffset, String pageMap,
+                                   String[] args, JobSettings settings) throws IOException {
+      String target = args[0];
+      File outF;
+      if (output != null) {
+         outF = new File(output);
+      } else if (args.length > 1) {
+         outF = new File(args[1]);
+      } else {
+         throw new IllegalArgumentException("No output pdf given");
+      }
+      int offset = (pageOffset == null) ? 0 : Integer.parseInt(pageOffset);
       
-      input.close();
-      bm.close();
+      try (Bookmarks from = settings.open(new File(source));
+           Bookmarks to = settings.open(new File(target))) {
+         return to.copyBookmarks(from, offset, OutlineCopier.parsePageMap(pageMap), outF);
+      }
+   }
+   protected static void doSplit(String pdf, String ranges, String output,
+                                 JobSettings settings) throws IOException {
+      File pdfF = new File(pdf);
+      // Numbered from the pattern, or after the source by default
+      if (output == null) {
+         String name = pdfF.getName().replaceFirst("(?i)\\.pdf$", "");
+         output = new File(pdfF.getAbsoluteFile().getParentFile(), name + "-%d.pdf").getPath();
+      } else if (! output.contains("%d")) {
+         throw new IllegalArgumentException("Output for split must contain %d for the part number");
+      }
+      
+      try (Bookmarks bm = settings.open(pdfF)) {
+         List<int[]> parts = PageAssembler.parseRanges(ranges, bm.getNumberOfPages());
+         List<PDFBookmark> bookmarks = bm.getBookmarks();
+         for (int i=0; i<parts.size(); i++) {
+            int[] range = parts.get(i);
+            try (PageAssembler part = new PageAssembler(settings.getMemoryUsage())) {
+               part.setMetrics(settings.getMetrics());
+               part.addPages(bm, bookmarks, range[0], range[1], null);
+               part.save(new File(output.replace("%d", Integer.toString(i+1))));
+            }
+         }
+      }
+   }
+   protected static void doMerge(String first, String[] others, String output,
+                                 JobSettings settings) throws IOException {
+      List<File> pdfs = new ArrayList<>();
+      pdfs.add(new File(first));
+      for (String other : others) {
+         pdfs.add(new File(other));
+      }
+      
+      // All the sources must stay open until the merged pdf is written
+      List<Bookmarks> sources = new ArrayList<>();
+      try (PageAssembler merged = new PageAssembler(settings.getMemoryUsage())) {
+         merged.setMetrics(settings.getMetrics());
+         for (File pdf : pdfs) {
+            Bookmarks bm = settings.open(pdf);
+            sources.add(bm);
+            String title = pdf.getName().replaceFirst("(?i)\\.pdf$", "");
+            merged.addPages(bm, 1, bm.getNumberOfPages(), title);
+         }
+         merged.save(new File(output));
+      } finally {
+         for (Bookmarks bm : sources) {
+            bm.close();
+         }
+      }
+   }
+   protected static void doServer(String port, String threads, String root,
+                                  JobSettings settings) throws IOException {
+      int nThreads = Runtime.getRuntime().availableProcessors();
+      if (threads != null) {
+         nThreads = Integer.parseInt(threads);
+      }
+      
+      settings.getMetrics().register();
+      BookmarkServer server = new BookmarkServer(Integer.parseInt(port), nThreads, new File(root), settings);
+      String token = System.getenv(BookmarkServer.TOKEN_ENV);
+      if (token != null && !token.trim().isEmpty()) {
+         server.setToken(token);
+      }
+      server.start();
+      System.err.println("Bookmarks service listening on localhost port " + server.getPort() +
+                         ", for pdfs under " + server.getRoot());
+      if (token == null || token.trim().isEmpty()) {
+         System.err.println("Token for requests is " + server.getToken() + 
+                            ", set " + BookmarkServer.TOKEN_ENV + " to choose one");
+      }
+   }
+   /**
+    * Runs the jobs of the manifest, returning the number which failed
+    */
+   protected static int doBatch(String manifest, String threads, String maxOpen, 
+                                JobSettings settings) throws IOException {
+      int nThreads = Runtime.getRuntime().availableProcessors();
+      if (threads != null) {
+         nThreads = Integer.parseInt(threads);
+      }
+      int nOpen = nThreads;
+      if (maxOpen != null) {
+         nOpen = Integer.parseInt(maxOpen);
+      }
+      
+      InputStream istream;
+      if (manifest == null || "-".equals(manifest)) {
+         istream = System.in;
+      } else {
+         istream = new FileInputStream(new File(manifest));
+      }
+      
+      settings.getMetrics().register();
+      BatchRunner batch = new BatchRunner(nThreads, nOpen);
+      batch.setSettings(settings);
+      try (BufferedReader input = new BufferedReader(new InputStreamReader(istream,"UTF-8"))) {
+         return batch.run(batch.readManifest(input), System.out);
+      }
+   }
+   protected static void doWatch(String directory, String output, String threads, String maxOpen,
+                                 String settle, JobSettings settings) throws IOException {
+      int nThreads = Runtime.getRuntime().availableProcessors();
+      if (threads != null) {
+         nThreads = Integer.parseInt(threads);
+      }
+      int nQueued = nThreads;
+      if (maxOpen != null) {
+         nQueued = Integer.parseInt(maxOpen);
+      }
+      
+      File dir = new File(directory);
+      File outDir = (output == null) ? new File(dir, "out") : new File(output);
+      settings.getMetrics().register();
+      HotFolder watcher = new HotFolder(dir, outDir, nThreads, nQueued);
+      watcher.setSettings(settings);
+      if (settle != null) {
+         watcher.setSettleMillis(Long.parseLong(settle));
+      }
+      try {
+         watcher.run();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+   }
+   protected static void doCorpus(String corpus, String output, String threads, String format,
+                                  boolean ordered, String checkpoint, JobSettings settings) throws IOException {
+      int nThreads = Runtime.getRuntime().availableProcessors();
+      if (threads != null) {
+         nThreads = Integer.parseInt(threads);
+      }
+      
+      settings.getMetrics().register();
+      CorpusExporter exporter = new CorpusExporter(nThreads);
+      exporter.setSettings(settings);
+      exporter.setOrdered(ordered);
+      if (format == null || "pdftk".equalsIgnoreCase(format)) {
+         exporter.setFormat(CorpusExporter.Format.PDFtk);
+      } else if ("json".equalsIgnoreCase(format)) {
+         exporter.setFormat(CorpusExporter.Format.JSON);
+      } else {
+         throw new IllegalArgumentException("Unknown format " + format);
+      }
+      if (checkpoint != null) {
+         exporter.setCheckpoint(new File(checkpoint));
+      }
+      File outF = (output == null) ? null : new File(output);
+      
+      File corpusF = new File(corpus);
+      if (corpusF.isDirectory()) {
+         exporter.run(CorpusExporter.listDirectory(corpusF), outF);
+      } else {
+         InputStream istream;
+         if ("-".equals(corpus)) {
+            istream = System.in;
+         } else {
+            istream = new FileInputStream(corpusF);
+         }
+         try (BufferedReader input = new BufferedReader(new InputStreamReader(istream,"UTF-8"))) {
+            exporter.run(CorpusExporter.listFile(input), outF);
+         }
+      }
+   }
+   protected static boolean doGenerate(String pdf, String bookmarks, String output, String headings,
+                                       String threads, JobSettings settings) throws IOException {
+      int nThreads = Runtime.getRuntime().availableProcessors();
+      if (threads != null) {
+         nThreads = Integer.parseInt(threads);
+      }
+      
+      OutlineGenerator generator = new OutlineGenerator(nThreads);
+      generator.setMemoryUsage(settings.getMemoryUsage());
+      if (headings != null) {
+         try (BufferedReader input = new BufferedReader(new InputStreamReader(
+                                       new FileInputStream(headings),"UTF-8"))) {
+            generator.setHeadingPatterns(OutlineGenerator.readPatterns(input));
+         }
+      }
+      
+      // Loaded once, for the page count, one of the workers, and any import,
+      //  and counted in the metrics like any other document
+      Metrics metrics = settings.getMetrics();
+      List<PDFBookmark> generated;
+      try (Bookmarks bm = settings.open(new File(pdf))) {
+         long start = metrics.start();
+         generated = generator.generate(new File(pdf), bm.getDocument());
+         metrics.end(Metrics.Phase.Extract, start);
+         
+         // Either straight into a new pdf, or out as bookmarks to edit
+         if (output != null) {
+            return bm.importBookmarks(generated, new File(output));
+         }
+      }
+      
+      BookmarkCodec codec = settings.getCodec();
+      OutputStream ostream;
+      if (bookmarks == null) {
+         ostream = System.out;
+         if (codec instanceof PDFtkCodec) {
+            codec = new PDFtkCodec(Charset.defaultCharset());
+         }
+      } else {
+         ostream = new FileOutputStream(new File(bookmarks));
+      }
+      BookmarkCodec.Writer writer = codec.createWriter(metrics.countWritten(ostream));
+      for (PDFBookmark bookmark : generated) {
+         writer.write(bookmark);
+      }
+      writer.close();
+      metrics.add(Metrics.Counter.Bookmarks, generated.size());
+      return true;
    }
 }
@@ -0,0 +1,95 @@
+/* ====================================================================
+  Copyright 2017 Quanticate Ltd
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+==================================================================== */
+package com.quanticate.opensource.pdftkbox;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+
+/**
+ * The PDFtk-like text format, of BookmarkBegin then Key: Value lines.
+ *  Titles can't contain line breaks in this format.
+ */
+public class PDFtkCodec implements BookmarkCodec {
+   private final Charset charset;
+
+   public PDFtkCodec(Charset charset) {
+      this.charset = charset;
+   }
+
+   @Override
+   public String getName() {
+      return "pdftk";
+   }
+
+   @Override
+   public Writer createWriter(OutputStream output) {
+      final PrintWriter bm = new PrintWriter(new BufferedWriter(new OutputStreamWriter(output, charset)));
+      return new Writer() {
+         @Override
+         public void write(PDFBookmark bookmark) {
+            render(bookmark, bm);
+         }
+         @Override
+         public void close() {
+            bm.close();
+         }
+      };
+   }
+
+   @Override
+   public void read(InputStream input, boolean strict, BookmarkParser.BookmarkHandler handler) throws IOException {
+      BufferedReader reader = new BufferedReader(new InputStreamReader(input, charset));
+      new BookmarkParser(strict).parse(reader, handler);
+   }
+
+   /**
+    * Writes out a single bookmark as PDFtk-like text
+    */
+   public static void render(PDFBookmark bookmark, PrintWriter bm) {
+      bm.append(Bookmarks.BookmarkBegin).append(System.lineSeparator());
+      bm.append(Bookmarks.BookmarkTitle).append(": ")
+         .append(bookmark.getTitle()).append(System.lineSeparator());
+      bm.append(Bookmarks.BookmarkLevel).append(": ")
+         .append(""+bookmark.getLevel()).append(System.lineSeparator());
+      
+      if (bookmark.getPageNumber() > 0)
+         bm.append(Bookmarks.BookmarkPageNumber).append(": ")
+           .append(""+bookmark.getPageNumber()).append(System.lineSeparator());
+      
+      if (bookmark.getPageLabel() != null)
+         bm.append(Bookmarks.BookmarkPageLabel).append(": ")
+           .append(bookmark.getPageLabel()).append(System.lineSeparator());
+      
+      if (bookmark.getYOffset() > 0)
+         bm.append(Bookmarks.BookmarkYOffset).append(": ")
+            .append(""+bookmark.getYOffset()).append(System.lineSeparator());
+      
+      if (bookmark.getZoom() != null)
+         bm.append(Bookmarks.BookmarkZoom).append(": ")
+            .append(bookmark.getZoom()).append(System.lineSeparator());
+      
+      if (bookmark.getUncertainty() != null)
+         bm.append(Bookmarks.BookmarkUncertain).append(": ")
+            .append(bookmark.getUncertainty()).append(System.lineSeparator());
+   }
+}
@@ -0,0 +1,333 @@
+/* ====================================================================
+  Copyright 2017 Quanticate Ltd
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+==================================================================== */
+package com.quanticate.opensource.pdftkbox;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSString;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.destination.PDDestination;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.destination.PDNamedDestination;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.destination.PDPageDestination;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.outline.PDDocumentOutline;
+
+/**
+ * Builds a new PDF from ranges of pages of other PDFs, along with
+ *  the bookmarks to those pages, for splitting and merging.
+ * Pages are added by reference rather than copied, so their contents,
+ *  fonts and images are only read from the source files as the new
+ *  PDF is written, and the sources must stay open until it's saved.
+ * Links between pages are kept when both pages are in the new PDF,
+ *  and dropped otherwise. Form fields, article threads and the
+ *  structure tree aren't carried over.
+ */
+public class PageAssembler implements Closeable {
+   // Page attributes which may be inherited from the page tree
+   private static final COSName[] INHERITABLE = {
+      COSName.RESOURCES, COSName.MEDIA_BOX, COSName.CROP_BOX, COSName.ROTATE
+   };
+   // Annotation entries which may point at other annotations
+   private static final COSName[] ANNOTATION_LINKS = {
+      COSName.PARENT, COSName.getPDFName("Popup"), COSName.getPDFName("IRT")
+   };
+   private static final COSName LINK = COSName.getPDFName("Link");
+
+   private final PDDocument target;
+   private final List<PDFBookmark> bookmarks = new ArrayList<>();
+   // Source page to its new page, for re-pointing links
+   private final Map<COSDictionary,COSDictionary> pages = new IdentityHashMap<>();
+   private Metrics metrics = Metrics.DISABLED;
+
+   public PageAssembler(MemoryUsageSetting memoryUsage) {
+      target = new PDDocument(memoryUsage);
+   }
+
+   /**
+    * Where timings and counts of the work get recorded
+    */
+   public Metrics getMetrics() {
+      return metrics;
+   }
+   public void setMetrics(Metrics metrics) {
+      this.metrics = metrics;
+   }
+
+   /**
+    * Returns the number of pages added so far
+    */
+   public int getNumberOfPages() {
+      return target.getNumberOfPages();
+   }
+
+   /**
+    * Adds a range of (1-based, inclusive) pages of the source to the end,
+    *  along with the bookmarks to them, renumbered to their new pages.
+    *  If a title is given, the bookmarks go under a new top level one,
+    *  to the first of the pages.
+    */
+   public void addPages(Bookmarks source, int firstPage, int lastPage, String title) throws IOException {
+      addPages(source, source.getBookmarks(), firstPage, lastPage, title);
+   }
+   /**
+    * Adds a range of pages of the source to the end, as above, taking
+    *  the bookmarks from those already read from the source, so they
+    *  needn't be read again for each range
+    */
+   public void addPages(Bookmarks source, List<PDFBookmark> sourceBookmarks, int firstPage, int lastPage,
+                        String title) throws IOException {
+      int pagesBefore = target.getNumberOfPages();
+
+      long start = metrics.start();
+      PDDocument document = source.getDocument();
+      List<COSDictionary> added = new ArrayList<>();
+      // One walk of the page tree, rather than a lookup for each page
+      int pageNumber = 0;
+      for (PDPage sourcePage : document.getPages()) {
+         pageNumber++;
+         if (pageNumber < firstPage) continue;
+         if (pageNumber > lastPage) break;
+
+         COSDictionary page = sourcePage.getCOSObject();
+         COSDictionary copy = copyPage(page);
+         pages.put(page, copy);
+         target.addPage(new PDPage(copy));
+         added.add(copy);
+      }
+      // Only now are all the pages there to link to
+      for (COSDictionary page : added) {
+         copyAnnotations(page, source.getNamedDestinations());
+      }
+      metrics.end(Metrics.Phase.Assemble, start);
+
+      int levelOffset = 0;
+      if (title != null) {
+         bookmarks.add(new PDFBookmark(title, 1, pagesBefore + 1, 0, null));
+         levelOffset = 1;
+      }
+      for (PDFBookmark bookmark : Bookmarks.selectPages(sourceBookmarks, firstPage, lastPage)) {
+         bookmarks.add(new PDFBookmark(bookmark.getTitle(), bookmark.getLevel() + levelOffset,
+                                       bookmark.getPageNumber() + pagesBefore,
+                                       bookmark.getYOffset(), bookmark.getZoom()));
+      }
+   }
+
+   /**
+    * Takes a shallow copy of the page, with anything it inherits from
+    *  the source page tree set on it directly. Everything it refers to,
+    *  such as the contents and resources, is shared with the source.
+    */
+   protected static COSDictionary copyPage(COSDictionary page) {
+      COSDictionary copy = new COSDictionary(page);
+      for (COSName key : INHERITABLE) {
+         if (! copy.containsKey(key)) {
+            COSBase value = getInherited(page, key);
+            if (value != null) copy.setItem(key, value);
+         }
+      }
+      copy.removeItem(COSName.PARENT);
+      // Article beads would lead back to the other source pages
+      copy.removeItem(COSName.B);
+      return copy;
+   }
+   /**
+    * Finds an inherited page attribute, without resolving it, so
+    *  shared objects stay shared
+    */
+   private static COSBase getInherited(COSDictionary page, COSName key) {
+      COSBase parent = page.getDictionaryObject(COSName.PARENT);
+      // Limited, in case of loops in broken files
+      for (int depth=0; depth<64 && parent instanceof COSDictionary; depth++) {
+         COSDictionary node = (COSDictionary)parent;
+         COSBase value = node.getItem(key);
+         if (value != null) return value;
+         parent = node.getDictionaryObject(COSName.PARENT);
+      }
+      return null;
+   }
+
+   /**
+    * Replaces the page's annotations with copies belonging to the new
+    *  page, with links re-pointed to the new pages, or dropped if they
+    *  go to pages which aren't in the new PDF
+    */
+   protected void copyAnnotations(COSDictionary page, NamedDestinations names) throws IOException {
+      COSBase annots = page.getDictionaryObject(COSName.ANNOTS);
+      if (!(annots instanceof COSArray)) return;
+
+      // Copy them all first, so they can refer to each other
+      Map<COSDictionary,COSDictionary> copies = new IdentityHashMap<>();
+      List<COSDictionary> ordered = new ArrayList<>();
+      for (COSBase annot : (COSArray)annots) {
+         COSBase value = (annot instanceof COSObject) ? ((COSObject)annot).getObject() : annot;
+         if (value instanceof COSDictionary && !copies.containsKey(value)) {
+            COSDictionary copy = new COSDictionary((COSDictionary)value);
+            copies.put((COSDictionary)value, copy);
+            ordered.add(copy);
+         }
+      }
+
+      COSArray copied = new COSArray();
+      for (COSDictionary copy : ordered) {
+         copy.setItem(COSName.P, page);
+         for (COSName key : ANNOTATION_LINKS) {
+            COSBase linked = copy.getDictionaryObject(key);
+            if (copies.containsKey(linked)) {
+               copy.setItem(key, copies.get(linked));
+            } else {
+               // Form fields, or annotations on other pages
+               copy.removeItem(key);
+            }
+         }
+
+         if (LINK.equals(copy.getCOSName(COSName.SUBTYPE)) && !copyLink(copy, names)) {
+            continue;
+         }
+         copied.add(copy);
+      }
+
+      if (copied.size() == 0) {
+         page.removeItem(COSName.ANNOTS);
+      } else {
+         page.setItem(COSName.ANNOTS, copied);
+      }
+   }
+   /**
+    * Re-points a link to the new page, returning false if the page
+    *  it goes to isn't in the new PDF. Links to other documents
+    *  and the web are left as they are.
+    */
+   private boolean copyLink(COSDictionary link, NamedDestinations names) throws IOException {
+      COSBase dest = link.getDictionaryObject(COSName.DEST);
+      if (dest != null) {
+         COSBase mapped = mapDestination(dest, names);
+         if (mapped == null) return false;
+         link.setItem(COSName.DEST, mapped);
+         return true;
+      }
+
+      COSBase action = link.getDictionaryObject(COSName.A);
+      if (action instanceof COSDictionary &&
+          "GoTo".equals(((COSDictionary)action).getNameAsString(COSName.S))) {
+         COSDictionary goTo = new COSDictionary((COSDictionary)action);
+         COSBase mapped = mapDestination(goTo.getDictionaryObject(COSName.D), names);
+         if (mapped == null) return false;
+         goTo.setItem(COSName.D, mapped);
+         link.setItem(COSName.A, goTo);
+      }
+      return true;
+   }
+   /**
+    * Returns the destination with its page swapped for the new one,
+    *  resolving any named destination, or null if there's no new page
+    */
+   private COSBase mapDestination(COSBase dest, NamedDestinations names) throws IOException {
+      if (dest instanceof COSName || dest instanceof COSString) {
+         PDPageDestination resolved = names.resolve((PDNamedDestination)PDDestination.create(dest));
+         if (resolved == null) return null;
+         dest = resolved.getCOSObject();
+      }
+      if (!(dest instanceof COSArray) || ((COSArray)dest).size() == 0) return null;
+
+      COSArray from = (COSArray)dest;
+      COSBase sourcePage = from.getObject(0);
+      COSDictionary page = pages.get(sourcePage);
+      if (page == null) return null;
+
+      COSArray to = new COSArray();
+      to.add(page);
+      for (int i=1; i<from.size(); i++) {
+         to.add(from.get(i));
+      }
+      return to;
+   }
+
+   /**
+    * Saves the new PDF, with an outline of the bookmarks of the pages
+    *  added, if they had any. The sources are read from as it's written.
+    */
+   public void save(File output) throws IOException {
+      if (! bookmarks.isEmpty()) {
+         long start = metrics.start();
+         PDDocumentOutline outline = new PDDocumentOutline();
+         target.getDocumentCatalog().setDocumentOutline(outline);
+         OutlineBuilder builder = new OutlineBuilder(outline);
+         for (PDFBookmark bookmark : bookmarks) {
+            builder.handleBookmark(bookmark, -1);
+         }
+         metrics.end(Metrics.Phase.Build, start);
+         metrics.add(Metrics.Counter.Bookmarks, builder.getCount());
+      }
+
+      long start = metrics.start();
+      target.save(output);
+      metrics.end(Metrics.Phase.Save, start);
+      if (metrics.isEnabled()) {
+         metrics.add(Metrics.Counter.BytesWritten, output.length());
+      }
+   }
+
+   /**
+    * Parses page ranges of the form "1-10,11-20,21-", where a missing
+    *  end is the last page, and a single number is just that page
+    */
+   public static List<int[]> parseRanges(String ranges, int pageCount) {
+      List<int[]> parsed = new ArrayList<>();
+      if (ranges == null || ranges.trim().isEmpty()) {
+         throw new IllegalArgumentException("No page ranges given");
+      }
+
+      for (String range : ranges.split(",")) {
+         String[] ends = range.split("-", -1);
+         int first, last;
+         try {
+            if (ends.length == 1) {
+               first = last = Integer.parseInt(ends[0].trim());
+            } else if (ends.length == 2) {
+               first = Integer.parseInt(ends[0].trim());
+               last = ends[1].trim().isEmpty() ? pageCount : Integer.parseInt(ends[1].trim());
+            } else {
+               throw new NumberFormatException();
+            }
+         } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid page range " + range + ", should be first-last");
+         }
+         if (first < 1 || last > pageCount || first > last) {
+            throw new IllegalArgumentException("Invalid page range " + range +
+                                               " for a pdf with " + pageCount + " pages");
+         }
+         parsed.add(new int[] { first, last });
+      }
+      return parsed;
+   }
+
+   @Override
+   public void close() throws IOException {
+      target.close();
+   }
+}
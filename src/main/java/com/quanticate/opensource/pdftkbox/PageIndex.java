@@ -0,0 +1,84 @@
+/* ====================================================================
+  Copyright 2017 Quanticate Ltd
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+==================================================================== */
+package com.quanticate.opensource.pdftkbox;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageTree;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.destination.PDPageDestination;
+
+/**
+ * Page object to page index lookup for a document, built with
+ *  a single walk of the page tree, so that resolving the page
+ *  of each bookmark doesn't need to walk it again.
+ */
+public class PageIndex {
+   private final Map<COSDictionary,Integer> indexes;
+
+   public PageIndex(PDDocument document) {
+      PDPageTree pages = document.getPages();
+      indexes = new IdentityHashMap<>(pages.getCount());
+
+      int index = 0;
+      for (PDPage page : pages) {
+         indexes.put(page.getCOSObject(), index);
+         index++;
+      }
+   }
+
+   /**
+    * Returns the number of pages in the document
+    */
+   public int getPageCount() {
+      return indexes.size();
+   }
+
+   /**
+    * Returns the 0-based index of the page object, or -1 if it
+    *  isn't one of the document's pages
+    */
+   public int getPageIndex(COSDictionary page) {
+      Integer index = indexes.get(page);
+      if (index != null) {
+         return index;
+      }
+      return -1;
+   }
+
+   /**
+    * Returns the 0-based index of the page the destination points
+    *  to, or -1 if it can't be found. Behaves as
+    *  {@link PDPageDestination#retrievePageNumber()}
+    */
+   public int getPageIndex(PDPageDestination dest) {
+      PDPage page = dest.getPage();
+      if (page == null) {
+         // Destination by page number, eg for a remote document
+         return dest.getPageNumber();
+      }
+
+      Integer index = indexes.get(page.getCOSObject());
+      if (index != null) {
+         return index;
+      }
+      // Not in our page tree, so let PDFBox have a go
+      return dest.retrievePageNumber();
+   }
+}
@@ -0,0 +1,267 @@
+/* ====================================================================
+  Copyright 2017 Quanticate Ltd
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+==================================================================== */
+package com.quanticate.opensource.pdftkbox;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSNumber;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+/**
+ * Page index to page label lookup for a document, and back again,
+ *  built from its page label ranges with a single walk of the number
+ *  tree. Only the ranges are held, not a label per page, so finding
+ *  a label is a binary search of the ranges and formatting a number.
+ * Documents without page labels get the usual 1-based page numbers.
+ */
+public class PageLabelIndex {
+   private static final char DECIMAL = 'D';
+   private static final char NONE = 0;
+   // Limits the walk of the number tree, in case of loops in broken files
+   private static final int MAX_NODES = 100000;
+   // Past this, roman numerals and letters get silly, so are given as digits
+   private static final int MAX_LETTERED = 100000;
+
+   private final int pageCount;
+   // Each range's first page index, and how its pages are labelled
+   private final int[] starts;
+   private final char[] styles;
+   private final String[] prefixes;
+   private final int[] firstNumbers;
+
+   public PageLabelIndex(PDDocument document) {
+      this(document.getDocumentCatalog().getCOSObject().getDictionaryObject(COSName.PAGE_LABELS),
+           document.getNumberOfPages());
+   }
+   /**
+    * Builds the lookup from the page labels number tree, which may
+    *  be null if the document doesn't have one
+    */
+   public PageLabelIndex(COSBase pageLabels, int pageCount) {
+      this.pageCount = pageCount;
+
+      TreeMap<Integer,COSDictionary> ranges = new TreeMap<>();
+      readNumberTree(pageLabels, ranges);
+      // The first range should start at the first page, but may not
+      if (! ranges.containsKey(0)) {
+         ranges.put(0, null);
+      }
+
+      int count = ranges.size();
+      starts = new int[count];
+      styles = new char[count];
+      prefixes = new String[count];
+      firstNumbers = new int[count];
+      int i = 0;
+      for (Map.Entry<Integer,COSDictionary> range : ranges.entrySet()) {
+         starts[i] = range.getKey();
+         COSDictionary label = range.getValue();
+         if (label == null) {
+            styles[i] = DECIMAL;
+            prefixes[i] = "";
+            firstNumbers[i] = 1;
+         } else {
+            String style = label.getNameAsString(COSName.S);
+            styles[i] = (style == null || style.length() != 1) ? NONE : style.charAt(0);
+            String prefix = label.getString(COSName.P);
+            prefixes[i] = (prefix == null) ? "" : prefix;
+            firstNumbers[i] = Math.max(1, label.getInt(COSName.ST, 1));
+         }
+         i++;
+      }
+   }
+   private static void readNumberTree(COSBase root, TreeMap<Integer,COSDictionary> ranges) {
+      Set<COSBase> seen = Collections.newSetFromMap(new IdentityHashMap<COSBase,Boolean>());
+      Deque<COSBase> todo = new ArrayDeque<>();
+      if (root != null) todo.push(root);
+      while (! todo.isEmpty() && seen.size() < MAX_NODES) {
+         COSBase node = todo.pop();
+         if (!(node instanceof COSDictionary) || !seen.add(node)) continue;
+         COSDictionary dict = (COSDictionary)node;
+
+         COSBase nums = dict.getDictionaryObject(COSName.NUMS);
+         if (nums instanceof COSArray) {
+            COSArray pairs = (COSArray)nums;
+            for (int i=0; i+1<pairs.size(); i+=2) {
+               COSBase key = pairs.getObject(i);
+               COSBase value = pairs.getObject(i+1);
+               if (key instanceof COSNumber && value instanceof COSDictionary) {
+                  int start = ((COSNumber)key).intValue();
+                  if (start >= 0) ranges.put(start, (COSDictionary)value);
+               }
+            }
+         }
+         COSBase kids = dict.getDictionaryObject(COSName.KIDS);
+         if (kids instanceof COSArray) {
+            COSArray kidsArray = (COSArray)kids;
+            for (int i=kidsArray.size()-1; i>=0; i--) {
+               todo.push(kidsArray.getObject(i));
+            }
+         }
+      }
+   }
+
+   /**
+    * Returns the number of label ranges, including the default one
+    *  for documents without page labels
+    */
+   public int getRangeCount() {
+      return starts.length;
+   }
+
+   /**
+    * Returns the label of the (0-based) page, or null if it isn't
+    *  one of the document's pages
+    */
+   public String getLabel(int pageIndex) {
+      if (pageIndex < 0 || pageIndex >= pageCount) return null;
+
+      int range = Arrays.binarySearch(starts, pageIndex);
+      if (range < 0) range = -range - 2;
+      int number = firstNumbers[range] + (pageIndex - starts[range]);
+      return prefixes[range] + format(number, styles[range]);
+   }
+
+   /**
+    * Returns the 0-based index of the first page with the label,
+    *  or -1 if no page has it
+    */
+   public int getPageIndex(String label) {
+      if (label == null) return -1;
+      for (int range=0; range<starts.length; range++) {
+         String prefix = prefixes[range];
+         if (! label.startsWith(prefix)) continue;
+
+         int end = (range+1 < starts.length) ? starts[range+1] : pageCount;
+         int pageIndex;
+         if (styles[range] == NONE) {
+            // Every page of the range has just the prefix
+            if (label.length() != prefix.length()) continue;
+            pageIndex = starts[range];
+         } else {
+            int number = parse(label.substring(prefix.length()), styles[range]);
+            if (number < firstNumbers[range]) continue;
+            pageIndex = starts[range] + (number - firstNumbers[range]);
+         }
+         if (pageIndex < end && pageIndex < pageCount) {
+            return pageIndex;
+         }
+      }
+      return -1;
+   }
+
+   private static String format(int number, char style) {
+      if (style != NONE && number > MAX_LETTERED) {
+         return Integer.toString(number);
+      }
+      switch (style) {
+         case DECIMAL: return Integer.toString(number);
+         case 'R': return toRoman(number);
+         case 'r': return toRoman(number).toLowerCase(Locale.ROOT);
+         case 'A': return toLetters(number, 'A');
+         case 'a': return toLetters(number, 'a');
+         default:  return "";
+      }
+   }
+   /**
+    * Parses the numeric part of a label in the given style, returning
+    *  -1 if it isn't one
+    */
+   private static int parse(String text, char style) {
+      if (text.isEmpty()) return -1;
+      switch (style) {
+         case DECIMAL:
+            if (text.length() > 9) return -1;
+            for (int i=0; i<text.length(); i++) {
+               if (text.charAt(i) < '0' || text.charAt(i) > '9') return -1;
+            }
+            return Integer.parseInt(text);
+         case 'R':
+         case 'r':
+            int roman = fromRoman(text, style == 'r');
+            // Only accept the usual way of writing the number
+            return (roman > 0 && format(roman, style).equals(text)) ? roman : -1;
+         case 'A':
+         case 'a':
+            char letter = text.charAt(0);
+            for (int i=1; i<text.length(); i++) {
+               if (text.charAt(i) != letter) return -1;
+            }
+            char first = (style == 'A') ? 'A' : 'a';
+            if (letter < first || letter > first + 25) return -1;
+            return (text.length()-1) * 26 + (letter - first) + 1;
+         default:
+            return -1;
+      }
+   }
+
+   private static final int[] ROMAN_VALUES = { 1000, 900, 500, 400, 100, 90, 50, 40, 10, 9, 5, 4, 1 };
+   private static final String[] ROMAN_DIGITS = { "M", "CM", "D", "CD", "C", "XC", "L", "XL", "X", "IX", "V", "IV", "I" };
+   private static String toRoman(int number) {
+      StringBuilder roman = new StringBuilder();
+      for (int i=0; i<ROMAN_VALUES.length; i++) {
+         while (number >= ROMAN_VALUES[i]) {
+            roman.append(ROMAN_DIGITS[i]);
+            number -= ROMAN_VALUES[i];
+         }
+      }
+      return roman.toString();
+   }
+   private static int fromRoman(String text, boolean lower) {
+      int number = 0, previous = 0;
+      for (int i=text.length()-1; i>=0; i--) {
+         char c = text.charAt(i);
+         if (lower) c = Character.toUpperCase(c);
+         int value;
+         switch (c) {
+            case 'I': value = 1; break;
+            case 'V': value = 5; break;
+            case 'X': value = 10; break;
+            case 'L': value = 50; break;
+            case 'C': value = 100; break;
+            case 'D': value = 500; break;
+            case 'M': value = 1000; break;
+            default: return -1;
+         }
+         number += (value < previous) ? -value : value;
+         previous = Math.max(previous, value);
+         if (number > 1000000) return -1;
+      }
+      return number;
+   }
+   /**
+    * Letters run A to Z, then AA to ZZ, AAA to ZZZ and so on
+    */
+   private static String toLetters(int number, char first) {
+      char letter = (char)(first + (number-1) % 26);
+      int repeat = (number-1) / 26 + 1;
+      char[] letters = new char[repeat];
+      Arrays.fill(letters, letter);
+      return new String(letters);
+   }
+}
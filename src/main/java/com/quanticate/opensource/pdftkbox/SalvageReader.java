@@ -0,0 +1,482 @@
+/* ====================================================================
+  Copyright 2017 Quanticate Ltd
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+==================================================================== */
+package com.quanticate.opensource.pdftkbox;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSNull;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSObjectKey;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.io.IOUtils;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.io.ScratchFile;
+import org.apache.pdfbox.pdfparser.XrefTrailerResolver;
+
+/**
+ * Reads the outline of a PDF whose cross-reference tables are broken,
+ *  without PDFBox's repair, which searches and then parses the whole
+ *  file. Instead, a single pass over the file notes
+ *  where each object starts, the trailer's root, and which objects
+ *  are catalogs or object streams, skipping over the data of all the
+ *  streams. From there, only the outline and page tree are parsed,
+ *  as for {@link OutlineReader}.
+ * Where an object is found more than once, the last one in the file
+ *  is used, falling back to the earlier ones if it can't be parsed.
+ *  Objects which can't be found at all are taken as null, so the
+ *  outline may be cut short. Bookmarks where any of this happened
+ *  are reported as uncertain.
+ */
+public class SalvageReader extends OutlineReader {
+   private static final byte[] OBJ = "obj".getBytes(StandardCharsets.US_ASCII);
+   private static final byte[] STREAM = "stream".getBytes(StandardCharsets.US_ASCII);
+   private static final byte[] ENDSTREAM = "endstream".getBytes(StandardCharsets.US_ASCII);
+   private static final byte[] CATALOG = "Catalog".getBytes(StandardCharsets.US_ASCII);
+   private static final byte[] OBJSTM = "ObjStm".getBytes(StandardCharsets.US_ASCII);
+   private static final byte[] ROOT = "Root".getBytes(StandardCharsets.US_ASCII);
+   private static final byte[] ENCRYPT = "Encrypt".getBytes(StandardCharsets.US_ASCII);
+   private static final COSName FIRST = COSName.getPDFName("First");
+   // Outline item entries which lead to other objects that are needed
+   private static final COSName[] LINKS = { COSName.FIRST, COSName.NEXT, COSName.DEST, COSName.A };
+   // How many bytes to scan between checks of the time
+   private static final int TIME_CHECK_EVERY = 1 << 20;
+   // Most objects to accept from one object stream
+   private static final int MAX_STREAM_OBJECTS = 100000;
+
+   private final ChannelRandomAccess file;
+   private final long length;
+   // Where each object starts, the last in the file, and any earlier ones
+   private final Map<COSObjectKey,Long> offsets = new HashMap<>();
+   private final Map<COSObjectKey,List<Long>> earlier = new HashMap<>();
+   private final List<COSObjectKey> catalogs = new ArrayList<>();
+   private final List<COSObjectKey> objectStreams = new ArrayList<>();
+   private COSObjectKey root;
+   private boolean encrypted;
+
+   // What was guessed at, for reporting uncertain bookmarks
+   private final Set<COSObjectKey> duplicates = new HashSet<>();
+   private final Set<COSObjectKey> missing = new HashSet<>();
+   private final Set<COSObjectKey> fallbacks = new HashSet<>();
+   private final Map<COSBase,COSObjectKey> keys = new IdentityHashMap<>();
+
+   protected SalvageReader(ChannelRandomAccess source, ScratchFile scratch) throws IOException {
+      super(source, scratch);
+      this.file = source;
+      this.length = source.length();
+   }
+
+   /**
+    * Salvages the outline of the PDF, checking the time taken against
+    *  the (optional) budget as it goes
+    */
+   public static SalvageReader open(File pdf, MemoryUsageSetting memoryUsage,
+                                    DocumentLimits.Budget budget) throws IOException {
+      ChannelRandomAccess source = new ChannelRandomAccess(pdf);
+      ScratchFile scratch = null;
+      try {
+         scratch = new ScratchFile(memoryUsage);
+         SalvageReader reader = new SalvageReader(source, scratch);
+         reader.budget = budget;
+         reader.parse();
+         return reader;
+      } catch (IOException e) {
+         IOUtils.closeQuietly(scratch);
+         IOUtils.closeQuietly(source);
+         throw e;
+      }
+   }
+
+   /**
+    * Finds the objects with a scan of the file, rather than from the
+    *  cross-reference tables, and makes up a trailer for them
+    */
+   @Override
+   protected COSDictionary readTrailer() throws IOException {
+      scan();
+      if (encrypted) {
+         throw new IOException("document is encrypted");
+      }
+
+      xrefTrailerResolver.nextXrefObj(0, XrefTrailerResolver.XRefType.TABLE);
+      for (Map.Entry<COSObjectKey,Long> entry : offsets.entrySet()) {
+         xrefTrailerResolver.setXRef(entry.getKey(), entry.getValue());
+      }
+      COSDictionary trailer = new COSDictionary();
+      xrefTrailerResolver.setTrailer(trailer);
+      xrefTrailerResolver.setStartxref(0);
+      indexObjectStreams();
+
+      COSObjectKey catalog = findCatalog();
+      if (catalog == null) {
+         throw new IOException("no document catalog found");
+      }
+      trailer.setItem(COSName.ROOT, document.getObjectFromPool(catalog));
+      document.setTrailer(trailer);
+      document.addXRefTable(xrefTrailerResolver.getXrefTable());
+      return trailer;
+   }
+
+   /**
+    * Passes once over the whole file, noting where each object starts
+    *  and what they are, skipping the contents of streams
+    */
+   private void scan() throws IOException {
+      COSObjectKey current = null;
+      long nextTimeCheck = TIME_CHECK_EVERY;
+
+      long at = 0;
+      while (at < length) {
+         if (at >= nextTimeCheck) {
+            if (budget != null) budget.checkTime();
+            nextTimeCheck += TIME_CHECK_EVERY;
+         }
+
+         int b = file.get(at);
+         if (b == 'o' && matches(at, OBJ) && isEnd(at + OBJ.length)) {
+            COSObjectKey key = readObjectHeader(at);
+            if (key != null) {
+               current = key;
+            }
+            at += OBJ.length;
+         } else if (b == 's' && at > 0 && matches(at, STREAM) && isStreamStart(at)) {
+            // Stream data could be anything, so don't look inside it
+            long end = find(ENDSTREAM, at + STREAM.length);
+            at = (end < 0) ? length : end + ENDSTREAM.length;
+         } else if (b == '/' && current != null) {
+            if (matchesName(at+1, CATALOG)) {
+               catalogs.add(current);
+            } else if (matchesName(at+1, OBJSTM)) {
+               objectStreams.add(current);
+            } else if (matchesName(at+1, ROOT)) {
+               COSObjectKey reference = readReference(at + 1 + ROOT.length);
+               if (reference != null) root = reference;
+            } else if (matchesName(at+1, ENCRYPT)) {
+               encrypted = true;
+            }
+            at++;
+         } else {
+            at++;
+         }
+      }
+   }
+
+   /**
+    * Reads back from the "obj" keyword for the object and generation
+    *  numbers, recording where it starts, or returns null if it isn't
+    *  an object header after all
+    */
+   private COSObjectKey readObjectHeader(long objAt) throws IOException {
+      long at = objAt - 1;
+      long genEnd = skipSpaceBack(at);
+      if (genEnd == at) return null;
+      long genStart = skipDigitsBack(genEnd);
+      if (genStart == genEnd) return null;
+      long numEnd = skipSpaceBack(genStart);
+      if (numEnd == genStart) return null;
+      long numStart = skipDigitsBack(numEnd);
+      if (numStart == numEnd) return null;
+      // Must not be part of something longer
+      if (numStart >= 0 && !isBlank(file.get(numStart)) && !isDelimiterByte(file.get(numStart))) {
+         return null;
+      }
+
+      long number = parseDigits(numStart+1, numEnd+1);
+      long generation = parseDigits(genStart+1, genEnd+1);
+      if (number <= 0 || generation < 0 || generation > 65535) return null;
+
+      COSObjectKey key = new COSObjectKey(number, (int)generation);
+      Long previous = offsets.put(key, numStart+1);
+      if (previous != null) {
+         List<Long> before = earlier.get(key);
+         if (before == null) {
+            before = new ArrayList<>(2);
+            earlier.put(key, before);
+         }
+         before.add(previous);
+         duplicates.add(key);
+      }
+      return key;
+   }
+   /**
+    * Reads an "n g R" reference, returning null if there isn't one
+    */
+   private COSObjectKey readReference(long at) throws IOException {
+      long numStart = skipSpace(at);
+      long numEnd = skipDigits(numStart);
+      long genStart = skipSpace(numEnd);
+      long genEnd = skipDigits(genStart);
+      long rAt = skipSpace(genEnd);
+      if (numEnd == numStart || genEnd == genStart || genStart == numEnd || rAt == genEnd ||
+          rAt >= length || file.get(rAt) != 'R') {
+         return null;
+      }
+      long number = parseDigits(numStart, numEnd);
+      long generation = parseDigits(genStart, genEnd);
+      if (number <= 0 || generation < 0 || generation > 65535) return null;
+      return new COSObjectKey(number, (int)generation);
+   }
+
+   /**
+    * Adds the objects held in object streams to the cross-reference
+    *  table, unless there's a later plain version of them. Only the
+    *  headers of the streams are read.
+    */
+   private void indexObjectStreams() throws IOException {
+      Map<COSObjectKey,Long> table = xrefTrailerResolver.getXrefTable();
+      // Where in the file the version now in the table came from
+      Map<COSObjectKey,Long> positions = new HashMap<>(offsets);
+
+      for (COSObjectKey streamKey : objectStreams) {
+         Long streamAt = offsets.get(streamKey);
+         COSBase stream = resolve(document.getObjectFromPool(streamKey));
+         if (!(stream instanceof COSStream) || streamAt == null) continue;
+
+         for (long number : readObjectNumbers((COSStream)stream)) {
+            COSObjectKey key = new COSObjectKey(number, 0);
+            Long position = positions.get(key);
+            if (position != null) {
+               duplicates.add(key);
+               if (position > streamAt) continue;
+            }
+            table.put(key, -streamKey.getNumber());
+            positions.put(key, streamAt);
+         }
+      }
+   }
+   private List<Long> readObjectNumbers(COSStream stream) {
+      List<Long> numbers = new ArrayList<>();
+      int count = Math.min(stream.getInt(COSName.N, 0), MAX_STREAM_OBJECTS);
+      int first = stream.getInt(FIRST, 0);
+      if (count <= 0 || first <= 0) return numbers;
+
+      try (InputStream data = stream.createInputStream()) {
+         byte[] header = new byte[first];
+         int read = 0;
+         while (read < first) {
+            int got = data.read(header, read, first - read);
+            if (got < 0) break;
+            read += got;
+         }
+         String[] pairs = new String(header, 0, read, StandardCharsets.US_ASCII).trim().split("\\s+");
+         for (int i=0; i+1<pairs.length && numbers.size()<count; i+=2) {
+            numbers.add(Long.parseLong(pairs[i]));
+         }
+      } catch (IOException | NumberFormatException e) {
+         System.err.println("Warning - unable to read object stream " + stream + ", " + e.getMessage());
+      }
+      return numbers;
+   }
+
+   /**
+    * Picks the document catalog, preferring what the last trailer
+    *  said, then the last catalog found, looking inside the object
+    *  streams if there's no sign of one outside them
+    */
+   private COSObjectKey findCatalog() throws IOException {
+      List<COSObjectKey> candidates = new ArrayList<>();
+      if (root != null) candidates.add(root);
+      for (int i=catalogs.size()-1; i>=0; i--) {
+         candidates.add(catalogs.get(i));
+      }
+      for (COSObjectKey key : candidates) {
+         if (isCatalog(resolve(document.getObjectFromPool(key)))) return key;
+      }
+
+      // Last, and slowest, try everything in the object streams
+      Map<COSObjectKey,Long> table = xrefTrailerResolver.getXrefTable();
+      List<COSObjectKey> compressed = new ArrayList<>();
+      for (Map.Entry<COSObjectKey,Long> entry : table.entrySet()) {
+         if (entry.getValue() < 0) compressed.add(entry.getKey());
+      }
+      for (COSObjectKey key : compressed) {
+         COSBase object = resolve(document.getObjectFromPool(key));
+         if (isCatalog(object) && COSName.CATALOG.equals(((COSDictionary)object).getCOSName(COSName.TYPE))) {
+            return key;
+         }
+      }
+      return null;
+   }
+   private static boolean isCatalog(COSBase object) {
+      if (!(object instanceof COSDictionary)) return false;
+      COSDictionary dict = (COSDictionary)object;
+      return dict.containsKey(COSName.PAGES) || dict.containsKey(COSName.OUTLINES);
+   }
+
+   /**
+    * Parses the object from the last place it was found, trying any
+    *  earlier ones if that fails, and taking it as null if there are
+    *  none, rather than PDFBox searching the file again for it
+    */
+   @Override
+   protected void parse(COSObject object) throws IOException {
+      COSObjectKey key = new COSObjectKey(object);
+      Map<COSObjectKey,Long> table = xrefTrailerResolver.getXrefTable();
+      if (! table.containsKey(key)) {
+         object.setObject(COSNull.NULL);
+         missing.add(key);
+         return;
+      }
+
+      try {
+         parseObjectDynamically(object, false);
+      } catch (LimitExceededException e) {
+         throw e;
+      } catch (IOException e) {
+         List<Long> before = earlier.get(key);
+         for (int i = (before == null) ? -1 : before.size()-1; i >= 0 && object.getObject() == null; i--) {
+            table.put(key, before.get(i));
+            try {
+               parseObjectDynamically(object, false);
+               fallbacks.add(key);
+            } catch (IOException again) {
+               // Try the next one back
+            }
+         }
+         if (object.getObject() == null) {
+            object.setObject(COSNull.NULL);
+            missing.add(key);
+            return;
+         }
+      }
+      keys.put(object.getObject(), key);
+   }
+
+   /**
+    * Returns why the salvaged bookmark may not be right, or null if
+    *  nothing seems to be wrong with it
+    */
+   public String getUncertainty(PDFBookmark bookmark) {
+      if (bookmark.getOutlineItem() == null) return null;
+      COSDictionary item = bookmark.getOutlineItem().getCOSObject();
+      COSObjectKey key = keys.get(item);
+      if (key != null && fallbacks.contains(key)) {
+         return "the last version of it couldn't be read, so an earlier one was used";
+      }
+      for (COSName link : LINKS) {
+         COSBase value = item.getItem(link);
+         if (value instanceof COSObject && missing.contains(new COSObjectKey((COSObject)value))) {
+            return "it refers to objects which are missing, so bookmarks after it may be lost";
+         }
+      }
+      if (bookmark.getPageNumber() <= 0) {
+         return "its page couldn't be found";
+      }
+      if (key != null && duplicates.contains(key)) {
+         return "the file has several versions of it, and the last was used";
+      }
+      return null;
+   }
+
+   /**
+    * Wraps the handler, to flag each uncertain bookmark with why, and
+    *  report it as a warning, before passing it on
+    */
+   public BookmarkParser.BookmarkHandler flagUncertain(final BookmarkParser.BookmarkHandler handler) {
+      return new BookmarkParser.BookmarkHandler() {
+         private int count;
+         @Override
+         public void handleBookmark(PDFBookmark bookmark, int lineNumber) throws IOException {
+            count++;
+            String uncertainty = getUncertainty(bookmark);
+            if (uncertainty != null) {
+               bookmark.setUncertainty(uncertainty);
+               System.err.println("Warning - salvaged bookmark " + count + ", " + bookmark.getTitle() +
+                                  ", may be wrong, as " + uncertainty);
+            }
+            handler.handleBookmark(bookmark, lineNumber);
+         }
+      };
+   }
+
+   private boolean matches(long at, byte[] bytes) throws IOException {
+      if (at + bytes.length > length) return false;
+      for (int i=0; i<bytes.length; i++) {
+         if (file.get(at+i) != bytes[i]) return false;
+      }
+      return true;
+   }
+   private boolean matchesName(long at, byte[] name) throws IOException {
+      return matches(at, name) && isEnd(at + name.length);
+   }
+   private boolean isEnd(long at) throws IOException {
+      if (at >= length) return true;
+      int b = file.get(at);
+      return isBlank(b) || isDelimiterByte(b);
+   }
+   private boolean isStreamStart(long at) throws IOException {
+      int before = file.get(at-1);
+      long after = at + STREAM.length;
+      if (after >= length) return false;
+      int next = file.get(after);
+      return (before == '>' || isBlank(before)) && (next == '\r' || next == '\n');
+   }
+   private long find(byte[] bytes, long from) throws IOException {
+      for (long at = from; at + bytes.length <= length; at++) {
+         if (file.get(at) == bytes[0] && matches(at, bytes)) return at;
+      }
+      return -1;
+   }
+
+   private long skipSpaceBack(long at) throws IOException {
+      while (at >= 0 && isBlank(file.get(at))) at--;
+      return at;
+   }
+   private long skipDigitsBack(long at) throws IOException {
+      long stop = at - 10;
+      while (at >= 0 && at > stop && isDigitByte(file.get(at))) at--;
+      return at;
+   }
+   private long skipSpace(long at) throws IOException {
+      while (at < length && isBlank(file.get(at))) at++;
+      return at;
+   }
+   private long skipDigits(long at) throws IOException {
+      long stop = at + 10;
+      while (at < length && at < stop && isDigitByte(file.get(at))) at++;
+      return at;
+   }
+   private long parseDigits(long start, long end) throws IOException {
+      long value = 0;
+      for (long at = start; at < end; at++) {
+         value = value*10 + (file.get(at) - '0');
+      }
+      return value;
+   }
+
+   private static boolean isDigitByte(int b) {
+      return b >= '0' && b <= '9';
+   }
+   private static boolean isBlank(int b) {
+      return b == ' ' || b == '\n' || b == '\r' || b == '\t' || b == '\f' || b == 0;
+   }
+   private static boolean isDelimiterByte(int b) {
+      return b == '/' || b == '<' || b == '>' || b == '[' || b == ']' ||
+             b == '(' || b == ')' || b == '{' || b == '}' || b == '%';
+   }
+}
@@ -0,0 +1,61 @@
+/* ====================================================================
+  Copyright 2017 Quanticate Ltd
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+==================================================================== */
+package com.quanticate.opensource.pdftkbox;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BatchRunnerTest {
+   @Rule
+   public TemporaryFolder temp = new TemporaryFolder();
+
+   @Test
+   public void errorFailsJustThatJob() throws Exception {
+      File pdf = TestBookmarks.createPdf(temp.getRoot(), "good", 10, TestBookmarks.sample());
+      File error = new File(temp.getRoot(), "error.pdf");
+
+      BatchRunner runner = new BatchRunner(1, 1);
+      runner.setSettings(new JobSettings() {
+         @Override
+         public void exportBookmarks(File pdf, BookmarkParser.BookmarkHandler handler) throws IOException {
+            if (pdf.getName().startsWith("error")) {
+               throw new OutOfMemoryError("Testing");
+            }
+            super.exportBookmarks(pdf, handler);
+         }
+      });
+      ByteArrayOutputStream report = new ByteArrayOutputStream();
+      int failed = runner.run(Arrays.asList(
+            new BatchRunner.Job(1, BatchRunner.OP_EXPORT, error.getPath(), temp.newFile("error.txt").getPath(), null),
+            new BatchRunner.Job(2, BatchRunner.OP_EXPORT, pdf.getPath(), temp.newFile("good.txt").getPath(), null)),
+            new PrintStream(report, true, "UTF-8"));
+
+      String outcomes = report.toString("UTF-8");
+      assertEquals(outcomes, 1, failed);
+      assertTrue(outcomes, outcomes.contains("FAILED\t1\texport " + error + "\tjava.lang.OutOfMemoryError: Testing"));
+      assertTrue(outcomes, outcomes.contains("OK\t2\texport " + pdf));
+   }
+}
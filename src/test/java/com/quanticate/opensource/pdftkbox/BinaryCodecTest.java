@@ -0,0 +1,98 @@
+/* ====================================================================
+  Copyright 2017 Quanticate Ltd
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+==================================================================== */
+package com.quanticate.opensource.pdftkbox;
+
+import static com.quanticate.opensource.pdftkbox.TestBookmarks.assertBookmarks;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class BinaryCodecTest {
+   private static final BookmarkCodec CODEC = BookmarkCodecs.BINARY;
+
+   @Test
+   public void roundTrip() throws IOException {
+      StringBuilder longTitle = new StringBuilder();
+      for (int i=0; i<300; i++) {
+         longTitle.append('\u4e2d');
+      }
+      List<PDFBookmark> bookmarks = TestBookmarks.sample();
+      bookmarks.add(new PDFBookmark("By label", 1, -1, "iv", 0, "FitWidth"));
+      bookmarks.add(new PDFBookmark("Negative offset", 200, 100000, -25, null));
+      bookmarks.add(new PDFBookmark(longTitle.toString(), 1, 1, Integer.MAX_VALUE, ""));
+      bookmarks.add(new PDFBookmark("Lowest offset", 1, 1, Integer.MIN_VALUE, null));
+      PDFBookmark uncertain = new PDFBookmark("Uncertain", 1, 5, 0, "FitPage");
+      uncertain.setUncertainty("its page couldn't be found");
+      bookmarks.add(uncertain);
+
+      assertBookmarks(bookmarks, TestBookmarks.roundTrip(CODEC, bookmarks));
+   }
+
+   @Test
+   public void noTitle() throws IOException {
+      // Outline items without a /Title are written with an empty one
+      List<PDFBookmark> bookmarks = Arrays.asList(
+            new PDFBookmark(null, 1, 1, 0, "FitPage"),
+            new PDFBookmark("After", 2, 2, 0, null));
+      List<PDFBookmark> read = TestBookmarks.roundTrip(CODEC, bookmarks);
+      assertBookmarks(Arrays.asList(
+            new PDFBookmark("", 1, 1, 0, "FitPage"),
+            new PDFBookmark("After", 2, 2, 0, null)), read);
+   }
+
+   @Test
+   public void optionalTitles() throws IOException {
+      // As the export cache stores them, missing titles stay missing
+      List<PDFBookmark> bookmarks = Arrays.asList(
+            new PDFBookmark(null, 1, 1, 0, "FitPage"),
+            new PDFBookmark("", 2, 2, 0, null));
+      byte[] data = TestBookmarks.write(new BinaryCodec(true), bookmarks);
+      assertBookmarks(bookmarks, TestBookmarks.read(new BinaryCodec(true), data));
+      // Either form can be read by any binary codec
+      assertBookmarks(bookmarks, TestBookmarks.read(CODEC, data));
+   }
+
+   @Test
+   public void badData() throws IOException {
+      byte[] good = TestBookmarks.write(CODEC, TestBookmarks.sample());
+
+      byte[] magic = good.clone();
+      magic[0] = 'X';
+      byte[] version = good.clone();
+      version[4] = 9;
+      byte[] truncated = Arrays.copyOf(good, good.length-3);
+      byte[] length = Arrays.copyOf(good, 10);
+      length[8] = (byte)0xff; length[9] = (byte)0xff;
+      // A level that only fits in 32 bits, so would be negative
+      byte[] negative = Arrays.copyOf(good, 10);
+      negative[5] = negative[6] = negative[7] = negative[8] = (byte)0xff; negative[9] = 0x0f;
+      byte[] overlong = Arrays.copyOf(good, 11);
+      Arrays.fill(overlong, 5, 11, (byte)0x80);
+
+      for (byte[] data : new byte[][] { magic, version, truncated, length, negative, overlong, new byte[2] }) {
+         try {
+            TestBookmarks.read(CODEC, data);
+            fail("Should fail to read bad binary bookmarks");
+         } catch (BookmarkParseException e) {
+            // Expected
+         }
+      }
+   }
+}
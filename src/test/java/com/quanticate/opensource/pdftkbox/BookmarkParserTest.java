@@ -0,0 +1,113 @@
+/* ====================================================================
+  Copyright 2017 Quanticate Ltd
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+==================================================================== */
+package com.quanticate.opensource.pdftkbox;
+
+import static com.quanticate.opensource.pdftkbox.TestBookmarks.assertBookmarks;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * The PDFtk-style text, written by {@link PDFtkCodec} and read by
+ *  {@link BookmarkParser}
+ */
+public class BookmarkParserTest {
+   private static final BookmarkCodec CODEC = BookmarkCodecs.PDFTK;
+
+   @Test
+   public void roundTrip() throws IOException {
+      List<PDFBookmark> bookmarks = TestBookmarks.sample();
+      // By label only, and by both
+      bookmarks.add(new PDFBookmark("By label", 1, -1, "iv", 0, "FitWidth"));
+      bookmarks.add(new PDFBookmark("By both", 2, 3, "iii", 50, "FitWidth"));
+      PDFBookmark uncertain = new PDFBookmark("Uncertain", 1, 5, 0, "FitPage");
+      uncertain.setUncertainty("its page couldn't be found");
+      bookmarks.add(uncertain);
+
+      assertBookmarks(bookmarks, TestBookmarks.roundTrip(CODEC, bookmarks));
+   }
+
+   @Test
+   public void anyCaseAndLineEndings() throws IOException {
+      String text = "InfoBegin\r\nInfoKey: Creator\r\n" +
+                    "bookmarkbegin\r\nBOOKMARKTITLE:  Spaced Title  \r\nBookmarkLevel: 1\r\n" +
+                    "BookmarkPageNumber: 2\r\n" +
+                    "BookmarkBegin\rBookmarkTitle: Second\rBookmarkLevel: 2\rBookmarkPageNumber: 3\r" +
+                    "BookmarkZoom: 75%\rBookmarkYOffset: 10\r" +
+                    "BookmarkBegin\nBookmarkTitle: Third: with a colon\nBookmarkLevel: 1\n" +
+                    "BookmarkPageLabel: A-1";
+
+      assertBookmarks(Arrays.asList(
+            new PDFBookmark("Spaced Title", 1, 2, 0, null),
+            new PDFBookmark("Second", 2, 3, 10, "75%"),
+            new PDFBookmark("Third: with a colon", 1, -1, "A-1", 0, null)),
+            new BookmarkParser().parse(new StringReader(text)));
+   }
+
+   @Test
+   public void longTitle() throws IOException {
+      StringBuilder title = new StringBuilder();
+      for (int i=0; i<1000; i++) {
+         title.append((char)('a' + (i % 26)));
+      }
+      List<PDFBookmark> bookmarks = Arrays.asList(new PDFBookmark(title.toString(), 1, 1, 0, "FitPage"));
+      assertBookmarks(bookmarks, TestBookmarks.roundTrip(CODEC, bookmarks));
+   }
+
+   @Test
+   public void lenientSkipsMalformed() throws IOException {
+      String text = "BookmarkBegin\nBookmarkLevel: 1\nBookmarkPageNumber: 1\n" +
+                    "BookmarkBegin\nBookmarkTitle: Bad level\nBookmarkLevel: one\nBookmarkPageNumber: 1\n" +
+                    "BookmarkBegin\nBookmarkTitle: No page\nBookmarkLevel: 1\n" +
+                    "BookmarkBegin\nBookmarkTitle: Good\nBookmarkLevel: 1\nBookmarkPageNumber: 5\n";
+
+      final List<Integer> problemLines = new ArrayList<>();
+      final List<PDFBookmark> bookmarks = new ArrayList<>();
+      class Collector implements BookmarkParser.BookmarkHandler, BookmarkParser.ProblemHandler {
+         @Override
+         public void handleBookmark(PDFBookmark bookmark, int lineNumber) {
+            bookmarks.add(bookmark);
+         }
+         @Override
+         public void handleProblem(BookmarkParseException problem) {
+            problemLines.add(problem.getLineNumber());
+         }
+      }
+      new BookmarkParser(false).parse(new StringReader(text), new Collector());
+
+      assertBookmarks(Arrays.asList(new PDFBookmark("Good", 1, 5, 0, null)), bookmarks);
+      assertEquals(Arrays.asList(1, 6, 8), problemLines);
+   }
+
+   @Test
+   public void strictFails() throws IOException {
+      String text = "BookmarkBegin\nBookmarkTitle: Good\nBookmarkLevel: 1\nBookmarkPageNumber: 1\n" +
+                    "BookmarkBegin\nBookmarkTitle: Bad\nBookmarkLevel: 1\nBookmarkPageNumber: x\n";
+      try {
+         new BookmarkParser(true).parse(new StringReader(text));
+         fail("Strict parsing should fail on a bad page number");
+      } catch (BookmarkParseException e) {
+         assertEquals(8, e.getLineNumber());
+      }
+   }
+}
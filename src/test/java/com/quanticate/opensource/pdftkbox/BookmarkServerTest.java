@@ -0,0 +1,70 @@
+/* ====================================================================
+  Copyright 2017 Quanticate Ltd
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+==================================================================== */
+package com.quanticate.opensource.pdftkbox;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BookmarkServerTest {
+   @Rule
+   public TemporaryFolder temp = new TemporaryFolder();
+
+   @Test
+   public void failedImport() throws IOException {
+      TestBookmarks.createPdf(temp.getRoot(), "sample", 10, TestBookmarks.sample());
+      BookmarkServer server = new BookmarkServer(0, 1, temp.getRoot(), new JobSettings());
+      server.start();
+      try {
+         // No page has the label, so nothing is left to import
+         PDFBookmark unknown = new PDFBookmark("Unknown", 1, -1, "zzz", 0, null);
+         assertEquals(422, post(server, "/import?pdf=sample.pdf&output=bad.pdf",
+                                TestBookmarks.write(BookmarkCodecs.PDFTK, Arrays.asList(unknown))));
+         assertFalse(new File(temp.getRoot(), "bad.pdf").exists());
+
+         assertEquals(200, post(server, "/import?pdf=sample.pdf&output=good.pdf",
+                                TestBookmarks.write(BookmarkCodecs.PDFTK, TestBookmarks.sample())));
+         assertTrue(new File(temp.getRoot(), "good.pdf").exists());
+      } finally {
+         server.stop();
+      }
+   }
+
+   private static int post(BookmarkServer server, String path, byte[] body) throws IOException {
+      URL url = new URL("http://localhost:" + server.getPort() + path);
+      HttpURLConnection connection = (HttpURLConnection)url.openConnection();
+      connection.setRequestMethod("POST");
+      connection.setRequestProperty("Authorization", "Bearer " + server.getToken());
+      connection.setDoOutput(true);
+      try (OutputStream out = connection.getOutputStream()) {
+         out.write(body);
+      }
+      int status = connection.getResponseCode();
+      connection.disconnect();
+      return status;
+   }
+}
@@ -0,0 +1,106 @@
+/* ====================================================================
+  Copyright 2017 Quanticate Ltd
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+==================================================================== */
+package com.quanticate.opensource.pdftkbox;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ChannelRandomAccessTest {
+   private static final int SIZE = 1 << 20;
+
+   @Rule
+   public TemporaryFolder temp = new TemporaryFolder();
+
+   @Test
+   public void reads() throws IOException {
+      File file = createFile();
+      try (ChannelRandomAccess access = new ChannelRandomAccess(file)) {
+         assertEquals(SIZE, access.length());
+         assertEquals(0, access.read());
+         assertEquals(1, access.peek());
+         access.seek(SIZE - 4);
+         assertArrayEquals(new byte[] { (byte)252, (byte)253, (byte)254, (byte)255 }, access.readFully(4));
+         assertTrue(access.isEOF());
+         assertEquals(-1, access.read());
+         assertEquals(7, access.get(7));
+
+         // Across blocks
+         access.seek(65530);
+         byte[] across = access.readFully(100000);
+         for (int i=0; i<across.length; i++) {
+            assertEquals((byte)(65530 + i), across[i]);
+         }
+         assertEquals((65530 + 100000) & 0xff, access.read());
+         assertEquals(200, access.get(SIZE - 56));
+      }
+   }
+
+   @Test
+   public void closed() throws IOException {
+      ChannelRandomAccess access = new ChannelRandomAccess(createFile());
+      access.close();
+      access.close();
+      assertTrue(access.isClosed());
+      try {
+         access.read();
+         fail("Can't read once closed");
+      } catch (IOException e) {
+         // Expected
+      }
+   }
+
+   @Test
+   public void truncated() throws IOException {
+      File file = createFile();
+      try (ChannelRandomAccess access = new ChannelRandomAccess(file)) {
+         assertEquals(0, access.read());
+         try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(1000);
+         }
+         access.seek(SIZE / 2);
+         try {
+            access.read(new byte[16]);
+            fail("Can't read past the end of a truncated file");
+         } catch (IOException e) {
+            // Expected
+         }
+      }
+   }
+
+   private File createFile() throws IOException {
+      byte[] data = new byte[SIZE];
+      for (int i=0; i<SIZE; i++) {
+         data[i] = (byte)i;
+      }
+      File file = temp.newFile();
+      Files.write(file.toPath(), data);
+      assertEquals(SIZE, file.length());
+      assertTrue(Arrays.equals(data, Files.readAllBytes(file.toPath())));
+      return file;
+   }
+}
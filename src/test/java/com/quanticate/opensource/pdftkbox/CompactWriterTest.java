@@ -0,0 +1,81 @@
+/* ====================================================================
+  Copyright 2017 Quanticate Ltd
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+==================================================================== */
+package com.quanticate.opensource.pdftkbox;
+
+import static com.quanticate.opensource.pdftkbox.TestBookmarks.assertBookmarks;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CompactWriterTest {
+   @Rule
+   public TemporaryFolder temp = new TemporaryFolder();
+
+   private List<PDFBookmark> bookmarks;
+   private File compact;
+
+   @Before
+   public void setUp() {
+      bookmarks = TestBookmarks.sample();
+      compact = new File(temp.getRoot(), "compact.pdf");
+   }
+
+   @Test
+   public void roundTrip() throws IOException {
+      File pdf = TestBookmarks.createPdf(temp.getRoot(), "full", 12, bookmarks);
+
+      try (PDDocument document = PDDocument.load(pdf);
+           OutputStream output = new FileOutputStream(compact)) {
+         CompactWriter writer = new CompactWriter(document);
+         writer.setObjectsPerStream(3);
+         writer.write(output);
+      }
+
+      String raw = new String(Files.readAllBytes(compact.toPath()), StandardCharsets.ISO_8859_1);
+      assertTrue("Should have object streams", raw.contains("/ObjStm"));
+      assertTrue("Should have a cross-reference stream", raw.contains("/XRef"));
+
+      try (PDDocument document = PDDocument.load(compact)) {
+         assertEquals(12, document.getNumberOfPages());
+      }
+      assertBookmarks(bookmarks, TestBookmarks.export(compact));
+   }
+
+   @Test
+   public void savedCompact() throws IOException {
+      File pdf = TestBookmarks.createPdf(temp.getRoot(), "blank", 10, bookmarks.subList(0, 1));
+
+      try (Bookmarks bm = new Bookmarks(pdf)) {
+         bm.setSaveMode(Bookmarks.SaveMode.Compact);
+         bm.importBookmarks(bookmarks, compact);
+      }
+      assertTrue(compact.length() < pdf.length() * 2);
+      assertBookmarks(bookmarks, TestBookmarks.export(compact));
+   }
+}
@@ -0,0 +1,58 @@
+/* ====================================================================
+  Copyright 2017 Quanticate Ltd
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+==================================================================== */
+package com.quanticate.opensource.pdftkbox;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CorpusExporterTest {
+   @Rule
+   public TemporaryFolder temp = new TemporaryFolder();
+
+   @Test
+   public void errorRecordedInline() throws IOException {
+      File pdf = TestBookmarks.createPdf(temp.getRoot(), "good", 10, TestBookmarks.sample());
+      File error = new File(temp.getRoot(), "error.pdf");
+      File output = new File(temp.getRoot(), "corpus.txt");
+
+      CorpusExporter exporter = new CorpusExporter(2);
+      exporter.setSettings(new JobSettings() {
+         @Override
+         public void exportBookmarks(File pdf, BookmarkParser.BookmarkHandler handler) throws IOException {
+            if (pdf.getName().startsWith("error")) {
+               throw new OutOfMemoryError("Testing");
+            }
+            super.exportBookmarks(pdf, handler);
+         }
+      });
+      int failed = exporter.run(Arrays.asList(error.getPath(), pdf.getPath()).iterator(), output);
+
+      String text = new String(Files.readAllBytes(output.toPath()), StandardCharsets.UTF_8);
+      assertEquals(text, 1, failed);
+      assertTrue(text, text.contains(CorpusExporter.DocumentError + ": java.lang.OutOfMemoryError: Testing"));
+      assertTrue(text, text.contains("BookmarkTitle: Part C"));
+   }
+}
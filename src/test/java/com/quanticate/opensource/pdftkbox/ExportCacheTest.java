@@ -0,0 +1,124 @@
+/* ====================================================================
+  Copyright 2017 Quanticate Ltd
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+==================================================================== */
+package com.quanticate.opensource.pdftkbox;
+
+import static com.quanticate.opensource.pdftkbox.TestBookmarks.assertBookmarks;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ExportCacheTest {
+   @Rule
+   public TemporaryFolder temp = new TemporaryFolder();
+
+   private ExportCache cache;
+   private JobSettings settings;
+   private File pdf;
+
+   @Before
+   public void setUp() throws IOException {
+      cache = new ExportCache(temp.newFolder("cache"), 1 << 20);
+      settings = new JobSettings();
+      settings.setExportCache(cache);
+      pdf = TestBookmarks.createPdf(temp.getRoot(), "sample", 10, TestBookmarks.sample());
+   }
+
+   @Test
+   public void roundTrip() throws IOException {
+      List<PDFBookmark> bookmarks = TestBookmarks.sample();
+      bookmarks.add(new PDFBookmark("By label", 1, -1, "iv", 0, "FitWidth"));
+
+      assertNull(cache.get("abc"));
+      cache.put("abc", bookmarks);
+      assertBookmarks(bookmarks, cache.get("abc"));
+   }
+
+   @Test
+   public void noTitleOrPage() throws IOException {
+      cache.put("untitled", Arrays.asList(new PDFBookmark(null, 1, 1, 0, "FitPage")));
+      List<PDFBookmark> untitled = cache.get("untitled");
+      assertEquals(1, untitled.size());
+      assertNull(untitled.get(0).getTitle());
+
+      // Bookmarks without a page aren't cached
+      cache.put("nopage", Arrays.asList(new PDFBookmark("Nowhere", 1, -1, 0, null)));
+      assertNull(cache.get("nopage"));
+   }
+
+   @Test
+   public void exportUntitled() throws IOException {
+      try (PDDocument document = PDDocument.load(pdf)) {
+         document.getDocumentCatalog().getDocumentOutline().getFirstChild()
+                 .getCOSObject().removeItem(COSName.TITLE);
+         document.save(pdf);
+      }
+
+      List<PDFBookmark> missed = export();
+      List<PDFBookmark> hit = export();
+      assertNull(missed.get(0).getTitle());
+      assertBookmarks(missed, hit);
+      assertEquals(render(missed), render(hit));
+   }
+
+   @Test
+   public void limitedWhenCached() throws IOException {
+      export();
+
+      settings.getLimits().setMaxNodes(3);
+      try {
+         export();
+         fail("Cached bookmarks should be limited too");
+      } catch (LimitExceededException e) {
+         assertEquals(DocumentLimits.Limit.Nodes, e.getLimit());
+      }
+   }
+
+   private static String render(List<PDFBookmark> bookmarks) {
+      StringWriter out = new StringWriter();
+      try (PrintWriter writer = new PrintWriter(out)) {
+         for (PDFBookmark bookmark : bookmarks) {
+            PDFtkCodec.render(bookmark, writer);
+         }
+      }
+      return out.toString();
+   }
+
+   private List<PDFBookmark> export() throws IOException {
+      final List<PDFBookmark> bookmarks = new ArrayList<>();
+      settings.exportBookmarks(pdf, new BookmarkParser.BookmarkHandler() {
+         @Override
+         public void handleBookmark(PDFBookmark bookmark, int lineNumber) {
+            bookmarks.add(bookmark);
+         }
+      });
+      return bookmarks;
+   }
+}
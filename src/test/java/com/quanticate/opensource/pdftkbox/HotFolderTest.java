@@ -0,0 +1,97 @@
+/* ====================================================================
+  Copyright 2017 Quanticate Ltd
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+==================================================================== */
+package com.quanticate.opensource.pdftkbox;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class HotFolderTest {
+   @Rule
+   public TemporaryFolder temp = new TemporaryFolder();
+
+   @Test
+   public void errorsAndIncomplete() throws Exception {
+      File in = temp.newFolder("in");
+      File out = temp.newFolder("out");
+      File pdf = TestBookmarks.createPdf(temp.getRoot(), "sample", 10, TestBookmarks.sample());
+      for (String name : new String[] { "error1", "error2", "good" }) {
+         Files.copy(pdf.toPath(), new File(in, name + ".pdf").toPath());
+      }
+      byte[] start = "%PDF-1.4\n1 0 obj\n<< >>\nendobj\n".getBytes(StandardCharsets.US_ASCII);
+      Files.write(new File(in, "incomplete.pdf").toPath(), start);
+
+      // One worker a stage, which must survive errors to do the rest
+      final HotFolder folder = new HotFolder(in, out, 1, 1) {
+         @Override
+         protected void load(Job job) throws IOException {
+            if (job.toString().contains("error")) {
+               throw new OutOfMemoryError("Testing");
+            }
+            super.load(job);
+         }
+      };
+      folder.setSettleMillis(50);
+      ByteArrayOutputStream report = new ByteArrayOutputStream();
+      folder.setReport(new PrintStream(report, true, "UTF-8"));
+
+      Thread watcher = new Thread() {
+         @Override
+         public void run() {
+            try {
+               folder.run();
+            } catch (InterruptedException e) {
+               // Finished
+            } catch (IOException e) {
+               throw new RuntimeException(e);
+            }
+         }
+      };
+      watcher.start();
+      try {
+         File failed = new File(in, "failed");
+         long giveUp = System.currentTimeMillis() + 30000;
+         while (! (new File(out, "good.txt").exists() &&
+                   new File(failed, "error1.pdf").exists() &&
+                   new File(failed, "error2.pdf").exists() &&
+                   new File(failed, "incomplete.pdf").exists())) {
+            if (System.currentTimeMillis() > giveUp) {
+               fail("Not all finished, got " + report.toString("UTF-8"));
+            }
+            Thread.sleep(50);
+         }
+      } finally {
+         watcher.interrupt();
+         watcher.join(5000);
+      }
+
+      String outcomes = report.toString("UTF-8");
+      assertTrue(outcomes, outcomes.contains("FAILED\texport error1.pdf\tjava.lang.OutOfMemoryError: Testing"));
+      assertTrue(outcomes, outcomes.contains("FAILED\texport incomplete.pdf\tPDF has no end-of-file marker"));
+      assertTrue(outcomes, outcomes.contains("OK\texport good.pdf"));
+      assertTrue(new File(in, "done/good.pdf").exists());
+   }
+}
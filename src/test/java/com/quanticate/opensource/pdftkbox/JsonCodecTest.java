@@ -0,0 +1,99 @@
+/* ====================================================================
+  Copyright 2017 Quanticate Ltd
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+==================================================================== */
+package com.quanticate.opensource.pdftkbox;
+
+import static com.quanticate.opensource.pdftkbox.TestBookmarks.assertBookmarks;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class JsonCodecTest {
+   private static final BookmarkCodec CODEC = BookmarkCodecs.JSON;
+
+   @Test
+   public void roundTrip() throws IOException {
+      List<PDFBookmark> bookmarks = TestBookmarks.sample();
+      bookmarks.add(new PDFBookmark("By label", 1, -1, "iv", 0, "FitWidth"));
+      bookmarks.add(new PDFBookmark("Quoted \"title\" with \\ and /", 1, 2, 0, null));
+      bookmarks.add(new PDFBookmark("Multi\nline\ttitle\u0001\u2028", 2, 3, 0, null));
+      PDFBookmark uncertain = new PDFBookmark("Uncertain", 1, 5, 0, "FitPage");
+      uncertain.setUncertainty("its page couldn't be found");
+      bookmarks.add(uncertain);
+
+      assertBookmarks(bookmarks, TestBookmarks.roundTrip(CODEC, bookmarks));
+   }
+
+   @Test
+   public void noTitle() throws IOException {
+      // Outline items without a /Title are written with an empty one
+      List<PDFBookmark> read = TestBookmarks.roundTrip(CODEC, Arrays.asList(
+            new PDFBookmark(null, 1, 1, 0, "FitPage")));
+      assertBookmarks(Arrays.asList(new PDFBookmark("", 1, 1, 0, "FitPage")), read);
+   }
+
+   @Test
+   public void empty() throws IOException {
+      assertEquals(Collections.emptyList(), TestBookmarks.roundTrip(CODEC, Collections.<PDFBookmark>emptyList()));
+   }
+
+   @Test
+   public void linesAndUnknownFields() throws IOException {
+      String json = "{\"title\":\"One\",\"level\":1,\"page\":1,\"extra\":{\"a\":[1,2,{\"b\":null}]}}\n" +
+                    "{\"level\":2,\"title\":\"Two \\u00e9\",\"page\":3,\"zoom\":null,\"open\":true}\n";
+      assertBookmarks(Arrays.asList(
+            new PDFBookmark("One", 1, 1, 0, null),
+            new PDFBookmark("Two \u00e9", 2, 3, 0, null)),
+            read(json));
+   }
+
+   @Test
+   public void malformed() throws IOException {
+      for (String json : new String[] {
+            "[{\"title\":\"One\",\"level\":1,\"page\":1}",
+            "[{\"title\":\"One\" \"level\":1}]",
+            "[{\"title\":\"Unterminated}]",
+            "[1]" }) {
+         try {
+            read(json);
+            fail("Should fail to read " + json);
+         } catch (BookmarkParseException e) {
+            // Expected
+         }
+      }
+   }
+
+   @Test
+   public void strictInvalidBookmark() throws IOException {
+      String json = "[\n{\"title\":\"One\",\"level\":1,\"page\":1},\n{\"title\":\"Two\",\"level\":1}\n]";
+      try {
+         read(json);
+         fail("Strict reading should fail on a bookmark without a page");
+      } catch (BookmarkParseException e) {
+         assertEquals(3, e.getLineNumber());
+      }
+   }
+
+   private static List<PDFBookmark> read(String json) throws IOException {
+      return TestBookmarks.read(CODEC, json.getBytes(StandardCharsets.UTF_8));
+   }
+}
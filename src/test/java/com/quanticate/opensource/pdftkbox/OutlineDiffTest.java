@@ -0,0 +1,161 @@
+/* ====================================================================
+  Copyright 2017 Quanticate Ltd
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+==================================================================== */
+package com.quanticate.opensource.pdftkbox;
+
+import static com.quanticate.opensource.pdftkbox.TestBookmarks.assertBookmarks;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.outline.PDOutlineItem;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class OutlineDiffTest {
+   @Rule
+   public TemporaryFolder temp = new TemporaryFolder();
+
+   @Test
+   public void identical() throws IOException {
+      OutlineDiff diff = new OutlineDiff(TestBookmarks.sample(), TestBookmarks.sample());
+      assertTrue(diff.isEmpty());
+   }
+
+   @Test
+   public void edits() throws IOException {
+      OutlineDiff diff = new OutlineDiff(TestBookmarks.sample(), edited());
+      assertFalse(diff.isEmpty());
+
+      List<String> edits = new ArrayList<>();
+      for (OutlineDiff.Edit edit : diff.getEdits()) {
+         edits.add(edit.getType() + " " + edit.getPath());
+      }
+      assertEquals(4, edits.size());
+      assertTrue(edits.toString(), edits.contains("Changed 1.1"));
+      assertTrue(edits.toString(), edits.contains("Changed 2"));
+      assertTrue(edits.toString(), edits.contains("Removed 2.1"));
+      assertTrue(edits.toString(), edits.contains("Added 3.1"));
+   }
+
+   @Test
+   public void applied() throws IOException {
+      List<PDFBookmark> to = edited();
+      File pdf = TestBookmarks.createPdf(temp.getRoot(), "from", 10, TestBookmarks.sample());
+
+      // Applied to the outline the old bookmarks come from, saved as
+      //  just the changes
+      File patched = new File(temp.getRoot(), "to.pdf");
+      try (Bookmarks bm = new Bookmarks(pdf)) {
+         assertEquals(4, bm.diffBookmarks(to).getEdits().size());
+         bm.setSaveMode(Bookmarks.SaveMode.Incremental);
+         assertTrue(bm.patchBookmarks(to, patched));
+      }
+      assertTrue(patched.length() > pdf.length());
+
+      List<PDFBookmark> exported = TestBookmarks.export(patched);
+      assertBookmarks(to, exported);
+      assertTrue(new OutlineDiff(to, exported).isEmpty());
+   }
+
+   @Test
+   public void noTitles() throws IOException {
+      List<PDFBookmark> from = TestBookmarks.sample();
+      from.set(0, new PDFBookmark(null, 1, 1, 0, "FitPage"));
+      assertTrue(new OutlineDiff(from, from).isEmpty());
+
+      List<PDFBookmark> to = TestBookmarks.sample();
+      OutlineDiff diff = new OutlineDiff(from, to);
+      assertEquals(1, diff.getEdits().size());
+      assertEquals(OutlineDiff.Type.Changed, diff.getEdits().get(0).getType());
+      assertEquals("1", diff.getEdits().get(0).getPath());
+
+      StringWriter written = new StringWriter();
+      diff.write(new PrintWriter(written, true));
+      assertTrue(written.toString(), written.toString().startsWith("~ 1 title \"null\" -> "));
+   }
+
+   @Test
+   public void deep() throws IOException {
+      // Far deeper than recursing would manage
+      List<PDFBookmark> chain = new ArrayList<>();
+      for (int i=1; i<=100000; i++) {
+         chain.add(new PDFBookmark("Level " + i, i, 1, 0, "FitPage"));
+      }
+      assertTrue(new OutlineDiff(chain, chain).isEmpty());
+
+      List<PDFBookmark> changed = new ArrayList<>(chain);
+      changed.set(chain.size()-1, new PDFBookmark("Bottom", chain.size(), 1, 0, "FitPage"));
+      OutlineDiff diff = new OutlineDiff(chain, changed);
+      assertEquals(1, diff.getEdits().size());
+      assertEquals(2*chain.size()-1, diff.getEdits().get(0).getPath().length());
+
+      // All new, so applying creates the whole chain
+      List<PDFBookmark> added = chain.subList(0, 2000);
+      try (PDDocument document = new PDDocument()) {
+         document.addPage(new PDPage());
+         OutlineDiff create = new OutlineDiff(new ArrayList<PDFBookmark>(), added);
+         assertEquals(added.size(), create.getEdits().size());
+         create.apply(document);
+
+         PDOutlineItem item = document.getDocumentCatalog().getDocumentOutline().getFirstChild();
+         for (PDFBookmark bookmark : added) {
+            assertEquals(bookmark.getTitle(), item.getTitle());
+            assertNull(item.getNextSibling());
+            PDOutlineItem child = item.getFirstChild();
+            if (child == null) break;
+            item = child;
+         }
+         assertEquals("Level 2000", item.getTitle());
+      }
+   }
+
+   @Test
+   public void limited() throws IOException {
+      DocumentLimits limits = new DocumentLimits();
+      limits.setMaxDepth(1);
+      try {
+         new OutlineDiff(TestBookmarks.sample(), edited(), limits.start(Metrics.DISABLED));
+         fail("The sample bookmarks are nested deeper than allowed");
+      } catch (LimitExceededException e) {
+         assertEquals(DocumentLimits.Limit.Depth, e.getLimit());
+      }
+   }
+
+   /**
+    * The sample bookmarks, with one renamed, one moved to another
+    *  page, one removed and one added
+    */
+   private static List<PDFBookmark> edited() {
+      List<PDFBookmark> to = TestBookmarks.sample();
+      to.set(1, new PDFBookmark("A.1", 2, 3, 700, "FitWidth"));
+      to.set(4, new PDFBookmark("Part B", 1, 8, 0, "FitHeight"));
+      to.remove(5);
+      to.add(new PDFBookmark("C.1", 2, 10, 200, "FitWidth"));
+      return to;
+   }
+}
@@ -0,0 +1,209 @@
+/* ====================================================================
+  Copyright 2017 Quanticate Ltd
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+==================================================================== */
+package com.quanticate.opensource.pdftkbox;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSString;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.outline.PDDocumentOutline;
+import org.junit.Test;
+
+/**
+ * Exporting very deep and very wide outlines, which must neither
+ *  overflow the stack nor need more than the test's fixed heap, and
+ *  outlines with loops, which must stop rather than run forever,
+ *  and bookmarks to named destinations
+ */
+public class OutlineExportTest {
+   private static final int DEEP = 100000;
+   private static final int WIDE = 1000000;
+
+   /**
+    * Counts the bookmarks exported, and the deepest level, keeping nothing
+    */
+   private static class Counter implements BookmarkParser.BookmarkHandler {
+      private int count;
+      private int maxLevel;
+      private int firstPage;
+      private int lastPage;
+      @Override
+      public void handleBookmark(PDFBookmark bookmark, int lineNumber) {
+         if (count == 0) firstPage = bookmark.getPageNumber();
+         lastPage = bookmark.getPageNumber();
+         count++;
+         maxLevel = Math.max(maxLevel, bookmark.getLevel());
+      }
+   }
+
+   @Test
+   public void deepOutline() throws IOException {
+      try (PDDocument document = new PDDocument()) {
+         COSDictionary outline = createOutline(document);
+         COSArray dest = pageDestination(document);
+
+         // Each one the only child of the one before
+         COSDictionary parent = outline;
+         for (int i=0; i<DEEP; i++) {
+            COSDictionary item = createItem(parent, "Level " + (i+1), dest);
+            parent.setItem(COSName.FIRST, item);
+            parent.setItem(COSName.LAST, item);
+            parent = item;
+         }
+
+         Counter counter = export(document);
+         assertEquals(DEEP, counter.count);
+         assertEquals(DEEP, counter.maxLevel);
+         assertEquals(1, counter.firstPage);
+      }
+   }
+
+   @Test
+   public void wideOutline() throws IOException {
+      try (PDDocument document = new PDDocument()) {
+         COSDictionary outline = createOutline(document);
+         COSArray dest = pageDestination(document);
+         // Shared, so the outline itself fits in the heap
+         COSString title = new COSString("Sibling");
+
+         // All at the top level, one after another
+         COSDictionary previous = null;
+         for (int i=0; i<WIDE; i++) {
+            COSDictionary item = new COSDictionary();
+            item.setItem(COSName.TITLE, title);
+            item.setItem(COSName.PARENT, outline);
+            item.setItem(COSName.DEST, dest);
+            if (previous == null) {
+               outline.setItem(COSName.FIRST, item);
+            } else {
+               previous.setItem(COSName.NEXT, item);
+            }
+            previous = item;
+         }
+         outline.setItem(COSName.LAST, previous);
+
+         Counter counter = export(document);
+         assertEquals(WIDE, counter.count);
+         assertEquals(1, counter.maxLevel);
+         assertEquals(1, counter.firstPage);
+      }
+   }
+
+   @Test
+   public void siblingLoop() throws IOException {
+      try (PDDocument document = new PDDocument()) {
+         COSDictionary outline = createOutline(document);
+         COSArray dest = pageDestination(document);
+
+         COSDictionary a = createItem(outline, "A", dest);
+         COSDictionary b = createItem(outline, "B", dest);
+         COSDictionary c = createItem(outline, "C", dest);
+         outline.setItem(COSName.FIRST, a);
+         a.setItem(COSName.NEXT, b);
+         b.setItem(COSName.NEXT, c);
+         // Back round to the start
+         c.setItem(COSName.NEXT, a);
+
+         Counter counter = export(document);
+         assertEquals(3, counter.count);
+      }
+   }
+
+   @Test
+   public void childLoop() throws IOException {
+      try (PDDocument document = new PDDocument()) {
+         COSDictionary outline = createOutline(document);
+         COSArray dest = pageDestination(document);
+
+         COSDictionary a = createItem(outline, "A", dest);
+         COSDictionary b = createItem(a, "B", dest);
+         COSDictionary c = createItem(outline, "C", dest);
+         outline.setItem(COSName.FIRST, a);
+         a.setItem(COSName.FIRST, b);
+         a.setItem(COSName.NEXT, c);
+         // A child of its own child
+         b.setItem(COSName.FIRST, a);
+
+         Counter counter = export(document);
+         assertEquals(3, counter.count);
+         assertEquals(2, counter.maxLevel);
+      }
+   }
+
+   @Test
+   public void namedDestinations() throws IOException {
+      try (PDDocument document = new PDDocument()) {
+         COSDictionary outline = createOutline(document);
+         COSDictionary dests = new COSDictionary();
+         dests.setItem(COSName.getPDFName("Found"), pageDestination(document));
+         document.getDocumentCatalog().getCOSObject().setItem(COSName.DESTS, dests);
+
+         COSDictionary found = createItem(outline, "Found", null);
+         found.setItem(COSName.DEST, COSName.getPDFName("Found"));
+         COSDictionary missing = createItem(outline, "Missing", null);
+         missing.setItem(COSName.DEST, COSName.getPDFName("Missing"));
+         outline.setItem(COSName.FIRST, found);
+         found.setItem(COSName.NEXT, missing);
+
+         Metrics metrics = new Metrics();
+         Counter counter = new Counter();
+         Bookmarks bookmarks = new Bookmarks(document, true);
+         bookmarks.setMetrics(metrics);
+         bookmarks.exportBookmarks(counter);
+         assertEquals(2, counter.count);
+         assertEquals(1, counter.firstPage);
+         assertEquals(-1, counter.lastPage);
+         assertEquals(2, metrics.getNamedLookups());
+         assertEquals(1, metrics.getNamedMisses());
+         assertEquals(Long.valueOf(1), metrics.getPhaseCounts().get("NamedDestinations"));
+      }
+   }
+
+   private static COSDictionary createOutline(PDDocument document) {
+      document.addPage(new PDPage());
+      PDDocumentOutline outline = new PDDocumentOutline();
+      document.getDocumentCatalog().setDocumentOutline(outline);
+      return outline.getCOSObject();
+   }
+   private static COSArray pageDestination(PDDocument document) {
+      COSArray dest = new COSArray();
+      dest.add(document.getPage(0));
+      dest.add(COSName.getPDFName("Fit"));
+      return dest;
+   }
+   /**
+    * Builds the item straight from a dictionary, as adding items through
+    *  PDOutlineNode updates the counts all the way up each time
+    */
+   private static COSDictionary createItem(COSDictionary parent, String title, COSArray dest) {
+      COSDictionary item = new COSDictionary();
+      item.setString(COSName.TITLE, title);
+      item.setItem(COSName.PARENT, parent);
+      item.setItem(COSName.DEST, dest);
+      return item;
+   }
+   private static Counter export(PDDocument document) throws IOException {
+      Counter counter = new Counter();
+      new Bookmarks(document, true).exportBookmarks(counter);
+      return counter;
+   }
+}
@@ -0,0 +1,105 @@
+/* ====================================================================
+  Copyright 2017 Quanticate Ltd
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+==================================================================== */
+package com.quanticate.opensource.pdftkbox;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Generating bookmarks from the headings of a PDF spread over several
+ *  workers, and counting it in the metrics
+ */
+public class OutlineGeneratorTest {
+   private static final int PAGES = 40;
+   private static final int[] CHAPTER_PAGES = { 1, 17, 33 };
+
+   @Rule
+   public TemporaryFolder temp = new TemporaryFolder();
+
+   @Test
+   public void headingsByFont() throws IOException {
+      File pdf = createPdf();
+      List<PDFBookmark> bookmarks = new OutlineGenerator(4).generate(pdf);
+
+      assertEquals(CHAPTER_PAGES.length, bookmarks.size());
+      for (int i=0; i<CHAPTER_PAGES.length; i++) {
+         assertEquals("Chapter " + (i+1), bookmarks.get(i).getTitle());
+         assertEquals(1, bookmarks.get(i).getLevel());
+         assertEquals(CHAPTER_PAGES[i], bookmarks.get(i).getPageNumber());
+      }
+   }
+
+   @Test
+   public void countedInMetrics() throws IOException {
+      File pdf = createPdf();
+      File output = temp.newFile("generated.txt");
+      JobSettings settings = new JobSettings();
+      Metrics metrics = new Metrics();
+      settings.setMetrics(metrics);
+
+      PDFtkBox.doGenerate(pdf.getPath(), output.getPath(), null, null, "4", settings);
+      assertEquals(1, metrics.getDocuments());
+      assertEquals(PAGES, metrics.getPages());
+      assertEquals(CHAPTER_PAGES.length, metrics.getBookmarks());
+      byte[] generated = Files.readAllBytes(output.toPath());
+      assertEquals(CHAPTER_PAGES.length, TestBookmarks.read(BookmarkCodecs.PDFTK, generated).size());
+   }
+
+   private File createPdf() throws IOException {
+      File pdf = new File(temp.getRoot(), "chapters.pdf");
+      try (PDDocument document = new PDDocument()) {
+         int chapter = 0;
+         for (int i=1; i<=PAGES; i++) {
+            PDPage page = new PDPage();
+            document.addPage(page);
+            try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+               float y = 700;
+               if (chapter < CHAPTER_PAGES.length && CHAPTER_PAGES[chapter] == i) {
+                  chapter++;
+                  y = line(content, PDType1Font.HELVETICA_BOLD, 18, y, "Chapter " + chapter);
+               }
+               for (int l=0; l<5; l++) {
+                  y = line(content, PDType1Font.HELVETICA, 10, y,
+                           "Body text line " + l + " of page " + i + ", long enough to be the body");
+               }
+            }
+         }
+         document.save(pdf);
+      }
+      return pdf;
+   }
+   private static float line(PDPageContentStream content, PDType1Font font, float size,
+                             float y, String text) throws IOException {
+      content.beginText();
+      content.setFont(font, size);
+      content.newLineAtOffset(72, y);
+      content.showText(text);
+      content.endText();
+      return y - size * 2;
+   }
+}
@@ -0,0 +1,138 @@
+/* ====================================================================
+  Copyright 2017 Quanticate Ltd
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+==================================================================== */
+package com.quanticate.opensource.pdftkbox;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Locale;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSInteger;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSString;
+import org.junit.Test;
+
+public class PageLabelIndexTest {
+   @Test
+   public void noLabels() {
+      PageLabelIndex index = new PageLabelIndex(null, 5);
+      assertEquals(1, index.getRangeCount());
+      for (int i=0; i<5; i++) {
+         assertEquals(Integer.toString(i+1), index.getLabel(i));
+         assertEquals(i, index.getPageIndex(Integer.toString(i+1)));
+      }
+      assertNull(index.getLabel(5));
+      assertEquals(-1, index.getPageIndex("0"));
+      assertEquals(-1, index.getPageIndex("6"));
+      assertEquals(-1, index.getPageIndex("i"));
+   }
+
+   @Test
+   public void ranges() {
+      // Roman front matter, prefixed appendix, lettered plates, then
+      //  unnumbered covers, split over two kids of the number tree
+      COSDictionary kid1 = numbers(0, range("r", null, 0),
+                                   4, range("D", "A-", 1));
+      COSDictionary kid2 = numbers(8, range("A", null, 0),
+                                   40, range(null, "Cover", 0));
+      COSDictionary root = new COSDictionary();
+      root.setItem(COSName.KIDS, array(kid1, kid2));
+
+      PageLabelIndex index = new PageLabelIndex(root, 42);
+      assertEquals(4, index.getRangeCount());
+
+      String[] expected = { "i", "ii", "iii", "iv", "A-1", "A-2", "A-3", "A-4" };
+      for (int i=0; i<expected.length; i++) {
+         assertEquals(expected[i], index.getLabel(i));
+      }
+      assertEquals("A", index.getLabel(8));
+      assertEquals("Z", index.getLabel(33));
+      assertEquals("AA", index.getLabel(34));
+      assertEquals("FF", index.getLabel(39));
+      assertEquals("Cover", index.getLabel(40));
+      assertEquals("Cover", index.getLabel(41));
+
+      // Every label leads back to the first page with it
+      for (int i=0; i<42; i++) {
+         assertEquals(Math.min(i, 40), index.getPageIndex(index.getLabel(i)));
+      }
+
+      // Not written the usual way, or past the end of their range
+      assertEquals(-1, index.getPageIndex("iiii"));
+      assertEquals(-1, index.getPageIndex("v"));
+      assertEquals(-1, index.getPageIndex("A-0"));
+      assertEquals(-1, index.getPageIndex("A-5"));
+      assertEquals(-1, index.getPageIndex("AB"));
+      assertEquals(-1, index.getPageIndex("GG"));
+   }
+
+   @Test
+   public void lowerRomanInTurkish() {
+      // Lower casing "I" in Turkish gives a dotless i
+      Locale locale = Locale.getDefault();
+      Locale.setDefault(new Locale("tr", "TR"));
+      try {
+         PageLabelIndex index = new PageLabelIndex(numbers(0, range("r", null, 0)), 12);
+         assertEquals("ix", index.getLabel(8));
+         assertEquals(8, index.getPageIndex("ix"));
+      } finally {
+         Locale.setDefault(locale);
+      }
+   }
+
+   @Test
+   public void startsLaterAndLoops() {
+      COSDictionary root = numbers(2, range("R", "P", 10));
+      // A broken tree which loops back on itself
+      root.setItem(COSName.KIDS, array(root));
+
+      PageLabelIndex index = new PageLabelIndex(root, 4);
+      assertEquals(2, index.getRangeCount());
+      assertEquals("1", index.getLabel(0));
+      assertEquals("2", index.getLabel(1));
+      assertEquals("PX", index.getLabel(2));
+      assertEquals("PXI", index.getLabel(3));
+      assertEquals(3, index.getPageIndex("PXI"));
+      assertEquals(-1, index.getPageIndex("PIX"));
+   }
+
+   private static COSDictionary range(String style, String prefix, int start) {
+      COSDictionary range = new COSDictionary();
+      if (style != null) range.setName(COSName.S, style);
+      if (prefix != null) range.setItem(COSName.P, new COSString(prefix));
+      if (start > 0) range.setInt(COSName.ST, start);
+      return range;
+   }
+   private static COSDictionary numbers(Object... pairs) {
+      COSArray nums = new COSArray();
+      for (int i=0; i<pairs.length; i+=2) {
+         nums.add(COSInteger.get((Integer)pairs[i]));
+         nums.add((COSDictionary)pairs[i+1]);
+      }
+      COSDictionary node = new COSDictionary();
+      node.setItem(COSName.NUMS, nums);
+      return node;
+   }
+   private static COSArray array(COSDictionary... items) {
+      COSArray array = new COSArray();
+      for (COSDictionary item : items) {
+         array.add(item);
+      }
+      return array;
+   }
+}
@@ -0,0 +1,112 @@
+/* ====================================================================
+  Copyright 2017 Quanticate Ltd
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+==================================================================== */
+package com.quanticate.opensource.pdftkbox;
+
+import static com.quanticate.opensource.pdftkbox.TestBookmarks.assertBookmarks;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SalvageReaderTest {
+   @Rule
+   public TemporaryFolder temp = new TemporaryFolder();
+
+   private List<PDFBookmark> bookmarks;
+   private File pdf;
+
+   @Before
+   public void createPdf() throws IOException {
+      bookmarks = TestBookmarks.sample();
+      pdf = TestBookmarks.createPdf(temp.getRoot(), "sample", 10, bookmarks);
+   }
+
+   @Test
+   public void intact() throws IOException {
+      try (Bookmarks bm = open(pdf)) {
+         assertFalse(bm.isSalvaged());
+         assertBookmarks(bookmarks, bm.getBookmarks());
+      }
+   }
+
+   @Test
+   public void brokenStartXref() throws IOException {
+      String raw = read(pdf);
+      int startxref = raw.lastIndexOf("startxref");
+      write(pdf, raw.substring(0, startxref) + "startxref\n99999999\n%%EOF\n");
+
+      try (Bookmarks bm = open(pdf)) {
+         assertTrue(bm.isSalvaged());
+         assertBookmarks(bookmarks, bm.getBookmarks());
+      }
+   }
+
+   @Test
+   public void shiftedOffsets() throws IOException {
+      String raw = read(pdf);
+      // Junk after the header moves every object from where the
+      //  cross-reference table says it is
+      int header = raw.indexOf('\n') + 1;
+      StringBuilder junk = new StringBuilder();
+      for (int i=0; i<50; i++) {
+         junk.append("% padding line ").append(i).append('\n');
+      }
+      write(pdf, raw.substring(0, header) + junk + raw.substring(header));
+
+      try (Bookmarks bm = open(pdf)) {
+         assertTrue(bm.isSalvaged());
+         assertBookmarks(bookmarks, bm.getBookmarks());
+      }
+   }
+
+   @Test
+   public void duplicateFlagged() throws IOException {
+      String raw = read(pdf);
+      // Repeat the first bookmark's object at the end, as an edit might
+      int title = raw.indexOf("(Part A)");
+      int objStart = raw.lastIndexOf("\n", raw.lastIndexOf(" obj", title)) + 1;
+      int objEnd = raw.indexOf("endobj", title) + "endobj".length();
+      int startxref = raw.lastIndexOf("startxref");
+      write(pdf, raw.substring(0, startxref) + raw.substring(objStart, objEnd) +
+                 "\nstartxref\n99999999\n%%EOF\n");
+
+      bookmarks.get(0).setUncertainty("the file has several versions of it, and the last was used");
+      try (Bookmarks bm = open(pdf)) {
+         assertTrue(bm.isSalvaged());
+         assertBookmarks(bookmarks, bm.getBookmarks());
+      }
+   }
+
+   private static Bookmarks open(File pdf) throws IOException {
+      return Bookmarks.openSalvaged(pdf, MemoryUsageSetting.setupMainMemoryOnly(), null);
+   }
+   private static String read(File file) throws IOException {
+      return new String(Files.readAllBytes(file.toPath()), StandardCharsets.ISO_8859_1);
+   }
+   private static void write(File file, String data) throws IOException {
+      Files.write(file.toPath(), data.getBytes(StandardCharsets.ISO_8859_1));
+   }
+}
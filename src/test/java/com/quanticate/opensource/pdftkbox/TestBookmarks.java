@@ -0,0 +1,125 @@
+/* ====================================================================
+  Copyright 2017 Quanticate Ltd
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+==================================================================== */
+package com.quanticate.opensource.pdftkbox;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+
+/**
+ * Bookmarks and PDFs for the tests, and checks that bookmarks match
+ */
+class TestBookmarks {
+   private TestBookmarks() {}
+
+   /**
+    * Bookmarks covering the levels and zoom types, which come back
+    *  the same when imported into a PDF of at least 10 pages and
+    *  exported again
+    */
+   static List<PDFBookmark> sample() {
+      return new ArrayList<>(Arrays.asList(
+            new PDFBookmark("Part A", 1, 1, 0, "FitWidth"),
+            new PDFBookmark("A.1", 2, 2, 700, "FitWidth"),
+            new PDFBookmark("A.2 \u00e9\u00e8 \u4e2d\u6587", 2, 4, 0, "FitPage"),
+            new PDFBookmark("A.2.1", 3, 5, 300, "50%"),
+            new PDFBookmark("Part B", 1, 7, 0, "FitHeight"),
+            new PDFBookmark("B.1", 2, 9, 100, "Inherit"),
+            new PDFBookmark("Part C", 1, 10, 0, "FitWidth")));
+   }
+
+   static void assertBookmarks(List<PDFBookmark> expected, List<PDFBookmark> actual) {
+      assertEquals("Number of bookmarks", expected.size(), actual.size());
+      for (int i=0; i<expected.size(); i++) {
+         assertBookmark(expected.get(i), actual.get(i));
+      }
+   }
+   static void assertBookmark(PDFBookmark expected, PDFBookmark actual) {
+      String which = expected.getTitle();
+      assertEquals(which, expected.getTitle(), actual.getTitle());
+      assertEquals(which, expected.getLevel(), actual.getLevel());
+      assertEquals(which, expected.getPageNumber(), actual.getPageNumber());
+      assertEquals(which, expected.getPageLabel(), actual.getPageLabel());
+      assertEquals(which, expected.getYOffset(), actual.getYOffset());
+      assertEquals(which, expected.getZoom(), actual.getZoom());
+      assertEquals(which, expected.getUncertainty(), actual.getUncertainty());
+   }
+
+   /**
+    * Writes the bookmarks out with the codec, and reads them back in
+    */
+   static List<PDFBookmark> roundTrip(BookmarkCodec codec, List<PDFBookmark> bookmarks) throws IOException {
+      return read(codec, write(codec, bookmarks));
+   }
+   static byte[] write(BookmarkCodec codec, List<PDFBookmark> bookmarks) throws IOException {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      BookmarkCodec.Writer writer = codec.createWriter(bytes);
+      for (PDFBookmark bookmark : bookmarks) {
+         writer.write(bookmark);
+      }
+      writer.close();
+      return bytes.toByteArray();
+   }
+   static List<PDFBookmark> read(BookmarkCodec codec, byte[] data) throws IOException {
+      final List<PDFBookmark> read = new ArrayList<>();
+      codec.read(new ByteArrayInputStream(data), true, new BookmarkParser.BookmarkHandler() {
+         @Override
+         public void handleBookmark(PDFBookmark bookmark, int lineNumber) {
+            read.add(bookmark);
+         }
+      });
+      return read;
+   }
+
+   /**
+    * Creates a PDF of blank pages, with the bookmarks imported
+    */
+   static File createPdf(File dir, String name, int pages, List<PDFBookmark> bookmarks) throws IOException {
+      File blank = new File(dir, name + "-blank.pdf");
+      try (PDDocument document = new PDDocument()) {
+         for (int i=0; i<pages; i++) {
+            document.addPage(new PDPage());
+         }
+         document.save(blank);
+      }
+      File pdf = new File(dir, name + ".pdf");
+      try (Bookmarks bm = new Bookmarks(blank)) {
+         if (! bm.importBookmarks(bookmarks, pdf)) {
+            throw new IllegalArgumentException("Invalid test bookmarks");
+         }
+      }
+      return pdf;
+   }
+
+   /**
+    * Exports the bookmarks of the PDF, reading just its outline
+    */
+   static List<PDFBookmark> export(File pdf) throws IOException {
+      try (Bookmarks bm = Bookmarks.openOutline(pdf, MemoryUsageSetting.setupMainMemoryOnly())) {
+         return bm.getBookmarks();
+      }
+   }
+}